@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.parser;
+
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Decoder for binary logcat output i.e. output of 'logcat -B'.
+ * Each log entry is 'logger_entry' structure (little-endian) followed by payload:
+ * <pre>
+ * uint16_t len;       // length of the payload
+ * uint16_t hdr_size;  // sizeof(struct logger_entry_vX), 0 for v1
+ * int32_t  pid;
+ * int32_t  tid;       // uint32_t in v4
+ * int32_t  sec;
+ * int32_t  nsec;
+ * uint32_t euid/lid;  // v2 - euid, v3 and v4 - log id
+ * uint32_t uid;       // v4
+ * </pre>
+ * Payload of text buffers is priority byte, NUL terminated tag and NUL terminated message.
+ * Payload of 'events' buffer is int32 event tag followed by typed event data.
+ * This class is not thread-safe; buffers are reused across log entries.
+ */
+public class BinaryLogEntryDecoder {
+    /**
+     * Header size of v1 'logger_entry' structure, which reports hdr_size as 0.
+     */
+    private static final int LOGGER_ENTRY_V1_HEADER_SIZE = 20;
+
+    /**
+     * Minimum header size which has log id field i.e. v3.
+     */
+    private static final int LOGGER_ENTRY_V3_HEADER_SIZE = 24;
+
+    /**
+     * Number of log buffers known to logd. v2 and v3 headers have same size, hence field at offset 20
+     * is log id only if it is below this value; otherwise it is euid of v2 header.
+     */
+    private static final int LOG_ID_MAX = 8;
+
+    /**
+     * Log id of 'events' buffer.
+     */
+    private static final int LOG_ID_EVENTS = 2;
+
+    //Event data types
+    private static final int EVENT_TYPE_INT = 0;
+    private static final int EVENT_TYPE_LONG = 1;
+    private static final int EVENT_TYPE_STRING = 2;
+    private static final int EVENT_TYPE_LIST = 3;
+    private static final int EVENT_TYPE_FLOAT = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final InputStream mInputStream;
+
+    /**
+     * Log id assumed for entries whose header does not contain log id i.e. v1 and v2 headers.
+     */
+    private final int mDefaultLogId;
+
+    private byte[] mHeader = new byte[32];
+    private byte[] mPayload = new byte[4096];
+
+    /**
+     * Log id of last decoded log entry.
+     */
+    private int mLogId;
+
+    /**
+     * Constructor
+     *
+     * @param inputStream  stream of binary logcat output.
+     * @param defaultLogId log id used when header does not contain it.
+     */
+    public BinaryLogEntryDecoder(InputStream inputStream, int defaultLogId) {
+        mInputStream = inputStream;
+        mDefaultLogId = defaultLogId;
+    }
+
+    /**
+     * Read and decode next log entry.
+     *
+     * @return decoded log entry or null if end of stream is reached.
+     * @throws IOException if reading fails or stream ends in middle of log entry.
+     */
+    public LogEntry readLogEntry() throws IOException {
+        //Read fixed part of header: len and hdr_size
+        if (!readFully(mHeader, 0, 4, true)) {
+            return null;
+        }
+
+        int payloadLength = readUnsignedShort(mHeader, 0);
+        int headerSize = readUnsignedShort(mHeader, 2);
+        if (headerSize == 0) {
+            headerSize = LOGGER_ENTRY_V1_HEADER_SIZE;
+        } else if (headerSize < LOGGER_ENTRY_V1_HEADER_SIZE) {
+            throw new IOException("Invalid logger_entry header size: " + headerSize);
+        }
+
+        //Read rest of header
+        if (mHeader.length < headerSize) {
+            byte[] header = new byte[headerSize];
+            System.arraycopy(mHeader, 0, header, 0, 4);
+            mHeader = header;
+        }
+        readFully(mHeader, 4, headerSize - 4, false);
+
+        int pid = readInt(mHeader, 4);
+        int tid = readInt(mHeader, 8);
+        long sec = readInt(mHeader, 12) & 0xffffffffL;
+        long nsec = readInt(mHeader, 16) & 0xffffffffL;
+        mLogId = mDefaultLogId;
+        if (headerSize >= LOGGER_ENTRY_V3_HEADER_SIZE) {
+            int logId = readInt(mHeader, 20);
+            if (logId >= 0 && logId < LOG_ID_MAX) {
+                mLogId = logId;
+            }
+        }
+
+        //Read payload
+        if (mPayload.length < payloadLength) {
+            mPayload = new byte[payloadLength];
+        }
+        readFully(mPayload, 0, payloadLength, false);
+
+        long timestamp = sec * 1000000000L + nsec;
+        LogEntry logEntry;
+        if (mLogId == LOG_ID_EVENTS) {
+            logEntry = decodeEvent(pid, tid, timestamp, payloadLength);
+        } else {
+            logEntry = decodeText(pid, tid, timestamp, payloadLength);
+        }
+        logEntry.setLogId(mLogId);
+        return logEntry;
+    }
+
+    /**
+     * Get log id of last decoded log entry e.g. 0 for 'main', 2 for 'events'.
+     *
+     * @return log id.
+     */
+    public int getLogId() {
+        return mLogId;
+    }
+
+    /**
+     * Decode text payload: priority, NUL terminated tag and NUL terminated message.
+     */
+    private LogEntry decodeText(int pid, int tid, long timestamp, int length) {
+        if (length == 0) {
+            return new LogEntry(pid, tid, timestamp, LogEntry.PRIORITY_UNKNOWN, "", "");
+        }
+
+        int priority = mPayload[0];
+
+        int tagEnd = indexOf(mPayload, 1, length, (byte) 0);
+        //Tag is interned, so that no String is created for known tag.
+        int tagId = SymbolTable.TAGS.intern(mPayload, 1, tagEnd - 1);
+        String tag = tagId == SymbolTable.NO_SYMBOL ? new String(mPayload, 1, tagEnd - 1, UTF_8) : null;
+
+        int messageStart = Math.min(tagEnd + 1, length);
+        int messageEnd = indexOf(mPayload, messageStart, length, (byte) 0);
+        //Trailing new lines are not part of message.
+        while (messageEnd > messageStart && mPayload[messageEnd - 1] == '\n') {
+            messageEnd--;
+        }
+        String message = new String(mPayload, messageStart, messageEnd - messageStart, UTF_8);
+
+        LogEntry logEntry = new LogEntry(pid, tid, timestamp, priority, tag, message);
+        logEntry.setTagId(tagId);
+        return logEntry;
+    }
+
+    /**
+     * Decode 'events' payload: int32 event tag followed by typed event data.
+     * Event tag names are not resolved, hence tag is the event tag number.
+     */
+    private LogEntry decodeEvent(int pid, int tid, long timestamp, int length) {
+        if (length < 4) {
+            return new LogEntry(pid, tid, timestamp, Log.INFO, "", "");
+        }
+
+        String tag = String.valueOf(readInt(mPayload, 0));
+        StringBuilder message = new StringBuilder();
+        int offset = 4;
+        while (offset < length) {
+            int next = appendEventValue(message, offset, length);
+            if (next < 0) {
+                break;
+            }
+            offset = next;
+        }
+
+        return new LogEntry(pid, tid, timestamp, Log.INFO, tag, message.toString());
+    }
+
+    /**
+     * Append typed event value starting at given offset.
+     *
+     * @return offset after the value or -1 if payload is truncated or type is unknown.
+     */
+    private int appendEventValue(StringBuilder builder, int offset, int length) {
+        if (offset >= length) {
+            return -1;
+        }
+
+        int type = mPayload[offset++];
+        switch (type) {
+            case EVENT_TYPE_INT:
+                if (offset + 4 > length) {
+                    return -1;
+                }
+                builder.append(readInt(mPayload, offset));
+                return offset + 4;
+
+            case EVENT_TYPE_LONG:
+                if (offset + 8 > length) {
+                    return -1;
+                }
+                builder.append(readLong(mPayload, offset));
+                return offset + 8;
+
+            case EVENT_TYPE_FLOAT:
+                if (offset + 4 > length) {
+                    return -1;
+                }
+                builder.append(Float.intBitsToFloat(readInt(mPayload, offset)));
+                return offset + 4;
+
+            case EVENT_TYPE_STRING:
+                if (offset + 4 > length) {
+                    return -1;
+                }
+                int stringLength = readInt(mPayload, offset);
+                offset += 4;
+                if (stringLength < 0 || offset + stringLength > length) {
+                    return -1;
+                }
+                builder.append(new String(mPayload, offset, stringLength, UTF_8));
+                return offset + stringLength;
+
+            case EVENT_TYPE_LIST:
+                if (offset >= length) {
+                    return -1;
+                }
+                int count = mPayload[offset++] & 0xff;
+                builder.append('[');
+                for (int i = 0; i < count && offset >= 0; i++) {
+                    if (i > 0) {
+                        builder.append(',');
+                    }
+                    offset = appendEventValue(builder, offset, length);
+                }
+                builder.append(']');
+                return offset;
+
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Read exactly given number of bytes.
+     *
+     * @param allowEof true if end of stream before first byte is valid.
+     * @return false if end of stream is reached before first byte and allowEof is true.
+     */
+    private boolean readFully(byte[] buffer, int offset, int length, boolean allowEof) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = mInputStream.read(buffer, offset + read, length - read);
+            if (count < 0) {
+                if (read == 0 && allowEof) {
+                    return false;
+                }
+                throw new EOFException("Truncated logger_entry");
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] buffer, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static int readUnsignedShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8);
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff)
+                | ((buffer[offset + 1] & 0xff) << 8)
+                | ((buffer[offset + 2] & 0xff) << 16)
+                | ((buffer[offset + 3] & 0xff) << 24);
+    }
+
+    private static long readLong(byte[] buffer, int offset) {
+        return (readInt(buffer, offset) & 0xffffffffL) | ((long) readInt(buffer, offset + 4) << 32);
+    }
+}
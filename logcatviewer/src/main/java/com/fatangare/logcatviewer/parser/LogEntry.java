@@ -0,0 +1,575 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.parser;
+
+import java.nio.charset.Charset;
+
+/**
+ * Single logcat log entry.
+ * It is either decoded from binary logcat output, in which case all fields are known,
+ * or read as a text line, in which case fields are known only if line is parsed by {@link LogLineParser}.
+ * Text line may be kept as UTF-8 bytes, which are decoded only when text, tag or message is needed.
+ */
+public class LogEntry {
+    /**
+     * Priority of log entry whose priority is not known e.g. raw text line.
+     * Other priorities are same as android.util.Log priority constants.
+     */
+    public static final int PRIORITY_UNKNOWN = 0;
+
+    /**
+     * Priority characters indexed by android.util.Log priority constants.
+     */
+    private static final char[] PRIORITY_CHARS = {'?', '?', 'V', 'D', 'I', 'W', 'E', 'F', 'S'};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private int mPid;
+    private int mTid;
+    /**
+     * Time of log entry in nanoseconds since epoch. 0 if not known.
+     * For text log entries, it is parsed lazily; see {@link #mIsTimestampParsed}.
+     */
+    private long mTimestamp;
+    private boolean mIsTimestampParsed;
+    private int mPriority = PRIORITY_UNKNOWN;
+    private String mTag;
+    /**
+     * Id of tag in {@link SymbolTable#TAGS} or {@link SymbolTable#NO_SYMBOL} if tag is not interned.
+     */
+    private int mTagId = SymbolTable.NO_SYMBOL;
+    /**
+     * Id of package name of process in {@link SymbolTable#PACKAGES} or {@link SymbolTable#NO_SYMBOL} if not known.
+     */
+    private int mPackageId = SymbolTable.NO_SYMBOL;
+    private String mMessage;
+
+    /**
+     * Log id of logcat source buffer from which log entry is read e.g. 0 for 'main'.
+     */
+    private int mLogId;
+
+    /**
+     * Text representation of log entry. It is created lazily for decoded log entries.
+     */
+    private String mText;
+
+    /**
+     * UTF-8 bytes of text line. These are shared with other log entries, so only given range belongs to this entry.
+     */
+    private byte[] mData;
+    private int mOffset;
+    private int mLength;
+
+    /**
+     * Offsets of tag and message in {@link #mData}, set by {@link LogLineParser}. Message extends to end of text line.
+     * Tag offset is -1 if text line is not parsed.
+     */
+    private int mTagOffset = -1;
+    private int mTagLength;
+    private int mMessageOffset;
+
+    /**
+     * Is this a text line whose fields are not known? It is set when log entry is created from text line and
+     * cleared only by {@link LogLineParser} or store, so it does not depend on text being created lazily.
+     */
+    private boolean mIsUnparsed;
+
+    /**
+     * Is this a marker of log entries dropped at this position rather than a log entry?
+     */
+    private boolean mIsGapMarker;
+    private int mDroppedCount;
+
+    /**
+     * Number of following log entries which had same content and were collapsed into this one, and time of last of them.
+     * They are updated by reader thread while log entry may already be shown, hence volatile.
+     */
+    private volatile int mRepeatCount;
+    private volatile long mLastRepeatTimestamp;
+
+    /**
+     * Sequence number of log entry in store which keeps it. -1 if it is not stored yet.
+     */
+    private long mSequence = -1;
+
+    /**
+     * Create log entry from text line.
+     *
+     * @param text log line as printed by logcat.
+     */
+    public LogEntry(String text) {
+        mText = text;
+        mIsUnparsed = true;
+    }
+
+    /**
+     * Create log entry from UTF-8 bytes of text line. Bytes are not copied, hence should not be modified.
+     *
+     * @param data   bytes.
+     * @param offset offset of text line.
+     * @param length length of text line.
+     */
+    public LogEntry(byte[] data, int offset, int length) {
+        mData = data;
+        mOffset = offset;
+        mLength = length;
+        mIsUnparsed = true;
+    }
+
+    private LogEntry() {
+    }
+
+    /**
+     * Create marker which is shown in place of log entries dropped because view could not keep up.
+     *
+     * @param droppedCount number of dropped log entries.
+     * @return gap marker.
+     */
+    public static LogEntry createGapMarker(int droppedCount) {
+        LogEntry gapMarker = new LogEntry();
+        gapMarker.mIsGapMarker = true;
+        gapMarker.mIsTimestampParsed = true;
+        gapMarker.mDroppedCount = droppedCount;
+        return gapMarker;
+    }
+
+    /**
+     * Create log entry from decoded fields.
+     *
+     * @param pid       process id.
+     * @param tid       thread id.
+     * @param timestamp time in nanoseconds since epoch.
+     * @param priority  priority - one of android.util.Log priority constants.
+     * @param tag       tag.
+     * @param message   message.
+     */
+    public LogEntry(int pid, int tid, long timestamp, int priority, String tag, String message) {
+        mPid = pid;
+        mTid = tid;
+        mTimestamp = timestamp;
+        mIsTimestampParsed = true;
+        mPriority = priority;
+        mTag = tag;
+        mMessage = message;
+    }
+
+    public int getPid() {
+        return mPid;
+    }
+
+    public int getTid() {
+        return mTid;
+    }
+
+    /**
+     * Get time of log entry. For text log entries, it is parsed from 'threadtime' or 'time' format text.
+     *
+     * @return time in nanoseconds since epoch or 0 if not known.
+     */
+    public long getTimestamp() {
+        if (!mIsTimestampParsed) {
+            if (mData != null) {
+                mTimestamp = LogTimestamp.parseTimestamp(mData, mOffset, mOffset + mLength);
+            } else {
+                mTimestamp = LogTimestamp.parseTimestamp(mText, 0);
+            }
+            mIsTimestampParsed = true;
+        }
+        return mTimestamp;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Get tag. For text log entries, tag is known only if text line is parsed.
+     *
+     * @return tag or null if not known.
+     */
+    public String getTag() {
+        if (mTagId != SymbolTable.NO_SYMBOL) {
+            return SymbolTable.TAGS.getSymbol(mTagId);
+        }
+        if (mTag == null && mData != null && mTagOffset >= 0) {
+            return new String(mData, mTagOffset, mTagLength, UTF_8);
+        }
+        return mTag;
+    }
+
+    /**
+     * Get id of tag. Log entries of same tag have same id, so tags can be compared by id.
+     *
+     * @return id in {@link SymbolTable#TAGS} or {@link SymbolTable#NO_SYMBOL} if tag is not known or not interned.
+     */
+    public int getTagId() {
+        return mTagId;
+    }
+
+    /**
+     * Set id of decoded tag. Tag string is then kept only in {@link SymbolTable#TAGS}.
+     */
+    void setTagId(int tagId) {
+        mTagId = tagId;
+        if (tagId != SymbolTable.NO_SYMBOL) {
+            mTag = null;
+        }
+    }
+
+    /**
+     * Get id of package name of process which wrote log entry.
+     *
+     * @return id in {@link SymbolTable#PACKAGES} or {@link SymbolTable#NO_SYMBOL} if not known.
+     */
+    public int getPackageId() {
+        return mPackageId;
+    }
+
+    public void setPackageId(int packageId) {
+        mPackageId = packageId;
+    }
+
+    /**
+     * Get package name of process which wrote log entry.
+     *
+     * @return package name or null if not known.
+     */
+    public String getPackageName() {
+        return mPackageId == SymbolTable.NO_SYMBOL ? null : SymbolTable.PACKAGES.getSymbol(mPackageId);
+    }
+
+    /**
+     * Get message. For text log entries, message is known only if text line is parsed.
+     *
+     * @return message or null if not known.
+     */
+    public String getMessage() {
+        if (mMessage == null && mData != null && mTagOffset >= 0) {
+            return new String(mData, mMessageOffset, mOffset + mLength - mMessageOffset, UTF_8);
+        }
+        return mMessage;
+    }
+
+    /**
+     * Is tag, priority etc. known for this log entry? It is false for text lines which are not parsed.
+     *
+     * @return true if yes else false.
+     */
+    public boolean hasFields() {
+        return !mIsUnparsed;
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getOffset() {
+        return mOffset;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Get offset of tag in {@link #getData()}.
+     *
+     * @return offset or -1 if text line is not parsed.
+     */
+    public int getTagOffset() {
+        return mTagOffset;
+    }
+
+    public int getTagLength() {
+        return mTagLength;
+    }
+
+    /**
+     * Get offset of message in {@link #getData()}. Message extends to end of text line.
+     *
+     * @return offset.
+     */
+    public int getMessageOffset() {
+        return mMessageOffset;
+    }
+
+    /**
+     * Set fields parsed from text line. Tag and message are kept as offsets into text line bytes.
+     */
+    void setParsedFields(long timestamp, int pid, int tid, int priority, int tagOffset, int tagLength, int messageOffset) {
+        mTimestamp = timestamp;
+        mIsTimestampParsed = true;
+        mPid = pid;
+        mTid = tid;
+        mPriority = priority;
+        mTagOffset = tagOffset;
+        mTagLength = tagLength;
+        mMessageOffset = messageOffset;
+        mTagId = SymbolTable.TAGS.intern(mData, tagOffset, tagLength);
+        mIsUnparsed = false;
+    }
+
+    /**
+     * Set fields of text log entry which are kept by store, so that text line is neither parsed nor interned again.
+     *
+     * @param timestamp     time in nanoseconds since epoch or 0 if not known.
+     * @param pid           process id.
+     * @param tid           thread id.
+     * @param priority      priority.
+     * @param tagId         id of tag in {@link SymbolTable#TAGS}.
+     * @param tagOffset     offset of tag in {@link #getData()} or -1 if text line is not parsed.
+     * @param tagLength     length of tag.
+     * @param messageOffset offset of message in {@link #getData()}.
+     */
+    public void setStoredFields(long timestamp, int pid, int tid, int priority, int tagId, int tagOffset,
+                                int tagLength, int messageOffset) {
+        mTimestamp = timestamp;
+        mIsTimestampParsed = true;
+        mPid = pid;
+        mTid = tid;
+        mPriority = priority;
+        mTagId = tagId;
+        mTagOffset = tagOffset;
+        mTagLength = tagLength;
+        mMessageOffset = messageOffset;
+        mIsUnparsed = tagOffset < 0;
+    }
+
+    /**
+     * Is this a marker of dropped log entries? See {@link #createGapMarker(int)}.
+     *
+     * @return true if yes else false.
+     */
+    public boolean isGapMarker() {
+        return mIsGapMarker;
+    }
+
+    /**
+     * Get number of log entries dropped at position of this gap marker.
+     *
+     * @return number of dropped log entries.
+     */
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Add log entries dropped at position of this gap marker. Gap marker should not be delivered yet.
+     *
+     * @param droppedCount number of dropped log entries.
+     */
+    public void addDroppedCount(int droppedCount) {
+        mDroppedCount += droppedCount;
+    }
+
+    /**
+     * Get number of following log entries collapsed into this one. See {@link LogRepeatCollapser}.
+     *
+     * @return number of repeats; 0 if log entry is not repeated.
+     */
+    public int getRepeatCount() {
+        return mRepeatCount;
+    }
+
+    /**
+     * Get time of last repeat of this log entry.
+     *
+     * @return time in nanoseconds since epoch or 0 if not known or log entry is not repeated.
+     */
+    public long getLastRepeatTimestamp() {
+        return mLastRepeatTimestamp;
+    }
+
+    /**
+     * Count log entry of same content as repeat of this log entry. It should be called by single thread only.
+     *
+     * @param timestamp time of repeated log entry in nanoseconds since epoch.
+     */
+    void addRepeat(long timestamp) {
+        mLastRepeatTimestamp = timestamp;
+        mRepeatCount++;
+    }
+
+    /**
+     * Set repeat count and time of last repeat e.g. of log entry restored from store.
+     *
+     * @param repeatCount         number of repeats.
+     * @param lastRepeatTimestamp time of last repeat in nanoseconds since epoch.
+     */
+    public void setRepeats(int repeatCount, long lastRepeatTimestamp) {
+        mLastRepeatTimestamp = lastRepeatTimestamp;
+        mRepeatCount = repeatCount;
+    }
+
+    /**
+     * Check if other log entry has same priority, tag and message, ignoring time, process and thread.
+     * Lines which are not parsed are compared as a whole. Bytes are compared without decoding them.
+     *
+     * @param other other log entry.
+     * @return true if yes else false.
+     */
+    public boolean hasSameContent(LogEntry other) {
+        if (mIsGapMarker || other.mIsGapMarker || mPriority != other.mPriority) {
+            return false;
+        }
+
+        if (mTagId != SymbolTable.NO_SYMBOL && other.mTagId != SymbolTable.NO_SYMBOL && mTagId != other.mTagId) {
+            return false;
+        }
+
+        if (mData != null && other.mData != null) {
+            if (mTagOffset < 0 || other.mTagOffset < 0) {
+                return mTagOffset == other.mTagOffset
+                        && rangeEquals(mData, mOffset, mLength, other.mData, other.mOffset, other.mLength);
+            }
+            return (mTagId != SymbolTable.NO_SYMBOL && mTagId == other.mTagId
+                    || rangeEquals(mData, mTagOffset, mTagLength, other.mData, other.mTagOffset, other.mTagLength))
+                    && rangeEquals(mData, mMessageOffset, mOffset + mLength - mMessageOffset,
+                    other.mData, other.mMessageOffset, other.mOffset + other.mLength - other.mMessageOffset);
+        }
+
+        if (!hasFields() || !other.hasFields()) {
+            return !hasFields() && !other.hasFields() && getText().equals(other.getText());
+        }
+        String tag = getTag();
+        String message = getMessage();
+        return (tag == null ? other.getTag() == null : tag.equals(other.getTag()))
+                && (message == null ? other.getMessage() == null : message.equals(other.getMessage()));
+    }
+
+    private static boolean rangeEquals(byte[] data, int offset, int length,
+                                       byte[] otherData, int otherOffset, int otherLength) {
+        if (length != otherLength) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[offset + i] != otherData[otherOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get sequence number given to log entry when it is appended to store.
+     *
+     * @return sequence number or -1 if log entry is not stored.
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public void setSequence(long sequence) {
+        mSequence = sequence;
+    }
+
+    /**
+     * Get log id of logcat source buffer from which log entry is read.
+     *
+     * @return log id. See {@link com.fatangare.logcatviewer.utils.Constants#getLogId(String)}.
+     */
+    public int getLogId() {
+        return mLogId;
+    }
+
+    public void setLogId(int logId) {
+        mLogId = logId;
+    }
+
+    /**
+     * Get log entry as text. For decoded log entries, it is formatted as logcat 'threadtime' format.
+     * For log entries kept as bytes, text is decoded on each call and not kept, so that bytes remain
+     * the only copy of log entry.
+     *
+     * @return log entry text.
+     */
+    public String getText() {
+        if (mIsGapMarker) {
+            return "--------- " + mDroppedCount + " lines dropped";
+        }
+        if (mData != null) {
+            return new String(mData, mOffset, mLength, UTF_8);
+        }
+        if (mText == null) {
+            mText = formatThreadtime();
+        }
+        return mText;
+    }
+
+    /**
+     * Get approximate size of log entry in bytes. It is used to bound buffers of log entries.
+     *
+     * @return approximate size in bytes.
+     */
+    public int getApproximateSize() {
+        if (mData != null) {
+            return mLength;
+        }
+        if (mText != null) {
+            return mText.length();
+        }
+        return 32 + (mTag == null ? 0 : mTag.length()) + (mMessage == null ? 0 : mMessage.length());
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+
+    /**
+     * Get priority character e.g. 'E' for error.
+     *
+     * @param priority android.util.Log priority constant.
+     * @return priority character or '?' if priority is not valid.
+     */
+    public static char getPriorityChar(int priority) {
+        if (priority < 0 || priority >= PRIORITY_CHARS.length) {
+            return '?';
+        }
+        return PRIORITY_CHARS[priority];
+    }
+
+    /**
+     * Format log entry as logcat 'threadtime' format i.e. "MM-DD HH:MM:SS.mmm  PID  TID P TAG: MESSAGE".
+     * Formatting is done manually as it is called for each displayed log entry.
+     *
+     * @return formatted log entry.
+     */
+    private String formatThreadtime() {
+        String tag = getTag();
+        StringBuilder builder = new StringBuilder(32 + (tag == null ? 0 : tag.length())
+                + (mMessage == null ? 0 : mMessage.length()));
+
+        LogTimestamp.appendTimestamp(builder, mTimestamp).append(' ');
+        appendRightAligned(builder, mPid, 5).append(' ');
+        appendRightAligned(builder, mTid, 5).append(' ');
+        builder.append(getPriorityChar(mPriority)).append(' ');
+        builder.append(tag).append(": ").append(mMessage);
+
+        return builder.toString();
+    }
+
+    private static StringBuilder appendRightAligned(StringBuilder builder, int value, int width) {
+        int length = String.valueOf(value).length();
+        for (int i = length; i < width; i++) {
+            builder.append(' ');
+        }
+        return builder.append(value);
+    }
+}
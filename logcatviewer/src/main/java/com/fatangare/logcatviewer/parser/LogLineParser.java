@@ -0,0 +1,565 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.parser;
+
+import android.util.Log;
+
+import java.nio.charset.Charset;
+import java.util.TimeZone;
+
+/**
+ * Parser for text log lines of logcat. Format of output is detected from first lines which are in a known format
+ * and then only parser of that format is used for following lines:
+ * <pre>
+ * threadtime: MM-DD hh:mm:ss.mmm  PID  TID P TAG     : message
+ * time:       MM-DD hh:mm:ss.mmm P/TAG     (  PID): message
+ * brief:      P/TAG     (  PID): message
+ * long:       [ MM-DD hh:mm:ss.mmm  PID: TID P/TAG ]
+ *             message
+ *             (blank line)
+ * </pre>
+ * Timestamp may also be printed with 'year', 'epoch', 'monotonic', 'usec', 'nsec' and 'zone' modifiers,
+ * and 'uid' modifier adds UID column before PID.
+ * <p/>
+ * Single line is parsed once at ingest straight from its UTF-8 bytes. Parsed fields are kept in log entry as numbers
+ * and as offsets of tag and message in the line, so no String is created while parsing.
+ * Records of 'long' format span several lines, so they are assembled into decoded log entries.
+ * This class is not thread-safe.
+ */
+public class LogLineParser {
+    /**
+     * Format is not detected yet.
+     */
+    public static final int FORMAT_UNKNOWN = 0;
+    public static final int FORMAT_THREADTIME = 1;
+    public static final int FORMAT_TIME = 2;
+    public static final int FORMAT_BRIEF = 3;
+    public static final int FORMAT_LONG = 4;
+
+    /**
+     * Number of consecutive lines not in detected format after which format is detected again,
+     * e.g. when replayed file has recordings of different formats.
+     */
+    private static final int REDETECTION_LINE_COUNT = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Local time zone used for timestamps. It is kept as TimeZone.getDefault() returns a copy on each call.
+     */
+    private final TimeZone mTimeZone;
+    private final TimeZone mUtcTimeZone;
+
+    private int mFormat = FORMAT_UNKNOWN;
+    private int mUnknownLineCount;
+
+    //Result of parseTime() and parseLongHeader(). Kept in fields to avoid allocation per line.
+    private long mParsedTimestamp;
+    private int mParsedPid;
+    private int mParsedTid;
+    private int mParsedPriority;
+    private int mParsedTagStart;
+    private int mParsedTagEnd;
+
+    //'long' format record which is being assembled.
+    private boolean mHasLongRecord;
+    private long mLongTimestamp;
+    private int mLongPid;
+    private int mLongTid;
+    private int mLongPriority;
+    private String mLongTag;
+    private int mLongTagId;
+    private int mLongLineCount;
+    private final StringBuilder mLongMessage = new StringBuilder();
+
+    /**
+     * Constructor
+     */
+    public LogLineParser() {
+        mTimeZone = TimeZone.getDefault();
+        mUtcTimeZone = TimeZone.getTimeZone("UTC");
+    }
+
+    /**
+     * Get detected format of log lines.
+     *
+     * @return one of FORMAT_* constants.
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Parse next text line and set fields of its log entry. Log entries which are not kept as bytes or
+     * whose line is not in known format e.g. "--------- beginning of main" are returned as they are.
+     * Lines of 'long' format record are consumed till record is complete, after which it is returned as one log entry.
+     *
+     * @param logEntry log entry read by {@link LogLineReader}.
+     * @return log entry to be shown or null if line is consumed by record which is not complete yet.
+     */
+    public LogEntry nextLogEntry(LogEntry logEntry) {
+        byte[] data = logEntry.getData();
+        if (data == null) {
+            return logEntry;
+        }
+
+        int offset = logEntry.getOffset();
+        int end = offset + logEntry.getLength();
+
+        switch (mFormat) {
+            case FORMAT_UNKNOWN:
+                return detectFormat(logEntry, data, offset, end);
+
+            case FORMAT_LONG:
+                return nextLongLogEntry(logEntry, data, offset, end);
+
+            default:
+                if (parseLine(mFormat, logEntry, data, offset, end)) {
+                    mUnknownLineCount = 0;
+                } else if (++mUnknownLineCount == REDETECTION_LINE_COUNT) {
+                    mFormat = FORMAT_UNKNOWN;
+                }
+                return logEntry;
+        }
+    }
+
+    /**
+     * Get record of 'long' format which is being assembled, e.g. at end of stream.
+     *
+     * @return log entry or null if there is none.
+     */
+    public LogEntry flush() {
+        if (!mHasLongRecord) {
+            return null;
+        }
+
+        mHasLongRecord = false;
+        LogEntry logEntry = new LogEntry(mLongPid, mLongTid, mLongTimestamp, mLongPriority, mLongTag,
+                mLongMessage.toString());
+        logEntry.setTagId(mLongTagId);
+        mLongMessage.setLength(0);
+        return logEntry;
+    }
+
+    /**
+     * Try parsers of all formats. First format in which line is parsed becomes the detected format.
+     */
+    private LogEntry detectFormat(LogEntry logEntry, byte[] data, int offset, int end) {
+        for (int format = FORMAT_THREADTIME; format <= FORMAT_BRIEF; format++) {
+            if (parseLine(format, logEntry, data, offset, end)) {
+                mFormat = format;
+                mUnknownLineCount = 0;
+                return logEntry;
+            }
+        }
+
+        if (parseLongHeader(data, offset, end)) {
+            mFormat = FORMAT_LONG;
+            mUnknownLineCount = 0;
+            startLongRecord(data);
+            return null;
+        }
+        return logEntry;
+    }
+
+    private boolean parseLine(int format, LogEntry logEntry, byte[] data, int offset, int end) {
+        int i;
+        switch (format) {
+            case FORMAT_THREADTIME:
+                i = parseTime(data, offset, end);
+                return i >= 0 && parseThreadtime(logEntry, data, skipSpaces(data, i, end), end, mParsedTimestamp);
+
+            case FORMAT_TIME:
+                i = parseTime(data, offset, end);
+                return i >= 0 && parseBrief(logEntry, data, skipSpaces(data, i, end), end, mParsedTimestamp);
+
+            case FORMAT_BRIEF:
+                return parseBrief(logEntry, data, offset, end, 0);
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Add line to 'long' format record. Record starts with header line and ends with blank line.
+     */
+    private LogEntry nextLongLogEntry(LogEntry logEntry, byte[] data, int offset, int end) {
+        if (parseLongHeader(data, offset, end)) {
+            //Header without blank line before it still ends previous record.
+            LogEntry previous = flush();
+            startLongRecord(data);
+            mUnknownLineCount = 0;
+            return previous;
+        }
+
+        if (mHasLongRecord) {
+            if (offset == end) {
+                return flush();
+            }
+            if (mLongLineCount++ > 0) {
+                mLongMessage.append('\n');
+            }
+            mLongMessage.append(new String(data, offset, end - offset, UTF_8));
+            return null;
+        }
+
+        //Line outside of record e.g. divider.
+        if (offset != end && ++mUnknownLineCount == REDETECTION_LINE_COUNT) {
+            mFormat = FORMAT_UNKNOWN;
+        }
+        return logEntry;
+    }
+
+    private void startLongRecord(byte[] data) {
+        mHasLongRecord = true;
+        mLongTimestamp = mParsedTimestamp;
+        mLongPid = mParsedPid;
+        mLongTid = mParsedTid;
+        mLongPriority = mParsedPriority;
+        mLongTagId = SymbolTable.TAGS.intern(data, mParsedTagStart, mParsedTagEnd - mParsedTagStart);
+        mLongTag = mLongTagId == SymbolTable.NO_SYMBOL
+                ? new String(data, mParsedTagStart, mParsedTagEnd - mParsedTagStart, UTF_8) : null;
+        mLongLineCount = 0;
+    }
+
+    /**
+     * Parse timestamp in any of logcat time formats:
+     * "[YYYY-]MM-DD hh:mm:ss.fff" or "sssss.fff" of 'epoch' and 'monotonic', where fraction has 3, 6 or 9 digits,
+     * optionally followed by time zone e.g. "+0530" of 'zone'. Timestamp is set in {@link #mParsedTimestamp};
+     * it is 0 for 'monotonic' time as it is not time since epoch.
+     *
+     * @return offset after timestamp or -1 if there is no timestamp at given offset.
+     */
+    private int parseTime(byte[] data, int offset, int end) {
+        int i = offset;
+        long year = -1;
+        if (i + 10 < end && data[i + 4] == '-' && data[i + 7] == '-' && data[i + 10] == ' ') {
+            year = parseNumber(data, i, i + 4);
+            if (year < 0) {
+                return -1;
+            }
+            i += 5;
+        }
+
+        int month = 0;
+        int day = 0;
+        int hour = 0;
+        int minute = 0;
+        long second;
+        if (i + LogTimestamp.TIMESTAMP_LENGTH <= end && data[i + 2] == '-' && data[i + 5] == ' '
+                && data[i + 8] == ':' && data[i + 11] == ':' && data[i + 14] == '.') {
+            month = (int) parseNumber(data, i, i + 2);
+            day = (int) parseNumber(data, i + 3, i + 5);
+            hour = (int) parseNumber(data, i + 6, i + 8);
+            minute = (int) parseNumber(data, i + 9, i + 11);
+            second = parseNumber(data, i + 12, i + 14);
+            if (month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || minute < 0 || second < 0) {
+                return -1;
+            }
+            i += 14;
+        } else if (year < 0) {
+            //Seconds of 'epoch' or 'monotonic' time, right aligned.
+            i = skipSpaces(data, i, end);
+            int start = i;
+            while (i < end && data[i] >= '0' && data[i] <= '9') {
+                i++;
+            }
+            if (i == start || i - start > 12 || i == end || data[i] != '.') {
+                return -1;
+            }
+            second = parseNumber(data, start, i);
+        } else {
+            return -1;
+        }
+
+        //Fraction of second.
+        int start = ++i;
+        int nanos = 0;
+        while (i < end && i - start < 9 && data[i] >= '0' && data[i] <= '9') {
+            nanos = nanos * 10 + (data[i++] - '0');
+        }
+        int digits = i - start;
+        if (digits == 0 || (i < end && data[i] != ' ')) {
+            return -1;
+        }
+        for (; digits < 9; digits++) {
+            nanos *= 10;
+        }
+
+        //Optional time zone offset "+hhmm".
+        TimeZone timeZone = mTimeZone;
+        long zoneOffset = 0;
+        if (i + 6 < end && (data[i + 1] == '+' || data[i + 1] == '-') && data[i + 6] == ' ') {
+            long zone = parseNumber(data, i + 2, i + 6);
+            if (zone >= 0) {
+                zoneOffset = ((zone / 100) * 60 + zone % 100) * 60000L * (data[i + 1] == '-' ? -1 : 1);
+                timeZone = mUtcTimeZone;
+                i += 6;
+            }
+        }
+
+        long timestamp;
+        if (month == 0) {
+            //Monotonic time is time since boot, which is much smaller than any time since epoch in logs.
+            timestamp = second < 100000000L ? 0 : second * 1000000000L + nanos;
+        } else {
+            int millis = nanos / 1000000;
+            timestamp = (year < 0
+                    ? LogTimestamp.toEpochNanos(timeZone, month, day, hour, minute, (int) second, millis)
+                    : LogTimestamp.toEpochNanos(timeZone, year, month, day, hour, minute, (int) second, millis))
+                    - zoneOffset * 1000000L + nanos % 1000000;
+        }
+        mParsedTimestamp = timestamp;
+        return i;
+    }
+
+    /**
+     * Parse "[UID]  PID  TID P TAG     : message" part of 'threadtime' line. UID column is printed by 'uid' modifier
+     * and may be a name e.g. "u0_a12", so it is skipped.
+     */
+    private boolean parseThreadtime(LogEntry logEntry, byte[] data, int offset, int end, long timestamp) {
+        int i = offset;
+        int columns = 0;
+        int pidStart = 0;
+        int pidEnd = 0;
+        int tidStart = 0;
+        int tidEnd = 0;
+        while (columns < 2 || i + 1 >= end || data[i + 1] != ' '
+                || toPriority(data[i]) == LogEntry.PRIORITY_UNKNOWN) {
+            if (columns == 3 || i >= end) {
+                return false;
+            }
+            int start = i;
+            while (i < end && data[i] != ' ') {
+                i++;
+            }
+            pidStart = tidStart;
+            pidEnd = tidEnd;
+            tidStart = start;
+            tidEnd = i;
+            i = skipSpaces(data, i, end);
+            columns++;
+        }
+
+        long pid = parseNumber(data, pidStart, pidEnd);
+        long tid = parseNumber(data, tidStart, tidEnd);
+        if (pid < 0 || tid < 0) {
+            return false;
+        }
+
+        //Tag is padded with spaces and ends at first ": ".
+        int tagStart = i + 2;
+        int colon = indexOfColon(data, tagStart, end);
+        if (colon < 0) {
+            return false;
+        }
+
+        logEntry.setParsedFields(timestamp, (int) pid, (int) tid, toPriority(data[i]), tagStart,
+                trimEnd(data, tagStart, colon) - tagStart, Math.min(colon + 2, end));
+        return true;
+    }
+
+    /**
+     * Parse "P/TAG     ([UID:]  PID): message" part of 'brief' and 'time' lines.
+     */
+    private boolean parseBrief(LogEntry logEntry, byte[] data, int offset, int end, long timestamp) {
+        if (offset + 2 >= end || data[offset + 1] != '/') {
+            return false;
+        }
+
+        int priority = toPriority(data[offset]);
+        if (priority == LogEntry.PRIORITY_UNKNOWN) {
+            return false;
+        }
+
+        //Tag ends at '(' of first "): ", since tag itself may contain brackets.
+        int tagStart = offset + 2;
+        int close = tagStart;
+        while (true) {
+            close = indexOfColon(data, close, end);
+            if (close < 0) {
+                return false;
+            }
+            if (close > tagStart && data[close - 1] == ')') {
+                break;
+            }
+            close++;
+        }
+        close--;
+
+        int open = close - 1;
+        int pidStart = close;
+        while (open >= tagStart && data[open] != '(') {
+            //UID printed by 'uid' modifier is followed by ':'.
+            if (data[open] == ':' && pidStart == close) {
+                pidStart = open + 1;
+            }
+            open--;
+        }
+        if (open < tagStart) {
+            return false;
+        }
+        if (pidStart == close) {
+            pidStart = open + 1;
+        }
+
+        long pid = parseNumber(data, skipSpaces(data, pidStart, close), close);
+        if (pid < 0) {
+            return false;
+        }
+
+        //Thread id is not part of 'brief' and 'time' formats.
+        logEntry.setParsedFields(timestamp, (int) pid, 0, priority, tagStart, trimEnd(data, tagStart, open) - tagStart,
+                Math.min(close + 3, end));
+        return true;
+    }
+
+    /**
+     * Parse "[ MM-DD hh:mm:ss.mmm [UID]  PID:  TID P/TAG     ]" header line of 'long' record into mParsed* fields.
+     */
+    private boolean parseLongHeader(byte[] data, int offset, int end) {
+        if (end - offset < 4 || data[offset] != '[' || data[offset + 1] != ' ' || data[end - 1] != ']') {
+            return false;
+        }
+
+        end--;
+        int i = parseTime(data, skipSpaces(data, offset + 1, end), end);
+        if (i < 0) {
+            return false;
+        }
+
+        //PID is followed by ':' and may be preceded by UID column, which may also be followed by ':'.
+        int pid = -1;
+        int tidStart;
+        for (int columns = 0; ; columns++) {
+            tidStart = skipSpaces(data, i, end);
+            i = tidStart;
+            while (i < end && data[i] >= '0' && data[i] <= '9') {
+                i++;
+            }
+            if (i > tidStart && i < end && data[i] == ':') {
+                pid = (int) parseNumber(data, tidStart, i++);
+            } else if (pid >= 0) {
+                break;
+            } else {
+                while (i < end && data[i] != ' ') {
+                    i++;
+                }
+            }
+            if (columns == 2) {
+                return false;
+            }
+        }
+        mParsedPid = pid;
+
+        while (i < end && data[i] >= '0' && data[i] <= '9') {
+            i++;
+        }
+        if (i == tidStart) {
+            return false;
+        }
+        mParsedTid = (int) parseNumber(data, tidStart, i);
+
+        i = skipSpaces(data, i, end);
+        if (i + 1 >= end || data[i + 1] != '/') {
+            return false;
+        }
+        mParsedPriority = toPriority(data[i]);
+        if (mParsedPriority == LogEntry.PRIORITY_UNKNOWN) {
+            return false;
+        }
+
+        mParsedTagStart = i + 2;
+        mParsedTagEnd = trimEnd(data, mParsedTagStart, end);
+        return true;
+    }
+
+    /**
+     * Convert priority character to android.util.Log priority constant.
+     *
+     * @param c priority character e.g. 'E'.
+     * @return priority or {@link LogEntry#PRIORITY_UNKNOWN} if character is not a priority.
+     */
+    public static int toPriority(byte c) {
+        switch (c) {
+            case 'V':
+                return Log.VERBOSE;
+            case 'D':
+                return Log.DEBUG;
+            case 'I':
+                return Log.INFO;
+            case 'W':
+                return Log.WARN;
+            case 'E':
+                return Log.ERROR;
+            case 'F':
+            case 'A':
+                return Log.ASSERT;
+            default:
+                return LogEntry.PRIORITY_UNKNOWN;
+        }
+    }
+
+    /**
+     * Find ':' which is followed by space or end of line.
+     *
+     * @return offset of ':' or -1 if not found.
+     */
+    private static int indexOfColon(byte[] data, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (data[i] == ':' && (i + 1 == end || data[i + 1] == ' ')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse decimal digits.
+     *
+     * @return value or -1 if range is empty or has other characters.
+     */
+    private static long parseNumber(byte[] data, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            if (data[i] < '0' || data[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (data[i] - '0');
+        }
+        return value;
+    }
+
+    private static int skipSpaces(byte[] data, int from, int end) {
+        while (from < end && data[from] == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] data, int start, int end) {
+        while (end > start && data[end - 1] == ' ') {
+            end--;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reader which splits logcat text output into lines at byte level.
+ * Bytes are read in bulk straight into large slabs and lines are returned as ranges of the slab,
+ * so no String or char[] is created per line; decoding to text is left to {@link LogEntry#getText()}.
+ * Slab bytes are never modified once read, hence log entries can keep referring to them.
+ * For the same reason slabs are not reused: reader can not tell when last log entry referring to a full slab
+ * is gone, so full slab is left to garbage collector and new slab is allocated.
+ * This class is not thread-safe.
+ */
+public class LogLineReader {
+    /**
+     * Size of slab into which bytes are read.
+     */
+    private static final int SLAB_SIZE = 64 * 1024; //64KB
+
+    private final InputStream mInputStream;
+
+    private byte[] mSlab;
+    /**
+     * Start of next line in {@link #mSlab}.
+     */
+    private int mLineStart;
+    /**
+     * Offset from which next new line character is searched.
+     */
+    private int mScanOffset;
+    /**
+     * End of bytes read in {@link #mSlab}.
+     */
+    private int mEnd;
+
+    //Last read line
+    private byte[] mLineData;
+    private int mLineOffset;
+    private int mLineLength;
+
+    //Statistics
+    private long mBytesRead;
+    private long mLinesRead;
+    private int mSlabsAllocated;
+
+    /**
+     * Constructor
+     *
+     * @param inputStream stream of logcat text output.
+     */
+    public LogLineReader(InputStream inputStream) {
+        mInputStream = inputStream;
+        mSlab = new byte[SLAB_SIZE];
+        mSlabsAllocated = 1;
+    }
+
+    /**
+     * Read next line. Line is available with {@link #getLineData()}, {@link #getLineOffset()}
+     * and {@link #getLineLength()} till next call. Line terminator ('\n' or "\r\n") is not part of line.
+     *
+     * @return true if line is read or false if end of stream is reached.
+     * @throws IOException if reading fails.
+     */
+    public boolean readLine() throws IOException {
+        while (true) {
+            //Search new line character in bytes read so far.
+            for (int i = mScanOffset; i < mEnd; i++) {
+                if (mSlab[i] == '\n') {
+                    int lineEnd = (i > mLineStart && mSlab[i - 1] == '\r') ? i - 1 : i;
+                    setLine(mLineStart, lineEnd);
+                    mLineStart = mScanOffset = i + 1;
+                    return true;
+                }
+            }
+            mScanOffset = mEnd;
+
+            //Slab is full, so move partial line to new slab. Old slab is not reused, as log entries may refer to it.
+            if (mEnd == mSlab.length) {
+                int partialLength = mEnd - mLineStart;
+                byte[] slab = new byte[Math.max(SLAB_SIZE, partialLength * 2)];
+                System.arraycopy(mSlab, mLineStart, slab, 0, partialLength);
+                mSlab = slab;
+                mSlabsAllocated++;
+                mLineStart = 0;
+                mScanOffset = mEnd = partialLength;
+            }
+
+            int count = mInputStream.read(mSlab, mEnd, mSlab.length - mEnd);
+            if (count < 0) {
+                //Last line without line terminator.
+                if (mEnd > mLineStart) {
+                    setLine(mLineStart, mEnd);
+                    mLineStart = mScanOffset = mEnd;
+                    return true;
+                }
+                return false;
+            }
+            mEnd += count;
+            mBytesRead += count;
+        }
+    }
+
+    /**
+     * Read next line as log entry.
+     *
+     * @return log entry or null if end of stream is reached.
+     * @throws IOException if reading fails.
+     */
+    public LogEntry readLogEntry() throws IOException {
+        if (!readLine()) {
+            return null;
+        }
+        return new LogEntry(mLineData, mLineOffset, mLineLength);
+    }
+
+    /**
+     * Check if last read line starts with given bytes.
+     *
+     * @param prefix prefix bytes.
+     * @return true if yes else false.
+     */
+    public boolean lineStartsWith(byte[] prefix) {
+        if (mLineLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (mLineData[mLineOffset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte[] getLineData() {
+        return mLineData;
+    }
+
+    public int getLineOffset() {
+        return mLineOffset;
+    }
+
+    public int getLineLength() {
+        return mLineLength;
+    }
+
+    /**
+     * Get number of bytes read from stream.
+     *
+     * @return number of bytes.
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * Get number of lines read from stream.
+     *
+     * @return number of lines.
+     */
+    public long getLinesRead() {
+        return mLinesRead;
+    }
+
+    /**
+     * Get number of slabs allocated. Apart from log entry objects, these are the only allocations of the reader.
+     *
+     * @return number of slabs.
+     */
+    public int getSlabsAllocated() {
+        return mSlabsAllocated;
+    }
+
+    private void setLine(int start, int end) {
+        mLineData = mSlab;
+        mLineOffset = start;
+        mLineLength = end - start;
+        mLinesRead++;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.parser;
+
+/**
+ * Ingest stage which collapses consecutive log entries of same content into first of them.
+ * Collapsed log entries are counted as repeats of first log entry along with time of last repeat, so that
+ * spamming app costs one log entry per run of identical lines instead of one per line.
+ * This class is not thread-safe; it should be used by reader thread only.
+ */
+public class LogRepeatCollapser {
+    /**
+     * Last log entry which is not collapsed, into which following log entries of same content are collapsed.
+     */
+    private LogEntry mLastLogEntry;
+
+    private long mCollapsedCount;
+
+    /**
+     * Collapse log entry into last log entry if it has same content and source buffer.
+     *
+     * @param logEntry log entry in the order it is read.
+     * @return true if log entry is collapsed and should not be kept, else false.
+     */
+    public boolean collapse(LogEntry logEntry) {
+        LogEntry lastLogEntry = mLastLogEntry;
+        if (lastLogEntry != null && lastLogEntry.getLogId() == logEntry.getLogId()
+                && lastLogEntry.hasSameContent(logEntry)) {
+            lastLogEntry.addRepeat(logEntry.getTimestamp());
+            mCollapsedCount++;
+            return true;
+        }
+
+        mLastLogEntry = logEntry;
+        return false;
+    }
+
+    /**
+     * Get last log entry which is not collapsed.
+     *
+     * @return log entry or null if none is read yet.
+     */
+    public LogEntry getLastLogEntry() {
+        return mLastLogEntry;
+    }
+
+    /**
+     * Get number of log entries collapsed so far.
+     *
+     * @return number of log entries.
+     */
+    public long getCollapsedCount() {
+        return mCollapsedCount;
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.parser;
+
+import java.util.TimeZone;
+
+/**
+ * Conversion between logcat timestamps i.e. local time "MM-DD hh:mm:ss.mmm" and nanoseconds since epoch.
+ * Conversion is done manually without Calendar or SimpleDateFormat as it is done for many log entries.
+ * See http://howardhinnant.github.io/date_algorithms.html for date algorithms.
+ */
+public class LogTimestamp {
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * Length of "MM-DD hh:mm:ss.mmm".
+     */
+    public static final int TIMESTAMP_LENGTH = 18;
+
+    private LogTimestamp() {
+    }
+
+    /**
+     * Append timestamp as "MM-DD hh:mm:ss.mmm" in local time.
+     *
+     * @param builder   builder to append to.
+     * @param timestamp time in nanoseconds since epoch.
+     * @return builder.
+     */
+    public static StringBuilder appendTimestamp(StringBuilder builder, long timestamp) {
+        byte[] buffer = new byte[TIMESTAMP_LENGTH];
+        putTimestamp(buffer, 0, timestamp, TimeZone.getDefault());
+        for (byte b : buffer) {
+            builder.append((char) b);
+        }
+        return builder;
+    }
+
+    /**
+     * Put timestamp as "MM-DD hh:mm:ss.mmm" in given time zone to bytes, e.g. to rebuild start of log line.
+     * It does not allocate.
+     *
+     * @param buffer    bytes to put timestamp to. It should have {@link #TIMESTAMP_LENGTH} bytes from offset.
+     * @param offset    offset of timestamp.
+     * @param timestamp time in nanoseconds since epoch.
+     * @param timeZone  local time zone.
+     * @return offset after timestamp.
+     */
+    public static int putTimestamp(byte[] buffer, int offset, long timestamp, TimeZone timeZone) {
+        long millis = timestamp / NANOS_PER_MILLI;
+        long localMillis = millis + timeZone.getOffset(millis);
+        long days = floorDiv(localMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (localMillis - days * MILLIS_PER_DAY);
+
+        //Convert days since epoch to month and day.
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+
+        putDigits(buffer, offset, month, 2);
+        buffer[offset + 2] = '-';
+        putDigits(buffer, offset + 3, day, 2);
+        buffer[offset + 5] = ' ';
+        putDigits(buffer, offset + 6, millisOfDay / 3600000, 2);
+        buffer[offset + 8] = ':';
+        putDigits(buffer, offset + 9, (millisOfDay / 60000) % 60, 2);
+        buffer[offset + 11] = ':';
+        putDigits(buffer, offset + 12, (millisOfDay / 1000) % 60, 2);
+        buffer[offset + 14] = '.';
+        putDigits(buffer, offset + 15, millisOfDay % 1000, 3);
+        return offset + TIMESTAMP_LENGTH;
+    }
+
+    /**
+     * Format timestamp as "MM-DD hh:mm:ss.mmm" in local time e.g. for 'logcat -T'.
+     *
+     * @param timestamp time in nanoseconds since epoch.
+     * @return formatted timestamp.
+     */
+    public static String formatTimestamp(long timestamp) {
+        return appendTimestamp(new StringBuilder(TIMESTAMP_LENGTH), timestamp).toString();
+    }
+
+    /**
+     * Parse "MM-DD hh:mm:ss.mmm" local timestamp at given offset of text.
+     * Since year is not part of timestamp, current year is assumed unless it makes timestamp lie in future.
+     *
+     * @param text   text e.g. log line in 'threadtime' or 'time' format.
+     * @param offset offset of timestamp.
+     * @return time in nanoseconds since epoch or 0 if text does not have timestamp at given offset.
+     */
+    public static long parseTimestamp(CharSequence text, int offset) {
+        if (text == null || text.length() < offset + TIMESTAMP_LENGTH
+                || text.charAt(offset + 2) != '-' || text.charAt(offset + 5) != ' '
+                || text.charAt(offset + 8) != ':' || text.charAt(offset + 11) != ':'
+                || text.charAt(offset + 14) != '.') {
+            return 0;
+        }
+
+        int month = parseDigits(text, offset, 2);
+        int day = parseDigits(text, offset + 3, 2);
+        int hour = parseDigits(text, offset + 6, 2);
+        int minute = parseDigits(text, offset + 9, 2);
+        int second = parseDigits(text, offset + 12, 2);
+        int millis = parseDigits(text, offset + 15, 3);
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || minute < 0 || second < 0 || millis < 0) {
+            return 0;
+        }
+
+        return toEpochNanos(TimeZone.getDefault(), month, day, hour, minute, second, millis);
+    }
+
+    /**
+     * Parse "MM-DD hh:mm:ss.mmm" local timestamp from bytes of log line without decoding them to text.
+     *
+     * @param data   bytes of log line.
+     * @param offset offset of timestamp.
+     * @param end    end of log line.
+     * @return time in nanoseconds since epoch or 0 if there is no timestamp at given offset.
+     */
+    public static long parseTimestamp(byte[] data, int offset, int end) {
+        return parseTimestamp(data, offset, end, TimeZone.getDefault());
+    }
+
+    /**
+     * Parse "MM-DD hh:mm:ss.mmm" local timestamp from bytes of log line in given time zone.
+     * It does not allocate, hence it can be used for every log line; TimeZone.getDefault() returns a copy on each call.
+     *
+     * @param data     bytes of log line.
+     * @param offset   offset of timestamp.
+     * @param end      end of log line.
+     * @param timeZone local time zone.
+     * @return time in nanoseconds since epoch or 0 if there is no timestamp at given offset.
+     */
+    public static long parseTimestamp(byte[] data, int offset, int end, TimeZone timeZone) {
+        if (data == null || end < offset + TIMESTAMP_LENGTH
+                || data[offset + 2] != '-' || data[offset + 5] != ' '
+                || data[offset + 8] != ':' || data[offset + 11] != ':'
+                || data[offset + 14] != '.') {
+            return 0;
+        }
+
+        int month = parseDigits(data, offset, 2);
+        int day = parseDigits(data, offset + 3, 2);
+        int hour = parseDigits(data, offset + 6, 2);
+        int minute = parseDigits(data, offset + 9, 2);
+        int second = parseDigits(data, offset + 12, 2);
+        int millis = parseDigits(data, offset + 15, 3);
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || minute < 0 || second < 0 || millis < 0) {
+            return 0;
+        }
+
+        return toEpochNanos(timeZone, month, day, hour, minute, second, millis);
+    }
+
+    /**
+     * Convert local date-time of unknown year to nanoseconds since epoch.
+     * Current year is assumed unless it makes time lie more than a day in future, in which case previous year is used.
+     */
+    static long toEpochNanos(TimeZone timeZone, int month, int day, int hour, int minute, int second, int millis) {
+        long now = System.currentTimeMillis();
+        long year = yearOf(now + timeZone.getOffset(now));
+
+        long localMillis = toLocalMillis(year, month, day, hour, minute, second, millis);
+        if (localMillis - timeZone.getOffset(localMillis) > now + MILLIS_PER_DAY) {
+            localMillis = toLocalMillis(year - 1, month, day, hour, minute, second, millis);
+        }
+
+        long utcMillis = localMillis - timeZone.getOffset(localMillis);
+        return utcMillis * NANOS_PER_MILLI;
+    }
+
+    /**
+     * Convert local date-time to nanoseconds since epoch.
+     */
+    static long toEpochNanos(TimeZone timeZone, long year, int month, int day, int hour, int minute, int second,
+                             int millis) {
+        long localMillis = toLocalMillis(year, month, day, hour, minute, second, millis);
+        return (localMillis - timeZone.getOffset(localMillis)) * NANOS_PER_MILLI;
+    }
+
+    private static long toLocalMillis(long year, int month, int day, int hour, int minute, int second, int millis) {
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + hour * 3600000L + minute * 60000L + second * 1000L + millis;
+    }
+
+    private static long daysFromCivil(long year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static long yearOf(long localMillis) {
+        long z = floorDiv(localMillis, MILLIS_PER_DAY) + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long year = yearOfEra + era * 400;
+        return mp < 10 ? year : year + 1;
+    }
+
+    private static int parseDigits(CharSequence text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int parseDigits(byte[] data, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            byte b = data[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+
+    /**
+     * Put non-negative value as given number of decimal digits, padded with zeros.
+     */
+    private static void putDigits(byte[] buffer, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
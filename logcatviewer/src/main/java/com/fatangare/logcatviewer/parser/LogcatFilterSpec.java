@@ -0,0 +1,280 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.parser;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Filter expressed in logcat command line syntax, e.g. "ActivityManager:I MyApp:D *:S", "*:W",
+ * "--pid=1234" or "-e regex". It is translated to logcat arguments, so that log entries which would be
+ * filtered out are not even read, and it is matched against log entries which are already read.
+ * This class is immutable.
+ */
+public class LogcatFilterSpec {
+    /**
+     * 'logcat --pid' is supported since Android 7.0.
+     */
+    public static final int LOGCAT_PID_MIN_SDK = 24;
+
+    /**
+     * 'logcat -e' (print log entries whose message matches regex) is supported since Android 7.0.
+     */
+    public static final int LOGCAT_REGEX_MIN_SDK = 24;
+
+    /**
+     * Priority of 'S' i.e. silent, which filters out all log entries of tag.
+     */
+    private static final int PRIORITY_SILENT = 8;
+
+    private static final String WILDCARD_TAG = "*";
+    private static final String PID_OPTION = "--pid=";
+    private static final String REGEX_OPTION = "-e";
+
+    /**
+     * Regex constructs which are supported by java.util.regex but not by logcat (ECMAScript regex).
+     * Regex having them is matched only after reading log entries.
+     */
+    private static final String[] NON_PORTABLE_REGEX_CONSTRUCTS = {"(?", "\\p", "\\P", "\\Q", "\\A", "\\Z", "\\z",
+            "\\G", "\\h", "\\H", "\\R", "++", "*+", "?+", "}+"};
+
+    /**
+     * Minimum priority of tags which have their own filterspec.
+     */
+    private final Map<String, Integer> mTagPriorities;
+
+    /**
+     * Minimum priority of other tags i.e. '*' filterspec.
+     */
+    private final int mDefaultPriority;
+
+    /**
+     * Process id of log entries or 0 for all processes.
+     */
+    private final int mPid;
+
+    /**
+     * Regex which message of log entries should contain or null.
+     */
+    private final Pattern mRegex;
+
+    private LogcatFilterSpec(Map<String, Integer> tagPriorities, int defaultPriority, int pid, Pattern regex) {
+        mTagPriorities = Collections.unmodifiableMap(tagPriorities);
+        mDefaultPriority = defaultPriority;
+        mPid = pid;
+        mRegex = regex;
+    }
+
+    /**
+     * Create filter which shows log entries of given priority and above.
+     *
+     * @param priority android.util.Log priority constant.
+     * @return filter.
+     */
+    public static LogcatFilterSpec forPriority(int priority) {
+        return new LogcatFilterSpec(new LinkedHashMap<String, Integer>(), Math.max(priority, Log.VERBOSE), 0, null);
+    }
+
+    /**
+     * Parse filter text. Text is filter only if each of its words is a filterspec "TAG:P"
+     * (P is one of V, D, I, W, E, F and S), "--pid=PID" or "-e REGEX". Otherwise it is ordinary filter text.
+     *
+     * @param text filter text.
+     * @return filter or null if text is not a filter.
+     */
+    public static LogcatFilterSpec parse(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return null;
+        }
+
+        LinkedHashMap<String, Integer> tagPriorities = new LinkedHashMap<>();
+        int defaultPriority = Log.VERBOSE;
+        int pid = 0;
+        Pattern regex = null;
+
+        String[] words = text.trim().split("\\s+");
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i];
+            if (word.startsWith(PID_OPTION)) {
+                try {
+                    pid = Integer.parseInt(word.substring(PID_OPTION.length()));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (pid <= 0) {
+                    return null;
+                }
+            } else if (word.equals(REGEX_OPTION)) {
+                if (++i == words.length) {
+                    return null;
+                }
+                try {
+                    regex = Pattern.compile(words[i]);
+                } catch (PatternSyntaxException e) {
+                    return null;
+                }
+            } else {
+                int separator = word.lastIndexOf(':');
+                if (separator <= 0 || separator != word.length() - 2) {
+                    return null;
+                }
+                int priority = toPriority(word.charAt(separator + 1));
+                if (priority == LogEntry.PRIORITY_UNKNOWN) {
+                    return null;
+                }
+
+                String tag = word.substring(0, separator);
+                if (tag.equals(WILDCARD_TAG)) {
+                    defaultPriority = priority;
+                } else {
+                    tagPriorities.put(tag, priority);
+                }
+            }
+        }
+
+        return new LogcatFilterSpec(tagPriorities, defaultPriority, pid, regex);
+    }
+
+    /**
+     * Get filter which additionally filters out log entries below given priority.
+     *
+     * @param priority android.util.Log priority constant.
+     * @return filter.
+     */
+    public LogcatFilterSpec withMinimumPriority(int priority) {
+        LinkedHashMap<String, Integer> tagPriorities = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> tagPriority : mTagPriorities.entrySet()) {
+            tagPriorities.put(tagPriority.getKey(), Math.max(tagPriority.getValue(), priority));
+        }
+        return new LogcatFilterSpec(tagPriorities, Math.max(mDefaultPriority, priority), mPid, mRegex);
+    }
+
+    /**
+     * Get process id of log entries which pass the filter.
+     *
+     * @return process id or 0 for all processes.
+     */
+    public int getPid() {
+        return mPid;
+    }
+
+    /**
+     * Check if log entry passes the filter, same as logcat would check it.
+     * Log entries whose fields are not known e.g. unparsed text lines pass tag, priority and pid checks.
+     *
+     * @param logEntry log entry.
+     * @return true if log entry passes the filter else false.
+     */
+    public boolean matches(LogEntry logEntry) {
+        if (logEntry.getPriority() != LogEntry.PRIORITY_UNKNOWN) {
+            Integer priority = mTagPriorities.isEmpty() ? null : mTagPriorities.get(logEntry.getTag());
+            if (logEntry.getPriority() < (priority == null ? mDefaultPriority : priority)) {
+                return false;
+            }
+        }
+
+        if (mPid != 0 && logEntry.hasFields() && logEntry.getPid() != mPid) {
+            return false;
+        }
+
+        if (mRegex != null) {
+            String message = logEntry.getMessage();
+            return mRegex.matcher(message == null ? logEntry.getText() : message).find();
+        }
+        return true;
+    }
+
+    /**
+     * Get logcat arguments for the filter. Parts of filter which logcat of given Android version does not support
+     * are left out, hence log entries read with these arguments should still be matched with {@link #matches}.
+     *
+     * @param sdkInt Android version e.g. android.os.Build.VERSION.SDK_INT.
+     * @return options followed by filterspecs, so they should be at end of logcat command.
+     */
+    public List<String> toLogcatArguments(int sdkInt) {
+        ArrayList<String> arguments = new ArrayList<>();
+        if (mPid != 0 && sdkInt >= LOGCAT_PID_MIN_SDK) {
+            arguments.add(PID_OPTION + mPid);
+        }
+        if (mRegex != null && sdkInt >= LOGCAT_REGEX_MIN_SDK && isPortableRegex(mRegex.pattern())) {
+            arguments.add(REGEX_OPTION);
+            arguments.add(mRegex.pattern());
+        }
+
+        for (Map.Entry<String, Integer> tagPriority : mTagPriorities.entrySet()) {
+            arguments.add(tagPriority.getKey() + ":" + LogEntry.getPriorityChar(tagPriority.getValue()));
+        }
+        if (mDefaultPriority > Log.VERBOSE) {
+            arguments.add(WILDCARD_TAG + ":" + LogEntry.getPriorityChar(mDefaultPriority));
+        }
+        return arguments;
+    }
+
+    /**
+     * Get filter as filter text, which {@link #parse(String)} parses back to same filter.
+     *
+     * @return filter text.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        if (mPid != 0) {
+            builder.append(PID_OPTION).append(mPid).append(' ');
+        }
+        if (mRegex != null) {
+            builder.append(REGEX_OPTION).append(' ').append(mRegex.pattern()).append(' ');
+        }
+        for (Map.Entry<String, Integer> tagPriority : mTagPriorities.entrySet()) {
+            builder.append(tagPriority.getKey()).append(':')
+                    .append(LogEntry.getPriorityChar(tagPriority.getValue())).append(' ');
+        }
+        builder.append(WILDCARD_TAG).append(':').append(LogEntry.getPriorityChar(mDefaultPriority));
+        return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LogcatFilterSpec && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    private static int toPriority(char c) {
+        char priority = Character.toUpperCase(c);
+        return priority == 'S' ? PRIORITY_SILENT : LogLineParser.toPriority((byte) priority);
+    }
+
+    private static boolean isPortableRegex(String regex) {
+        for (String construct : NON_PORTABLE_REGEX_CONSTRUCTS) {
+            if (regex.contains(construct)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
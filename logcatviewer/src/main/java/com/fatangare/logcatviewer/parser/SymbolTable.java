@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.parser;
+
+import java.nio.charset.Charset;
+
+/**
+ * Table which interns strings such as tags to small integer ids, so that log entries keep an id instead of a string
+ * and compare, group and filter them by id. Strings are interned straight from UTF-8 bytes of log line;
+ * String is created only once, when new string is added to table.
+ * <p/>
+ * Only reader thread interns strings, but strings are looked up from any thread, hence interning and finding
+ * are synchronized while getting string of id is not. Ids are never reused, so string of an id never changes.
+ */
+public class SymbolTable {
+    /**
+     * Id of string which is not in table.
+     */
+    public static final int NO_SYMBOL = -1;
+
+    /**
+     * Table of log entry tags. A few hundred tags usually account for millions of log entries.
+     */
+    public static final SymbolTable TAGS = new SymbolTable(16384);
+
+    /**
+     * Table of package names of processes which write log entries.
+     */
+    public static final SymbolTable PACKAGES = new SymbolTable(4096);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Maximum number of strings. Once table is full, new strings are not interned, so that table stays bounded
+     * even if tags are generated e.g. with counters in them.
+     */
+    private final int mMaxSize;
+
+    /**
+     * Open addressing hash table of (id + 1). 0 marks empty slot.
+     */
+    private int[] mSlots;
+
+    //Strings by id.
+    private byte[][] mBytes;
+    private int[] mHashes;
+    private volatile String[] mSymbols;
+    private volatile int mSize;
+
+    //Statistics
+    private volatile long mLookupCount;
+    private volatile long mHitCount;
+
+    /**
+     * Constructor
+     *
+     * @param maxSize maximum number of strings.
+     */
+    public SymbolTable(int maxSize) {
+        mMaxSize = maxSize;
+        mSlots = new int[64];
+        mBytes = new byte[32][];
+        mHashes = new int[32];
+        mSymbols = new String[32];
+    }
+
+    /**
+     * Get id of string given as UTF-8 bytes, adding it to table if it is not there.
+     *
+     * @param data   bytes.
+     * @param offset offset of string.
+     * @param length length of string.
+     * @return id or {@link #NO_SYMBOL} if string is not in table and table is full.
+     */
+    public synchronized int intern(byte[] data, int offset, int length) {
+        mLookupCount++;
+        int hash = hash(data, offset, length);
+        int slot = findSlot(data, offset, length, hash);
+        if (mSlots[slot] != 0) {
+            mHitCount++;
+            return mSlots[slot] - 1;
+        }
+
+        int id = mSize;
+        if (id == mMaxSize) {
+            return NO_SYMBOL;
+        }
+
+        if (id == mBytes.length) {
+            int capacity = Math.min(id * 2, mMaxSize);
+            byte[][] bytes = new byte[capacity][];
+            int[] hashes = new int[capacity];
+            String[] symbols = new String[capacity];
+            System.arraycopy(mBytes, 0, bytes, 0, id);
+            System.arraycopy(mHashes, 0, hashes, 0, id);
+            System.arraycopy(mSymbols, 0, symbols, 0, id);
+            mBytes = bytes;
+            mHashes = hashes;
+            mSymbols = symbols;
+        }
+
+        byte[] bytes = new byte[length];
+        System.arraycopy(data, offset, bytes, 0, length);
+        mBytes[id] = bytes;
+        mHashes[id] = hash;
+        mSymbols[id] = new String(bytes, UTF_8);
+        mSlots[slot] = id + 1;
+        //Publish new id only after its string is set.
+        mSize = id + 1;
+
+        //Keep hash table at most half full.
+        if (mSize * 2 > mSlots.length) {
+            rehash(mSlots.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Get id of string without adding it to table.
+     *
+     * @param symbol string e.g. tag.
+     * @return id or {@link #NO_SYMBOL} if string is not in table.
+     */
+    public synchronized int find(String symbol) {
+        byte[] data = symbol.getBytes(UTF_8);
+        int slot = findSlot(data, 0, data.length, hash(data, 0, data.length));
+        return mSlots[slot] - 1;
+    }
+
+    /**
+     * Get string of id. String is created once, hence it is same object for all log entries of that id.
+     *
+     * @param id id returned by {@link #intern(byte[], int, int)}.
+     * @return string.
+     */
+    public String getSymbol(int id) {
+        return mSymbols[id];
+    }
+
+    /**
+     * Get number of strings in table.
+     *
+     * @return number of strings.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Get number of {@link #intern(byte[], int, int)} calls.
+     *
+     * @return number of lookups.
+     */
+    public long getLookupCount() {
+        return mLookupCount;
+    }
+
+    /**
+     * Get number of {@link #intern(byte[], int, int)} calls which found string already in table.
+     *
+     * @return number of hits.
+     */
+    public long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Get ratio of lookups which found string already in table.
+     *
+     * @return hit rate between 0 and 1; 0 if there is no lookup yet.
+     */
+    public float getHitRate() {
+        long lookupCount = mLookupCount;
+        return lookupCount == 0 ? 0 : (float) mHitCount / lookupCount;
+    }
+
+    /**
+     * Find slot of string or empty slot where it should be added.
+     */
+    private int findSlot(byte[] data, int offset, int length, int hash) {
+        int mask = mSlots.length - 1;
+        int slot = hash & mask;
+        while (mSlots[slot] != 0) {
+            int id = mSlots[slot] - 1;
+            if (mHashes[id] == hash && equals(mBytes[id], data, offset, length)) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < mSize; id++) {
+            int slot = mHashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+        mSlots = slots;
+    }
+
+    private static int hash(byte[] data, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + data[i];
+        }
+        //Spread bits, as only low bits select slot.
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] bytes, byte[] data, int offset, int length) {
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != data[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.service;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tracks process ids of processes of a package e.g. "com.example" and "com.example:remote".
+ * Running processes are polled periodically, so that process which dies and is started again
+ * is noticed and its new process id is reported.
+ */
+class AppProcessTracker {
+    private static final String LOG_TAG = "AppProcessTracker";
+
+    /**
+     * Interval after which running processes are polled.
+     */
+    private static final long POLL_INTERVAL = 1000; //1s
+
+    /**
+     * Notified when process ids of the package change.
+     */
+    interface Listener {
+        /**
+         * Process ids of the package are changed. It is called on the handler thread, except for
+         * process ids resolved by {@link #start()}, which are returned instead.
+         *
+         * @param pids sorted process ids; empty if no process of the package is running.
+         */
+        void onPidsChanged(int[] pids);
+    }
+
+    private final ActivityManager mActivityManager;
+    private final String mPackageName;
+    private final Handler mHandler;
+    private final Listener mListener;
+
+    /**
+     * Process ids resolved by last poll. Guarded by this tracker, as polls may run on other threads than handler thread.
+     */
+    private int[] mPids = new int[0];
+    private boolean mIsTracking;
+
+    private final Runnable mPollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            poll();
+            synchronized (AppProcessTracker.this) {
+                if (mIsTracking) {
+                    mHandler.postDelayed(mPollRunnable, POLL_INTERVAL);
+                }
+            }
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param context     context.
+     * @param packageName package whose processes are tracked.
+     * @param handler     handler on whose thread processes are polled.
+     * @param listener    listener.
+     */
+    AppProcessTracker(Context context, String packageName, Handler handler, Listener listener) {
+        mActivityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mPackageName = packageName;
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    /**
+     * Start tracking. Current process ids are resolved immediately on calling thread.
+     *
+     * @return current process ids.
+     */
+    synchronized int[] start() {
+        if (!mIsTracking) {
+            mIsTracking = true;
+            mPids = resolvePids();
+            mHandler.postDelayed(mPollRunnable, POLL_INTERVAL);
+        }
+        return mPids;
+    }
+
+    /**
+     * Stop tracking.
+     */
+    synchronized void stop() {
+        mIsTracking = false;
+        mHandler.removeCallbacks(mPollRunnable);
+    }
+
+    /**
+     * Get process ids resolved by last poll.
+     *
+     * @return sorted process ids.
+     */
+    synchronized int[] getPids() {
+        return mPids;
+    }
+
+    private void poll() {
+        int[] pids = resolvePids();
+        synchronized (this) {
+            if (!mIsTracking || Arrays.equals(pids, mPids)) {
+                return;
+            }
+            Log.d(LOG_TAG, "poll:pids of " + mPackageName + " changed to " + Arrays.toString(pids));
+            mPids = pids;
+        }
+        mListener.onPidsChanged(pids);
+    }
+
+    /**
+     * Resolve process ids of the package from running processes.
+     *
+     * @return sorted process ids.
+     */
+    private int[] resolvePids() {
+        List<ActivityManager.RunningAppProcessInfo> processes = mActivityManager.getRunningAppProcesses();
+        if (processes == null) {
+            return new int[0];
+        }
+
+        int[] pids = new int[processes.size()];
+        int count = 0;
+        for (ActivityManager.RunningAppProcessInfo process : processes) {
+            //Main process has package name; other processes have ":name" suffix.
+            if (process.processName != null && (process.processName.equals(mPackageName)
+                    || process.processName.startsWith(mPackageName + ":"))) {
+                pids[count++] = process.pid;
+            }
+        }
+
+        pids = Arrays.copyOf(pids, count);
+        Arrays.sort(pids);
+        return pids;
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.service;
+
+import com.fatangare.logcatviewer.parser.LogEntry;
+
+import java.util.List;
+
+/**
+ * Bounded queue which hands log entries over from the reader thread to the main thread.
+ * When the view falls behind and queue is full, {@link #mPolicy} decides whether reader waits or which
+ * log entry is dropped. Dropped log entries are replaced by gap markers (see {@link LogEntry#createGapMarker(int)})
+ * at their position, so that view shows where log entries are missing.
+ * <p/>
+ * Log entries are kept in array of slots. Dropping log entry in middle of queue replaces its slot
+ * with gap marker or leaves hole (null slot) next to existing gap marker, so no slot is ever shifted.
+ * Holes are removed when slots are compacted or drained.
+ */
+public class LogHandoffQueue {
+    /**
+     * Reader waits till view takes log entries. Nothing is dropped, but logcat itself may drop log entries
+     * of reader which falls behind.
+     */
+    public static final int POLICY_BLOCK = 0;
+    /**
+     * Oldest queued log entry is dropped.
+     */
+    public static final int POLICY_DROP_OLDEST = 1;
+    /**
+     * New log entry is dropped.
+     */
+    public static final int POLICY_DROP_NEWEST = 2;
+    /**
+     * Oldest log entry of lowest priority is dropped, which may be new log entry itself.
+     */
+    public static final int POLICY_DROP_LOWEST_PRIORITY = 3;
+
+    /**
+     * Number of priorities i.e. android.util.Log priority constants and {@link LogEntry#PRIORITY_UNKNOWN}.
+     */
+    private static final int PRIORITY_COUNT = 9;
+
+    private static final int INITIAL_SLOT_COUNT = 256;
+
+    private int mCapacity;
+    private int mPolicy;
+
+    private LogEntry[] mSlots = new LogEntry[INITIAL_SLOT_COUNT];
+    /**
+     * First used slot.
+     */
+    private int mHead;
+    /**
+     * Next free slot.
+     */
+    private int mTail;
+
+    /**
+     * Number of queued log entries, not counting gap markers.
+     */
+    private int mSize;
+
+    //Dropping lowest priority
+    /**
+     * Number of queued log entries of each priority.
+     */
+    private final int[] mPriorityCounts = new int[PRIORITY_COUNT];
+    /**
+     * Slot from which next log entry of each priority is searched. Slots before it have no log entry of that priority.
+     */
+    private final int[] mPriorityCursors = new int[PRIORITY_COUNT];
+
+    /**
+     * Is delivery of queued log entries pending? If not, next offered log entry should schedule delivery.
+     */
+    private boolean mIsDeliveryPending;
+
+    //Counters
+    private long mQueuedCount;
+    private long mDeliveredCount;
+    private long mDroppedCount;
+
+    /**
+     * Constructor
+     *
+     * @param capacity maximum number of queued log entries.
+     * @param policy   one of POLICY_ constants.
+     */
+    public LogHandoffQueue(int capacity, int policy) {
+        setPolicy(policy, capacity);
+    }
+
+    /**
+     * Change policy and capacity. If queue has more log entries than new capacity, they are kept till drained.
+     *
+     * @param policy   one of POLICY_ constants.
+     * @param capacity maximum number of queued log entries.
+     */
+    public synchronized void setPolicy(int policy, int capacity) {
+        if (policy < POLICY_BLOCK || policy > POLICY_DROP_LOWEST_PRIORITY) {
+            throw new IllegalArgumentException("Invalid policy: " + policy);
+        }
+        mPolicy = policy;
+        mCapacity = Math.max(capacity, 1);
+        //Blocked reader may fit now.
+        notifyAll();
+    }
+
+    /**
+     * Queue log entry. If queue is full, log entry is queued or dropped according to policy.
+     *
+     * @param logEntry log entry.
+     * @return true if delivery of queued log entries should be scheduled i.e. no delivery is pending.
+     * @throws InterruptedException if reader is interrupted while waiting for space in queue.
+     */
+    public synchronized boolean offer(LogEntry logEntry) throws InterruptedException {
+        if (mSize >= mCapacity) {
+            switch (mPolicy) {
+                case POLICY_BLOCK:
+                    while (mSize >= mCapacity && mPolicy == POLICY_BLOCK) {
+                        wait();
+                    }
+                    break;
+
+                case POLICY_DROP_OLDEST:
+                    dropOldest();
+                    break;
+
+                case POLICY_DROP_NEWEST:
+                    dropNewest();
+                    return scheduleDelivery();
+
+                case POLICY_DROP_LOWEST_PRIORITY:
+                    if (!dropLowerPriority(priorityIndex(logEntry))) {
+                        dropNewest();
+                        return scheduleDelivery();
+                    }
+                    break;
+            }
+        }
+
+        append(logEntry);
+        mSize++;
+        mPriorityCounts[priorityIndex(logEntry)]++;
+        mQueuedCount++;
+        return scheduleDelivery();
+    }
+
+    /**
+     * Take queued log entries and gap markers in order.
+     *
+     * @param logEntries list to which log entries are added.
+     * @param maxCount   maximum number of log entries to take, not counting gap markers.
+     * @return true if more log entries are queued, in which case delivery is still pending.
+     */
+    public synchronized boolean drain(List<LogEntry> logEntries, int maxCount) {
+        int count = 0;
+        while (mHead < mTail && count < maxCount) {
+            LogEntry logEntry = mSlots[mHead];
+            mSlots[mHead++] = null;
+            if (logEntry == null) {
+                continue;
+            }
+
+            logEntries.add(logEntry);
+            if (!logEntry.isGapMarker()) {
+                mPriorityCounts[priorityIndex(logEntry)]--;
+                count++;
+            }
+        }
+
+        //Gap marker after last taken log entry belongs to this batch.
+        while (mHead < mTail && (mSlots[mHead] == null || mSlots[mHead].isGapMarker())) {
+            if (mSlots[mHead] != null) {
+                logEntries.add(mSlots[mHead]);
+            }
+            mSlots[mHead++] = null;
+        }
+
+        mSize -= count;
+        mDeliveredCount += count;
+        if (mHead == mTail) {
+            mHead = mTail = 0;
+            resetPriorityCursors();
+        }
+
+        //Reader waiting for space can continue.
+        notifyAll();
+
+        mIsDeliveryPending = mSize > 0;
+        return mIsDeliveryPending;
+    }
+
+    /**
+     * Get number of log entries queued so far.
+     *
+     * @return number of log entries.
+     */
+    public synchronized long getQueuedCount() {
+        return mQueuedCount;
+    }
+
+    /**
+     * Get number of log entries taken from queue so far.
+     *
+     * @return number of log entries.
+     */
+    public synchronized long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * Get number of log entries dropped so far.
+     *
+     * @return number of log entries.
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Get number of log entries currently queued.
+     *
+     * @return number of log entries.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    private boolean scheduleDelivery() {
+        if (mIsDeliveryPending) {
+            return false;
+        }
+        mIsDeliveryPending = true;
+        return true;
+    }
+
+    private void dropOldest() {
+        //Skip holes at head, so that repeated drops find oldest log entry right after gap marker.
+        while (mSlots[mHead] == null) {
+            mHead++;
+        }
+
+        int index = mHead;
+        while (mSlots[index] == null || mSlots[index].isGapMarker()) {
+            index++;
+        }
+        drop(index);
+    }
+
+    private void dropNewest() {
+        if (mTail > mHead && mSlots[mTail - 1] != null && mSlots[mTail - 1].isGapMarker()) {
+            mSlots[mTail - 1].addDroppedCount(1);
+        } else {
+            append(LogEntry.createGapMarker(1));
+        }
+        mDroppedCount++;
+    }
+
+    /**
+     * Drop oldest log entry of lowest priority if it is lower than given priority.
+     *
+     * @return false if no queued log entry has lower priority.
+     */
+    private boolean dropLowerPriority(int priority) {
+        for (int p = 0; p < priority; p++) {
+            if (mPriorityCounts[p] == 0) {
+                continue;
+            }
+
+            int index = Math.max(mPriorityCursors[p], mHead);
+            while (index < mTail && (mSlots[index] == null || mSlots[index].isGapMarker()
+                    || priorityIndex(mSlots[index]) != p)) {
+                index++;
+            }
+            mPriorityCursors[p] = index + 1;
+            drop(index);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replace queued log entry with gap marker, so that consecutive drops share one gap marker:
+     * if next log entry, skipping holes, is gap marker, this slot becomes hole and dropped log entry is counted
+     * in next gap marker, which also takes over previous gap marker, if any; otherwise if previous slot is
+     * gap marker, it is moved to this slot.
+     * Hence holes are always followed by gap marker and no two gap markers are ever next to each other.
+     */
+    private void drop(int index) {
+        LogEntry logEntry = mSlots[index];
+        mPriorityCounts[priorityIndex(logEntry)]--;
+        mSize--;
+        mDroppedCount++;
+
+        int previous = index - 1;
+        while (previous >= mHead && mSlots[previous] == null) {
+            previous--;
+        }
+        int next = index + 1;
+        while (next < mTail && mSlots[next] == null) {
+            next++;
+        }
+        LogEntry previousGapMarker = previous >= mHead && mSlots[previous].isGapMarker() ? mSlots[previous] : null;
+        LogEntry nextGapMarker = next < mTail && mSlots[next].isGapMarker() ? mSlots[next] : null;
+
+        if (nextGapMarker != null) {
+            int droppedCount = 1;
+            if (previousGapMarker != null) {
+                droppedCount += previousGapMarker.getDroppedCount();
+                mSlots[previous] = null;
+            }
+            nextGapMarker.addDroppedCount(droppedCount);
+            mSlots[index] = null;
+        } else if (previousGapMarker != null) {
+            previousGapMarker.addDroppedCount(1);
+            mSlots[previous] = null;
+            mSlots[index] = previousGapMarker;
+        } else {
+            mSlots[index] = LogEntry.createGapMarker(1);
+        }
+    }
+
+    private void append(LogEntry logEntry) {
+        if (mTail == mSlots.length) {
+            makeRoom();
+        }
+        mSlots[mTail++] = logEntry;
+    }
+
+    /**
+     * Compact slots if at least half of them are free or holes, otherwise grow slots.
+     */
+    private void makeRoom() {
+        int used = 0;
+        for (int i = mHead; i < mTail; i++) {
+            if (mSlots[i] != null) {
+                used++;
+            }
+        }
+
+        LogEntry[] slots = used <= mSlots.length / 2 ? mSlots : new LogEntry[mSlots.length * 2];
+        int tail = 0;
+        for (int i = mHead; i < mTail; i++) {
+            LogEntry logEntry = mSlots[i];
+            if (logEntry != null) {
+                mSlots[i] = null;
+                slots[tail++] = logEntry;
+            }
+        }
+
+        mSlots = slots;
+        mHead = 0;
+        mTail = tail;
+        resetPriorityCursors();
+    }
+
+    private void resetPriorityCursors() {
+        for (int p = 0; p < PRIORITY_COUNT; p++) {
+            mPriorityCursors[p] = 0;
+        }
+    }
+
+    private static int priorityIndex(LogEntry logEntry) {
+        int priority = logEntry.getPriority();
+        return priority < 0 || priority >= PRIORITY_COUNT ? LogEntry.PRIORITY_UNKNOWN : priority;
+    }
+}
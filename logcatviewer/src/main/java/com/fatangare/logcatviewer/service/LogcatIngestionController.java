@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.service;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.fatangare.logcatviewer.source.LogSource;
+
+/**
+ * Controls lifecycle of logcat ingestion: it owns the reader thread and the log source it reads from.
+ * Stopping closes the log source e.g. destroys the logcat process, which unblocks the reader thread
+ * waiting on the pipe, and waits for the reader thread to finish with a timeout.
+ * Hence restart does not wait for next log line.
+ */
+class LogcatIngestionController {
+    private static final String LOG_TAG = "LogcatIngestion";
+
+    /**
+     * Name of the reader thread.
+     */
+    private static final String READER_THREAD_NAME = "LogcatReader";
+
+    /**
+     * Reads log entries for one ingestion session.
+     */
+    interface Reader {
+        /**
+         * Read log entries till {@link Session#isStopRequested()} is true or source is exhausted.
+         * It is called on the reader thread.
+         *
+         * @param session current session.
+         */
+        void read(Session session);
+    }
+
+    /**
+     * State of one run of the reader thread. Each restart creates new session, so a reader thread
+     * which did not finish in time can never observe the state of its successor.
+     */
+    static class Session {
+        private volatile boolean mIsStopRequested;
+        private LogSource mLogSource;
+
+        /**
+         * Check if request to stop the session is made.
+         *
+         * @return true if request is made else false.
+         */
+        boolean isStopRequested() {
+            return mIsStopRequested;
+        }
+
+        /**
+         * Attach log source read by this session, so that it is closed on stop.
+         * If stop is already requested, source is closed immediately.
+         *
+         * @param logSource log source.
+         */
+        synchronized void attachLogSource(LogSource logSource) {
+            mLogSource = logSource;
+            if (mIsStopRequested) {
+                logSource.close();
+            }
+        }
+
+        /**
+         * Request to stop the session and close its log source to unblock pending read.
+         */
+        synchronized void requestStop() {
+            mIsStopRequested = true;
+            if (mLogSource != null) {
+                mLogSource.close();
+            }
+        }
+    }
+
+    private final Reader mReader;
+
+    private Thread mReaderThread;
+    private Session mSession;
+
+    /**
+     * Time taken by last restart in milliseconds.
+     */
+    private volatile long mLastRestartLatency;
+
+    /**
+     * Constructor
+     *
+     * @param reader reader run on the reader thread.
+     */
+    LogcatIngestionController(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Start reader thread if it is not running.
+     */
+    synchronized void start() {
+        if (mReaderThread != null && mReaderThread.isAlive()) {
+            return;
+        }
+
+        final Session session = new Session();
+        mSession = session;
+        mReaderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mReader.read(session);
+            }
+        }, READER_THREAD_NAME);
+        mReaderThread.start();
+    }
+
+    /**
+     * Stop reader thread and wait for it to finish.
+     *
+     * @param timeout maximum time to wait in milliseconds.
+     * @return true if reader thread is finished else false.
+     */
+    synchronized boolean stop(long timeout) {
+        if (mReaderThread == null) {
+            return true;
+        }
+
+        mSession.requestStop();
+        mReaderThread.interrupt();
+
+        try {
+            mReaderThread.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        boolean isFinished = !mReaderThread.isAlive();
+        if (!isFinished) {
+            Log.w(LOG_TAG, "stop:reader thread did not finish in " + timeout + "ms");
+        }
+
+        mReaderThread = null;
+        mSession = null;
+        return isFinished;
+    }
+
+    /**
+     * Stop reader thread, if running, and start it again.
+     *
+     * @param timeout maximum time to wait for reader thread to finish in milliseconds.
+     * @return time taken by restart in milliseconds.
+     */
+    synchronized long restart(long timeout) {
+        long startTime = SystemClock.elapsedRealtime();
+        stop(timeout);
+        start();
+        mLastRestartLatency = SystemClock.elapsedRealtime() - startTime;
+        Log.d(LOG_TAG, "restart:took " + mLastRestartLatency + "ms");
+        return mLastRestartLatency;
+    }
+
+    /**
+     * Is reader thread running?
+     *
+     * @return true if yes else false.
+     */
+    synchronized boolean isRunning() {
+        return mReaderThread != null && mReaderThread.isAlive();
+    }
+
+    /**
+     * Get time taken by last restart.
+     *
+     * @return time in milliseconds.
+     */
+    long getLastRestartLatency() {
+        return mLastRestartLatency;
+    }
+}
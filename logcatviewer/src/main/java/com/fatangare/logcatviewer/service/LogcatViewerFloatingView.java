@@ -17,22 +17,27 @@
 
 package com.fatangare.logcatviewer.service;
 
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.graphics.Color;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.AdapterView;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.LinearLayout;
@@ -41,11 +46,22 @@ import android.widget.RadioGroup;
 import android.widget.Toast;
 
 import com.fatangare.logcatviewer.R;
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.store.LogSnapshot;
+import com.fatangare.logcatviewer.store.LogSnapshotWriter;
+import com.fatangare.logcatviewer.store.LogSpill;
+import com.fatangare.logcatviewer.store.LogStore;
 import com.fatangare.logcatviewer.ui.adapter.LogRecordsListAdapter;
+import com.fatangare.logcatviewer.ui.adapter.LogTagsListAdapter;
 import com.fatangare.logcatviewer.ui.adapter.LogcatViewerListAdapter;
+import com.fatangare.logcatviewer.utils.Constants;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import wei.mark.standout.StandOutWindow;
 import wei.mark.standout.constants.StandOutFlags;
@@ -57,6 +73,101 @@ import wei.mark.standout.ui.Window;
 public class LogcatViewerFloatingView extends StandOutWindow {
     private static final String LOG_TAG = "LogcatFloatingView";
 
+    /**
+     * Since Android 7.0, logcat can tag text log entries with their source buffer ('logcat -D'),
+     * so all source buffers are read by single logcat process and visible buffer is selected by filtering.
+     */
+    private static final int MULTI_BUFFER_MIN_SDK = 24;
+
+    /**
+     * Source buffers read together on older devices when 'All buffers' is selected.
+     */
+    private static final String[] LEGACY_LOGCAT_SOURCES = {Constants.LOGCAT_SOURCE_BUFFER_MAIN,
+            Constants.LOGCAT_SOURCE_BUFFER_RADIO, Constants.LOGCAT_SOURCE_BUFFER_EVENTS};
+
+    /**
+     * Are all source buffers read by single logcat process?
+     */
+    private final boolean mIsMultiBufferMode = Build.VERSION.SDK_INT >= MULTI_BUFFER_MIN_SDK;
+
+    /**
+     * Are only log entries of this application shown? It is initial state of 'Only my app' option.
+     */
+    private static boolean mIsAppOnlyMode = false;
+
+    /**
+     * Maximum number of log entries kept in view and their size. Oldest log entries are dropped beyond these limits.
+     */
+    private static int mMaxStoredEntries = LogStore.DEFAULT_MAX_ENTRIES;
+    private static long mMaxStoredBytes = LogStore.DEFAULT_MAX_BYTES;
+
+    /**
+     * Maximum size of scrollback i.e. log entries beyond above limits, which are kept on disk. 0 means no scrollback.
+     */
+    private static long mMaxScrollbackBytes = LogSpill.DEFAULT_MAX_BYTES;
+
+    //Snapshot of log entries
+    /**
+     * File in cache directory to which log entries in view are saved periodically and on close,
+     * so that they are shown at once when view is opened again.
+     */
+    private static final String SNAPSHOT_FILE = "logcat_snapshot";
+
+    /**
+     * Interval between periodic snapshots in milliseconds.
+     */
+    private static final int SNAPSHOT_INTERVAL = 60 * 1000; //1 minute
+
+    /**
+     * Number of restored log entries added to view at once.
+     */
+    private static final int SNAPSHOT_RESTORE_CHUNK_SIZE = 5000;
+
+    private File mSnapshotFile;
+
+    private LogSnapshotWriter mSnapshotWriter;
+
+    /**
+     * Log entries received from service while snapshot is restored. They are added after restored log entries.
+     * It is null if snapshot is not being restored.
+     */
+    private ArrayList<LogEntry> mPendingLogEntries;
+
+    private volatile boolean mIsRestoreCancelled;
+
+    /**
+     * Writes snapshots one after another in background, so that snapshot saved on close is written last.
+     */
+    private final ExecutorService mSnapshotExecutor = Executors.newSingleThreadExecutor();
+
+    private final Runnable mSnapshotRunnable = new Runnable() {
+        @Override
+        public void run() {
+            //Snapshot is not saved under memory pressure. Log entries added meanwhile are saved by next snapshot.
+            if (!mAdapter.isMemoryTrimmed()) {
+                saveSnapshot();
+            }
+            mHandler.postDelayed(this, SNAPSHOT_INTERVAL);
+        }
+    };
+
+    //Memory pressure
+    /**
+     * Time after last memory trim in milliseconds after which store limits are restored.
+     * Android does not tell when memory pressure is over, so it is assumed to be over if it is not reported again.
+     */
+    private static final int MEMORY_RELAX_DELAY = 2 * 60 * 1000; //2 minutes
+
+    private final Runnable mRelaxMemoryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mAdapter != null) {
+                mAdapter.relaxMemory();
+                Log.i(LOG_TAG, "Memory pressure is over. Memory footprint: " + mAdapter.getMemoryFootprint());
+            }
+        }
+    };
+
     //Views
     private ListView mListView;
     private LogcatViewerListAdapter mAdapter;
@@ -64,7 +175,10 @@ public class LogcatViewerFloatingView extends StandOutWindow {
     private LinearLayout mMenuOptionLayout;
     private LinearLayout mFilterLayout;
     private RadioGroup mPriorityLevelRadioGroup;
+    private RadioGroup mLogcatSourceRadioGroup;
     private ListView mRecordsListView;
+    private ListView mTagsListView;
+    private LogTagsListAdapter mTagsAdapter;
     private LinearLayout mNormalBottombarLayout;
     private LinearLayout mRecordsBottombarLayout;
 
@@ -78,7 +192,12 @@ public class LogcatViewerFloatingView extends StandOutWindow {
             LogcatViewerService.setHandler(mHandler);
 
             try {
-                mLogcatViewerService.restart();
+                mLogcatViewerService.setAppOnlyMode(mIsAppOnlyMode);
+                if (mIsMultiBufferMode) {
+                    mLogcatViewerService.changeLogcatSources(Constants.LOGCAT_SOURCE_BUFFERS_ALL);
+                } else {
+                    mLogcatViewerService.restart();
+                }
             } catch (RemoteException e) {
                 Log.e(LOG_TAG, "Could not start LogcatViewerService service");
             }
@@ -94,6 +213,7 @@ public class LogcatViewerFloatingView extends StandOutWindow {
      * Handle service to view communication.
      */
     private Handler mHandler = new Handler() {
+        @SuppressWarnings("unchecked")
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case LogcatViewerService.MSG_LOGCAT_READ_FAILURE:
@@ -102,8 +222,18 @@ public class LogcatViewerFloatingView extends StandOutWindow {
                 case LogcatViewerService.MSG_LOGCAT_RUN_FAILURE:
                     Log.d(LOG_TAG, "Executing logcat command is failed.");
                     break;
-                case LogcatViewerService.MSG_NEW_LOG_ENTRY:
-                    mAdapter.addLogEntry((String) msg.obj);
+                case LogcatViewerService.MSG_NEW_LOG_BATCH:
+                    if (mPendingLogEntries != null) {
+                        mPendingLogEntries.addAll((List<LogEntry>) msg.obj);
+                    } else {
+                        mAdapter.addLogEntries((List<LogEntry>) msg.obj);
+                    }
+                    break;
+                case LogcatViewerService.MSG_LOG_ENTRY_REPEATED:
+                    mAdapter.updateRepeats((List<LogEntry>) msg.obj);
+                    break;
+                case LogcatViewerService.MSG_PAUSED_BACKLOG_OVERFLOW:
+                    Toast.makeText(getApplicationContext(), msg.arg1 + " log entries dropped while paused.", Toast.LENGTH_SHORT).show();
                     break;
                 default:
                     super.handleMessage(msg);
@@ -141,9 +271,60 @@ public class LogcatViewerFloatingView extends StandOutWindow {
         }
 
         unbindService(mLogcatViewerServiceConnection);
+        if (mAdapter != null) {
+            mHandler.removeCallbacks(mSnapshotRunnable);
+            mHandler.removeCallbacks(mRelaxMemoryRunnable);
+            //Snapshot which is not restored completely is kept as it is.
+            if (mPendingLogEntries == null) {
+                saveSnapshot();
+            }
+            final LogSnapshotWriter snapshotWriter = mSnapshotWriter;
+            mSnapshotExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    snapshotWriter.close();
+                }
+            });
+            mSnapshotExecutor.shutdown();
+            mIsRestoreCancelled = true;
+            mAdapter.close();
+        }
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Trim memory used by log entries in view according to level of memory pressure and restore it
+     * once memory pressure is not reported for a while.
+     *
+     * @param level level of memory pressure.
+     */
+    private void trimMemory(int level) {
+        if (mAdapter == null) {
+            return;
+        }
+
+        long footprint = mAdapter.getMemoryFootprint();
+        mAdapter.trimMemory(LogStore.getTrimTier(level));
+        mSnapshotWriter.trimMemory();
+        Log.i(LOG_TAG, "Memory trimmed for level " + level + " (trim " + mAdapter.getTrimCount()
+                + "). Memory footprint: " + footprint + " -> " + mAdapter.getMemoryFootprint());
+
+        mHandler.removeCallbacks(mRelaxMemoryRunnable);
+        mHandler.postDelayed(mRelaxMemoryRunnable, MEMORY_RELAX_DELAY);
+    }
+
     @Override
     public void createAndAttachView(int id, FrameLayout frame) {
         // create a new layout from body.xml
@@ -156,9 +337,13 @@ public class LogcatViewerFloatingView extends StandOutWindow {
         mFilterLayout = (LinearLayout) rootView.findViewById(R.id.filterLayout);
         //Radio group containing different priority levels.
         mPriorityLevelRadioGroup = (RadioGroup) rootView.findViewById(R.id.rgPriorityLevels);
+        //Radio group containing different logcat source buffers.
+        mLogcatSourceRadioGroup = (RadioGroup) rootView.findViewById(R.id.rgLogcatSources);
         //View for showing recorded logs.
         mRecordsListView = (ListView) mMenuOptionLayout.findViewById(R.id.recordList);
         mRecordsListView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
+        //View for picking tags.
+        mTagsListView = (ListView) mMenuOptionLayout.findViewById(R.id.tagList);
 
         // Bottombar layouts
         mNormalBottombarLayout = (LinearLayout) rootView.findViewById(R.id.normalbottombar);
@@ -170,7 +355,9 @@ public class LogcatViewerFloatingView extends StandOutWindow {
 
         setupRecordListView();
         setupFilterTextView(rootView);
+        setupTagListView();
         setupPriorityLevelView();
+        setupLogcatSourceView();
     }
 
     // the window will be centered
@@ -242,7 +429,9 @@ public class LogcatViewerFloatingView extends StandOutWindow {
     private void resetMenuOptionLayout() {
         mFilterLayout.setVisibility(View.GONE);
         mPriorityLevelRadioGroup.setVisibility(View.GONE);
+        mLogcatSourceRadioGroup.setVisibility(View.GONE);
         mRecordsListView.setVisibility(View.GONE);
+        mTagsListView.setVisibility(View.GONE);
         mMenuOptionLayout.setVisibility(View.GONE);
     }
 
@@ -256,7 +445,121 @@ public class LogcatViewerFloatingView extends StandOutWindow {
         mListView.setStackFromBottom(true);
         mListView.setTranscriptMode(ListView.TRANSCRIPT_MODE_NORMAL);
         mAdapter = new LogcatViewerListAdapter(getApplicationContext());
+        mAdapter.setStoreLimits(mMaxStoredEntries, mMaxStoredBytes);
+        mAdapter.setScrollbackLimit(mMaxScrollbackBytes);
+        if (mIsMultiBufferMode) {
+            //All source buffers are read, so show 'main' buffer till user selects other buffer.
+            mAdapter.setLogcatSourceLogId(Constants.getLogId(Constants.LOGCAT_SOURCE_BUFFER_MAIN));
+        }
         mListView.setAdapter(mAdapter);
+        restoreSnapshot();
+
+        //Tapping repeated log entry shows or hides its repeat details.
+        mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
+                mAdapter.toggleRepeatDetails(i);
+            }
+        });
+    }
+
+    /**
+     * Restore log entries of previous session from snapshot in background. They are added to view in chunks,
+     * oldest first, and log entries received meanwhile are added after them. Snapshots are saved periodically
+     * once restore is finished.
+     */
+    private void restoreSnapshot() {
+        mSnapshotFile = new File(getCacheDir(), SNAPSHOT_FILE);
+        mSnapshotWriter = new LogSnapshotWriter(mSnapshotFile);
+        if (!mSnapshotFile.exists()) {
+            mHandler.postDelayed(mSnapshotRunnable, SNAPSHOT_INTERVAL);
+            return;
+        }
+
+        mPendingLogEntries = new ArrayList<>();
+        final File snapshotFile = mSnapshotFile;
+        final long startTime = SystemClock.elapsedRealtime();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                LogSnapshot snapshot = null;
+                try {
+                    snapshot = new LogSnapshot(snapshotFile);
+                    boolean isFirstChunk = true;
+                    List<LogEntry> logEntries;
+                    while (!mIsRestoreCancelled
+                            && !(logEntries = snapshot.read(SNAPSHOT_RESTORE_CHUNK_SIZE)).isEmpty()) {
+                        postRestoredLogEntries(logEntries, isFirstChunk ? startTime : 0);
+                        isFirstChunk = false;
+                    }
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Restoring snapshot failed. Exception: " + e.toString());
+                } finally {
+                    if (snapshot != null) {
+                        snapshot.close();
+                    }
+                }
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mIsRestoreCancelled) {
+                            return;
+                        }
+                        mAdapter.finishRestore();
+                        mAdapter.addLogEntries(mPendingLogEntries);
+                        mPendingLogEntries = null;
+                        Log.i(LOG_TAG, "Restored " + mAdapter.getCount() + " log entries in "
+                                + (SystemClock.elapsedRealtime() - startTime) + " ms");
+                        mHandler.postDelayed(mSnapshotRunnable, SNAPSHOT_INTERVAL);
+                    }
+                });
+            }
+        }, "LogSnapshotRestore").start();
+    }
+
+    /**
+     * Add restored log entries to view on main thread.
+     * @param logEntries restored log entries.
+     * @param startTime time when restore was started, for first chunk only, to measure time to first shown log entry.
+     */
+    private void postRestoredLogEntries(final List<LogEntry> logEntries, final long startTime) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mIsRestoreCancelled) {
+                    return;
+                }
+                mAdapter.addLogEntries(logEntries);
+                if (startTime > 0) {
+                    Log.i(LOG_TAG, "First restored log entries shown in "
+                            + (SystemClock.elapsedRealtime() - startTime) + " ms");
+                }
+            }
+        });
+    }
+
+    /**
+     * Save log entries added to view since last snapshot, if any. They are captured on main thread and appended
+     * to snapshot file in background.
+     */
+    private void saveSnapshot() {
+        final LogSnapshotWriter.Segment segment = mAdapter.captureSnapshot(mSnapshotWriter);
+        if (segment == null) {
+            return;
+        }
+
+        final LogSnapshotWriter snapshotWriter = mSnapshotWriter;
+        mSnapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshotWriter.write(segment);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Writing snapshot failed. Exception: " + e.toString());
+                }
+            }
+        });
     }
 
     /**
@@ -347,6 +650,9 @@ public class LogcatViewerFloatingView extends StandOutWindow {
                 resetMenuOptionLayout();
                 if (filterLayoutVisibility == View.GONE) {
                     mFilterLayout.setVisibility(View.VISIBLE);
+                    //Tags are read again, as their log-entries change all the time.
+                    mTagsAdapter.update(mAdapter);
+                    mTagsListView.setVisibility(View.VISIBLE);
                     mMenuOptionLayout.setVisibility(View.VISIBLE);
             }
             }
@@ -366,13 +672,26 @@ public class LogcatViewerFloatingView extends StandOutWindow {
             }
         });
 
+        //'Select logcat source buffer' button
+        rootView.findViewById(R.id.btnLogcatSource).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                int logcatSourceRadioGroupVisibility = mLogcatSourceRadioGroup.getVisibility();
+                resetMenuOptionLayout();
+
+                if (logcatSourceRadioGroupVisibility == View.GONE) {
+                    mLogcatSourceRadioGroup.setVisibility(View.VISIBLE);
+                    mMenuOptionLayout.setVisibility(View.VISIBLE);
+                }
+            }
+        });
+
         //'Reset log-entries' button
         rootView.findViewById(R.id.btnReset).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                pauseLogging();
                 mAdapter.reset();
-                resumeLogging();
+                updateLogcatFilter();
                 resetMenuOptionLayout();
 
             }
@@ -460,9 +779,25 @@ public class LogcatViewerFloatingView extends StandOutWindow {
                 String filterText = ((EditText) rootView.findViewById(R.id.etLogFilter)).getText().toString().trim();
                 resetMenuOptionLayout();
 
-                pauseLogging();
+                //Log-entries are filtered progressively, so logging need not be paused meanwhile.
                 mAdapter.setLogFilterText(filterText);
-                resumeLogging();
+                updateLogcatFilter();
+            }
+        });
+    }
+
+    /**
+     * Setup 'Pick tags' view. Picked tags are applied at once and only in view, so that other tags can be picked
+     * without reading logcat again.
+     */
+    private void setupTagListView() {
+        mTagsAdapter = new LogTagsListAdapter(getApplicationContext());
+        mTagsListView.setAdapter(mTagsAdapter);
+        mTagsListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
+                mTagsAdapter.toggleSelection(i);
+                mAdapter.setFilterTags(mTagsAdapter.getSelectedTagIds());
             }
         });
     }
@@ -494,12 +829,126 @@ public class LogcatViewerFloatingView extends StandOutWindow {
                 }
                 //Set current priority level.
                 mAdapter.setLogPriorityLevel(priorityLevel);
+                updateLogcatFilter();
                 //Hide all menu option layouts.
                 resetMenuOptionLayout();
             }
         });
     }
 
+    /**
+     * Let service read only log-entries which can pass current priority level and filter text.
+     */
+    private void updateLogcatFilter() {
+        try {
+            mLogcatViewerService.setLogcatFilter(mAdapter.getLogcatFilterSpec().toString());
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, "Setting logcat filter failed");
+        }
+    }
+
+    /**
+     * Set whether only log entries of this application are shown when view is launched.
+     * @param appOnlyMode true to show only log entries of this application.
+     */
+    public static void setAppOnlyMode(boolean appOnlyMode) {
+        mIsAppOnlyMode = appOnlyMode;
+    }
+
+    /**
+     * Set maximum number of log entries kept in view and their size. It is applied when view is launched.
+     * @param maxEntries maximum number of log entries.
+     * @param maxBytes maximum size of log entries in bytes.
+     */
+    public static void setStoreLimits(int maxEntries, long maxBytes) {
+        mMaxStoredEntries = maxEntries;
+        mMaxStoredBytes = maxBytes;
+    }
+
+    /**
+     * Set maximum size of scrollback on disk. It is used for view opened afterwards.
+     *
+     * @param maxBytes maximum size of scrollback in bytes or 0 to drop log entries beyond store limits.
+     */
+    public static void setScrollbackLimit(long maxBytes) {
+        mMaxScrollbackBytes = maxBytes;
+    }
+
+    /**
+     * Setup 'Select logcat source buffer' view
+     */
+    private void setupLogcatSourceView() {
+        //'Only my app' option
+        CheckBox appOnlyCheckBox = (CheckBox) mLogcatSourceRadioGroup.findViewById(R.id.cbAppOnly);
+        appOnlyCheckBox.setChecked(mIsAppOnlyMode);
+        appOnlyCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton compoundButton, boolean isChecked) {
+                mIsAppOnlyMode = isChecked;
+                try {
+                    mLogcatViewerService.setAppOnlyMode(isChecked);
+                } catch (RemoteException e) {
+                    Log.e(LOG_TAG, "Changing 'only my app' mode failed");
+                }
+                //Hide all menu option layouts.
+                resetMenuOptionLayout();
+            }
+        });
+
+        mLogcatSourceRadioGroup.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(RadioGroup radioGroup, int checkedId) {
+                //Get source buffer based on selection. null means all buffers.
+                String logcatSource;
+                if (checkedId == R.id.radioSourceSystem) {
+                    logcatSource = Constants.LOGCAT_SOURCE_BUFFER_SYSTEM;
+
+                } else if (checkedId == R.id.radioSourceCrash) {
+                    logcatSource = Constants.LOGCAT_SOURCE_BUFFER_CRASH;
+
+                } else if (checkedId == R.id.radioSourceRadio) {
+                    logcatSource = Constants.LOGCAT_SOURCE_BUFFER_RADIO;
+
+                } else if (checkedId == R.id.radioSourceEvents) {
+                    logcatSource = Constants.LOGCAT_SOURCE_BUFFER_EVENTS;
+
+                } else if (checkedId == R.id.radioSourceAll) {
+                    logcatSource = null;
+
+                } else {
+                    logcatSource = Constants.LOGCAT_SOURCE_BUFFER_MAIN;
+
+                }
+                //Show selected source buffer.
+                showLogcatSource(logcatSource);
+                //Hide all menu option layouts.
+                resetMenuOptionLayout();
+            }
+        });
+    }
+
+    /**
+     * Show log entries of given source buffer.
+     * In multi-buffer mode, it only filters log entries; otherwise logcat is restarted for given source buffer.
+     * @param logcatSource source buffer or null for all buffers.
+     */
+    private void showLogcatSource(String logcatSource) {
+        if (mIsMultiBufferMode) {
+            mAdapter.setLogcatSourceLogId(logcatSource == null ? Constants.LOG_ID_ALL : Constants.getLogId(logcatSource));
+            return;
+        }
+
+        try {
+            if (logcatSource == null) {
+                mLogcatViewerService.changeLogcatSources(LEGACY_LOGCAT_SOURCES);
+            } else {
+                mLogcatViewerService.changeLogcatSource(logcatSource);
+            }
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, "Changing logcat source failed");
+        }
+    }
+
     /**
      * Share selected 'Saved Logs' files.
      */
@@ -18,21 +18,45 @@
 package com.fatangare.logcatviewer.service;
 
 import android.app.Service;
+import android.content.ComponentCallbacks2;
 import android.content.Intent;
+import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.fatangare.logcatviewer.parser.BinaryLogEntryDecoder;
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.parser.LogLineParser;
+import com.fatangare.logcatviewer.parser.LogLineReader;
+import com.fatangare.logcatviewer.parser.LogRepeatCollapser;
+import com.fatangare.logcatviewer.parser.LogTimestamp;
+import com.fatangare.logcatviewer.parser.LogcatFilterSpec;
+import com.fatangare.logcatviewer.parser.SymbolTable;
+import com.fatangare.logcatviewer.source.FileReplayLogSource;
+import com.fatangare.logcatviewer.source.LogSource;
+import com.fatangare.logcatviewer.source.ProcessLogSource;
+import com.fatangare.logcatviewer.source.SyntheticLogSource;
+import com.fatangare.logcatviewer.store.LogStore;
 import com.fatangare.logcatviewer.utils.Constants;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -45,9 +69,78 @@ public class LogcatViewerService extends Service {
     private static Handler mHandler;
 
     /**
-     * Logcat source buffer.
+     * Logcat source buffers. If there are more than one, all of them are read by single logcat process
+     * and each log entry is tagged with log id of its source buffer.
      */
-    private String mLogcatSource = Constants.LOGCAT_SOURCE_BUFFER_MAIN;
+    private volatile String[] mLogcatSources = {Constants.LOGCAT_SOURCE_BUFFER_MAIN};
+
+    /**
+     * Prefix of divider lines which logcat prints when source buffer of following log entries changes
+     * e.g. "--------- beginning of main" or "--------- switch to system".
+     */
+    private static final byte[] LOGCAT_DIVIDER_PREFIX = "--------- ".getBytes(Charset.forName("US-ASCII"));
+
+    /**
+     * 'logcat -D' (print dividers on each buffer switch) is supported since Android 7.0.
+     */
+    private static final int LOGCAT_DIVIDERS_MIN_SDK = 24;
+
+    //Resuming logcat from last read log entry
+    /**
+     * 'logcat -T' (print log entries since given time) is supported since Android 5.0.
+     */
+    private static final int LOGCAT_RESUME_MIN_SDK = 21;
+
+    /**
+     * Number of recently read log entries remembered to find duplicates at resume boundary.
+     */
+    private static final int MAX_RECENT_LOG_ENTRIES = 256;
+
+    /**
+     * Recently read log entries. On restart, logcat is resumed from timestamp of last of them, and those
+     * having same timestamp are skipped when logcat prints them again.
+     */
+    private final ArrayDeque<LogEntry> mRecentLogEntries = new ArrayDeque<>();
+
+    /**
+     * Is logcat read in binary format ('logcat -B') and decoded to structured log entries?
+     * Otherwise logcat text output is read line by line.
+     */
+    private volatile boolean mIsBinaryIngestion = false;
+
+    //Log source
+    /**
+     * Read live logcat process.
+     */
+    private static final int LOG_SOURCE_LOGCAT = 0;
+    /**
+     * Replay saved recording.
+     */
+    private static final int LOG_SOURCE_REPLAY = 1;
+    /**
+     * Generate synthetic log entries.
+     */
+    private static final int LOG_SOURCE_SYNTHETIC = 2;
+
+    /**
+     * Type of log source read by reader thread. One of LOG_SOURCE_ constants.
+     */
+    private volatile int mLogSourceType = LOG_SOURCE_LOGCAT;
+
+    /**
+     * Recording file replayed when {@link #mLogSourceType} is {@link #LOG_SOURCE_REPLAY}.
+     */
+    private volatile File mReplayFile;
+
+    /**
+     * Replay speed relative to original rate. 0 or less means as fast as possible.
+     */
+    private volatile float mReplaySpeed;
+
+    /**
+     * Rate of synthetic log entries in lines per second. 0 or less means as fast as possible.
+     */
+    private volatile int mSyntheticLinesPerSecond;
 
     //Saving logs to file
     /**
@@ -68,8 +161,15 @@ public class LogcatViewerService extends Service {
     private int mRecordedLogEntriesCount;
 
     //Threads
-    private volatile boolean mShouldLogcatRunnableBeKilled = false;
-    private volatile boolean mIsLogcatRunnableRunning = false;
+    /**
+     * Maximum time to wait for reader thread to finish on stop or restart.
+     */
+    private static final long READER_STOP_TIMEOUT = 1000; //1s
+
+    /**
+     * Controls reader thread and logcat process.
+     */
+    private LogcatIngestionController mIngestionController;
 
     //Status
     /**
@@ -78,17 +178,164 @@ public class LogcatViewerService extends Service {
     private boolean mIsRecording = false;
 
     /**
-     * Is listening to logcat paused?
+     * Is listening to logcat paused? While paused, log entries are kept in {@link #mPausedBacklog}
+     * and delivered to view on resume. Guarded by {@link #mPausedBacklogLock}.
      */
     private boolean mIsPaused = false;
 
+    //Backlog of log entries read while paused
+    /**
+     * Default maximum number of log entries kept while paused.
+     */
+    private static final int DEFAULT_MAX_BACKLOG_ENTRIES = 10000;
+
+    /**
+     * Default maximum size of log entries kept while paused.
+     */
+    private static final int DEFAULT_MAX_BACKLOG_BYTES = 2 * 1024 * 1024; //2MB
+
+    /**
+     * Log entries read while paused. When it is full, oldest log entries are dropped.
+     */
+    private final ArrayDeque<LogEntry> mPausedBacklog = new ArrayDeque<>();
+
+    private final Object mPausedBacklogLock = new Object();
+
+    private int mMaxBacklogEntries = DEFAULT_MAX_BACKLOG_ENTRIES;
+    private int mMaxBacklogBytes = DEFAULT_MAX_BACKLOG_BYTES;
+
+    /**
+     * Size of log entries in {@link #mPausedBacklog}.
+     */
+    private int mPausedBacklogBytes;
+
+    /**
+     * Number of log entries dropped from {@link #mPausedBacklog} during current pause.
+     */
+    private int mPausedBacklogOverflowCount;
+
+    //Memory pressure
+    /**
+     * Time after last memory trim in milliseconds after which backlog limits are restored.
+     * Android does not tell when memory pressure is over, so it is assumed to be over if it is not reported again.
+     */
+    private static final int MEMORY_RELAX_DELAY = 2 * 60 * 1000; //2 minutes
+
+    /**
+     * Trim tier of last memory trim, one of LogStore.TRIM_ constants. Backlog limits are lowered by it
+     * till {@link #MEMORY_RELAX_DELAY} passes. Guarded by {@link #mPausedBacklogLock}.
+     */
+    private int mTrimTier = LogStore.TRIM_NONE;
+    private long mLastTrimTime;
+
+    //Statistics of memory trims. Guarded by {@link #mPausedBacklogLock}.
+    private int mTrimCount;
+    private int mLastTrimLevel;
+
     private String mFilterText;
 
+    /**
+     * Recording filter text parsed as logcat filter. It is null if filter text is ordinary text.
+     */
+    private LogcatFilterSpec mRecordingFilterSpec;
+
+    //Filtering in logcat
+    /**
+     * Filter requested by view. Log entries which it filters out are not read at all, unless recording needs them.
+     */
+    private volatile LogcatFilterSpec mLogcatFilterSpec;
+
+    /**
+     * Logcat arguments for filter which is currently applied in logcat.
+     */
+    private volatile List<String> mLogcatFilterArguments = Collections.emptyList();
+
+    //Showing only log entries of the application
+    /**
+     * Tracks process ids of the application. It is null if log entries of all processes are read.
+     */
+    private AppProcessTracker mAppProcessTracker;
+
+    /**
+     * Sorted process ids of the application whose log entries are read. It is null if log entries of
+     * all processes are read. Logcat filters by process id only if there is single process,
+     * otherwise log entries of other processes are skipped by reader.
+     */
+    private volatile int[] mAppPids;
+
+    private final AppProcessTracker.Listener mAppPidsListener = new AppProcessTracker.Listener() {
+        @Override
+        public void onPidsChanged(int[] pids) {
+            mAppPids = pids;
+            //Restart even if logcat arguments are same, so that log entries of new process which reader
+            //skipped so far are read again from last read log entry.
+            if (!updateLogcatFilter()) {
+                restartLiveLogcat();
+            }
+        }
+    };
+
     /**
      * Interval after which logs are saved to file.
      */
     private static final int LOG_SAVING_INTERVAL = 5000; //5s
 
+    //Batched delivery of log entries to view
+    /**
+     * Default interval after which pending log entries are delivered to view - roughly one frame.
+     */
+    private static final int DEFAULT_BATCH_INTERVAL = 16; //16ms
+
+    /**
+     * Default number of pending log entries after which they are delivered to view without waiting
+     * for {@link LogcatViewerService#DEFAULT_BATCH_INTERVAL} interval.
+     */
+    private static final int DEFAULT_MAX_BATCH_SIZE = 500;
+
+    /**
+     * Interval after which pending log entries are delivered to view.
+     * If it is 0, pending log entries are delivered as soon as main thread is free.
+     */
+    private volatile int mBatchInterval = DEFAULT_BATCH_INTERVAL;
+
+    /**
+     * Number of pending log entries after which they are delivered to view immediately.
+     */
+    private volatile int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    //Hand-off of log entries from reader thread to main thread
+    /**
+     * Default maximum number of log entries read from logcat but not yet delivered to view.
+     */
+    private static final int DEFAULT_HANDOFF_CAPACITY = 10000;
+
+    /**
+     * Log entries read from logcat but not yet delivered to view. If view falls behind, log entries are
+     * dropped according to its policy and view is shown gap marker in their place.
+     */
+    private final LogHandoffQueue mHandoffQueue = new LogHandoffQueue(DEFAULT_HANDOFF_CAPACITY,
+            LogHandoffQueue.POLICY_DROP_OLDEST);
+
+    /**
+     * Guards taking batch from {@link #mHandoffQueue} and sending it, so that batches reach view in order.
+     */
+    private final Object mBatchLock = new Object();
+
+    /**
+     * Is refresh of view for changed repeat counts scheduled?
+     */
+    private final AtomicBoolean mIsRepeatRefreshPending = new AtomicBoolean();
+
+    /**
+     * Log entries repeated since last refresh. View keeps copies of log entries, so it copies their repeat counts.
+     */
+    private final ArrayList<LogEntry> mRepeatedLogEntries = new ArrayList<>();
+
+    /**
+     * Prefix of line saved in recording in place of repeats of previous line.
+     */
+    private static final String REPEAT_RECORD_PREFIX = "--------- previous line repeated ";
+
 
 
     // Handler Messages
@@ -104,20 +351,51 @@ public class LogcatViewerService extends Service {
     public static final int MSG_LOGCAT_READ_FAILURE = 2;
 
     /**
-     * Message indicating that new log entry from logcat is received.
+     * Message indicating that batch of new log entries from logcat is received.
+     * Message object is list of log entries in the order they are read.
      */
-    public static final int MSG_NEW_LOG_ENTRY = 3;
+    public static final int MSG_NEW_LOG_BATCH = 4;
 
+    /**
+     * Message indicating that log entries read while paused did not fit in backlog and were dropped.
+     * Message arg1 is number of dropped log entries.
+     */
+    public static final int MSG_PAUSED_BACKLOG_OVERFLOW = 5;
+
+    /**
+     * Message indicating that repeat counts of already delivered log entries are changed.
+     * Message object is list of repeated log entries.
+     */
+    public static final int MSG_LOG_ENTRY_REPEATED = 6;
 
-    private Runnable mLogcatRunnable = new Runnable() {
+
+    private LogcatIngestionController.Reader mLogcatReader = new LogcatIngestionController.Reader() {
         @Override
-        public void run() {
-            mIsLogcatRunnableRunning = true;
+        public void read(LogcatIngestionController.Session session) {
             //Run logcat subscriber to subscribe for logcat log entries
-            runLogcatSubscriber();
-            //If reached here, it means thread is killed.
-            mIsLogcatRunnableRunning = false;
-            return;
+            runLogcatSubscriber(session);
+        }
+    };
+
+    private Runnable mDeliverLogBatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            //deliver log entries collected during last batch interval.
+            deliverLogBatch();
+        }
+    };
+
+    private Runnable mRepeatRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            //show repeat counts updated during last batch interval.
+            mIsRepeatRefreshPending.set(false);
+            ArrayList<LogEntry> repeatedLogEntries;
+            synchronized (mRepeatedLogEntries) {
+                repeatedLogEntries = new ArrayList<>(mRepeatedLogEntries);
+                mRepeatedLogEntries.clear();
+            }
+            Message.obtain(mHandler, MSG_LOG_ENTRY_REPEATED, repeatedLogEntries).sendToTarget();
         }
     };
 
@@ -135,6 +413,7 @@ public class LogcatViewerService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        mIngestionController = new LogcatIngestionController(mLogcatReader);
     }
 
     @Override
@@ -146,13 +425,8 @@ public class LogcatViewerService extends Service {
 
     @Override
     public boolean onUnbind(Intent intent) {
-        //Kill mLogcatRunnable thread.
-        requestToKillLogcatRunnableThread();
-
-        //Till thread is not killed, wait
-        while (mIsLogcatRunnableRunning) {
-            Log.d(LOG_TAG, "onUnbind:Waiting to kill LogcatRunnable thread");
-        }
+        //Stop reading logcat and release resources.
+        stopLogcatSubscriber();
 
         //Stop LogcatViewerService service.
         stopSelf();
@@ -173,86 +447,364 @@ public class LogcatViewerService extends Service {
 
     /**
      * Subscribe logcat to listen logcat log entries.
+     * @param session ingestion session; reading stops when its stop is requested.
      */
-    private void runLogcatSubscriber() {
-        Process process = null;
-
-        //Execute logcat system command
+    private void runLogcatSubscriber(LogcatIngestionController.Session session) {
+        String[] logcatSources = mLogcatSources;
+        boolean isLiveLogcat = mLogSourceType == LOG_SOURCE_LOGCAT;
+        boolean isMultiBuffer = isLiveLogcat && logcatSources.length > 1;
+
+        //Resume from last read log entry, if any, instead of reading whole logcat buffer again.
+        //Replayed and synthetic log entries are not resumed.
+        ArrayList<String> resumeBoundaryEntries = new ArrayList<>();
+        long resumeTimestamp = isLiveLogcat ? getResumePoint(resumeBoundaryEntries) : 0;
+
+        //Open log source e.g. execute logcat system command
+        LogSource logSource = createLogSource(logcatSources, resumeTimestamp);
+        InputStream inputStream;
         try {
-            process = Runtime.getRuntime().exec("/system/bin/logcat -b " + mLogcatSource);
+            inputStream = logSource.open();
         } catch (IOException e) {
+            Log.e(LOG_TAG, "runLogcatSubscriber:Opening " + logSource.getName() + " failed. Exception: " + e.toString());
             sendMessage(MSG_LOGCAT_RUN_FAILURE);
+            return;
         }
 
+        //Closing log source on stop unblocks pending read.
+        session.attachLogSource(logSource);
+        long startTime = SystemClock.elapsedRealtime();
+
         //Read logcat log entries
-        BufferedReader reader = null;
+        LogLineReader reader = null;
+        LogLineParser parser = null;
+        BinaryLogEntryDecoder decoder = null;
+
+        //Consecutive log entries of same content are collapsed into first of them.
+        LogRepeatCollapser collapser = new LogRepeatCollapser();
+        PackageNameResolver packageNameResolver = new PackageNameResolver();
+        boolean isLastLogEntryRecorded = false;
+        int unrecordedRepeatCount = 0;
+
+        //Log id of source buffer of text log entries. It changes with divider lines in multi-buffer mode.
+        //Source buffer is not known till first divider line, and it is never known on devices which do not print
+        //divider lines. It is also default log id of binary log entries whose header does not carry log id.
+        int logId = isMultiBuffer ? Constants.LOG_ID_UNKNOWN : Constants.getLogId(logcatSources[0]);
 
         try {
-            reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            if (logSource.isBinary()) {
+                decoder = new BinaryLogEntryDecoder(inputStream, logId);
+            } else {
+                reader = new LogLineReader(inputStream);
+                parser = new LogLineParser();
+            }
 
-            String logEntry;
+            LogEntry logEntry;
 
-            //Till request to kill thread is not received, keep reading log entries
-            while (!shouldLogcatRunnableBeKilled()) {
-                //if paused, ignore entries.
-                if (mIsPaused) {
+            //Till request to stop is not received, keep reading log entries
+            while (!session.isStopRequested()) {
+                //Read log entry.
+                if (decoder != null) {
+                    logEntry = decoder.readLogEntry();
+                } else {
+                    logEntry = reader.readLogEntry();
+
+                    //In multi-buffer mode, divider lines tell source buffer of following log entries.
+                    if (isMultiBuffer && logEntry != null && reader.lineStartsWith(LOGCAT_DIVIDER_PREFIX)) {
+                        String divider = logEntry.getText();
+                        logId = Constants.getLogId(divider.substring(divider.lastIndexOf(' ') + 1));
+                        continue;
+                    }
+
+                    //Parse line once here, so that view filters and colors it by parsed fields.
+                    //Lines of multi-line record are assembled by parser, hence no log entry is shown till it is complete.
+                    if (logEntry != null) {
+                        logEntry = parser.nextLogEntry(logEntry);
+                        if (logEntry == null) {
+                            continue;
+                        }
+                    } else {
+                        logEntry = parser.flush();
+                    }
+
+                    if (logEntry != null) {
+                        logEntry.setLogId(logId);
+                    }
+                }
+
+                //logcat has exited or is destroyed.
+                if (logEntry == null) {
+                    break;
+                }
+
+                //Skip log entries which are already read before restart.
+                if (resumeTimestamp > 0) {
+                    long timestamp = logEntry.getTimestamp();
+                    if (timestamp > resumeTimestamp) {
+                        //Resume boundary is passed.
+                        resumeTimestamp = 0;
+                    } else if (timestamp > 0 && (timestamp < resumeTimestamp
+                            || resumeBoundaryEntries.remove(logEntry.getText()))) {
+                        continue;
+                    }
+                }
+
+                //In 'only my app' mode, skip log entries of other processes which logcat could not filter out.
+                int[] appPids = mAppPids;
+                if (appPids != null && logEntry.hasFields() && Arrays.binarySearch(appPids, logEntry.getPid()) < 0) {
                     continue;
                 }
+                rememberRecentLogEntry(logEntry);
 
-                //Read log entry.
-                logEntry = reader.readLine();
+                //Collapse repeat of last log entry into it, so that view only needs to refresh its repeat count.
+                if (collapser.collapse(logEntry)) {
+                    if (isLastLogEntryRecorded) {
+                        unrecordedRepeatCount++;
+                    }
+                    scheduleRepeatRefresh(collapser.getLastLogEntry());
+                    continue;
+                }
+
+                //Resolve package name of process once here, so that view filters it by id.
+                if (logEntry.hasFields() && logEntry.getPid() > 0) {
+                    logEntry.setPackageId(packageNameResolver.resolve(logEntry.getPid()));
+                }
 
-                //Send log entry to view.
-                sendLogEntry(logEntry);
+                //Send log entry to view. If paused, keep it in backlog till resumed.
+                boolean isPaused;
+                synchronized (mPausedBacklogLock) {
+                    isPaused = mIsPaused;
+                    if (isPaused) {
+                        addToPausedBacklog(logEntry);
+                    }
+                }
+                //Queue outside of lock, as reader may wait for view here.
+                if (!isPaused) {
+                    queueLogEntry(logEntry);
+                }
 
                 //If recording is on, save log entries in mRecordingData in order to save them
                 // after every LOG_SAVING_INTERVAL interval
                 if (mIsRecording) {
-                    if(TextUtils.isEmpty(mFilterText) ||
-                            (!TextUtils.isEmpty(mFilterText) && logEntry.toLowerCase().contains(mFilterText.toLowerCase()))) {
-                        mRecordingData.add(logEntry);
+                    //Repeats of last recorded log entry are saved as single line after it.
+                    recordRepeats(unrecordedRepeatCount);
+                    unrecordedRepeatCount = 0;
+
+                    String logText = logEntry.getText();
+                    if (mRecordingFilterSpec != null) {
+                        //Filter text is logcat filter.
+                        isLastLogEntryRecorded = mRecordingFilterSpec.matches(logEntry);
+                    } else {
+                        isLastLogEntryRecorded = TextUtils.isEmpty(mFilterText) ||
+                                (!TextUtils.isEmpty(mFilterText) && logText.toLowerCase().contains(mFilterText.toLowerCase()));
                     }
+                    if (isLastLogEntryRecorded) {
+                        mRecordingData.add(logText);
+                    }
+                } else {
+                    isLastLogEntryRecorded = false;
+                    unrecordedRepeatCount = 0;
                 }
             }
+        } catch (IOException e) {
+            //Reading fails when log source is closed on stop; otherwise it is failure.
+            if (!session.isStopRequested()) {
+                sendMessage(MSG_LOGCAT_READ_FAILURE);
+            }
+        } catch (InterruptedException e) {
+            //Reader is interrupted on stop while waiting for view to take log entries.
+            Log.d(LOG_TAG, "Reader thread is interrupted");
+        }
 
-            Log.d(LOG_TAG, "Preparing to terminate LogcatRunnable thread");
-            //If recording is on, save log entries and reset recording related fields.
-            if (mIsRecording) {
-                recordLogData();
+        Log.d(LOG_TAG, "Preparing to terminate reader thread");
+        if (mIsRecording) {
+            recordRepeats(unrecordedRepeatCount);
+        }
+        if (reader != null) {
+            long elapsedTime = Math.max(SystemClock.elapsedRealtime() - startTime, 1);
+            Log.d(LOG_TAG, "Read " + reader.getBytesRead() + " bytes, " + reader.getLinesRead() + " lines in "
+                    + elapsedTime + "ms (" + (reader.getBytesRead() * 1000 / elapsedTime) + " bytes/s) using "
+                    + reader.getSlabsAllocated() + " slabs");
+        }
+        Log.d(LOG_TAG, "Collapsed " + collapser.getCollapsedCount() + " repeated log entries");
+        Log.d(LOG_TAG, "Interned " + SymbolTable.TAGS.size() + " tags (hit rate " + SymbolTable.TAGS.getHitRate()
+                + ") and " + SymbolTable.PACKAGES.size() + " packages (hit rate " + SymbolTable.PACKAGES.getHitRate() + ")");
 
-                mHandler.removeCallbacks(mRecordLogEntryRunnable);
-                mIsRecording = false;
-                mRecordingData.removeAllElements();
-                mRecordingFilename = null;
+        //Release resources
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Closing logcat stream failed");
+        }
+        logSource.close();
+
+        Log.d(LOG_TAG, "Terminating reader thread");
+    }
 
+    /**
+     * Stop reading logcat. If recording is on, save log entries and reset recording related fields.
+     */
+    private void stopLogcatSubscriber() {
+        mIngestionController.stop(READER_STOP_TIMEOUT);
+
+        synchronized (mAppPidsListener) {
+            if (mAppProcessTracker != null) {
+                mAppProcessTracker.stop();
+                mAppProcessTracker = null;
+                mAppPids = null;
             }
+        }
 
-            //Release resources
-            reader.close();
-            process.destroy();
+        if (mIsRecording) {
+            mHandler.removeCallbacks(mRecordLogEntryRunnable);
+            mIsRecording = false;
+            recordLogData();
+            mRecordingData.removeAllElements();
+            mRecordingFilename = null;
+        }
+    }
 
-        } catch (IOException e) {
-            //Fail to read logcat log entries
-            sendMessage(MSG_LOGCAT_READ_FAILURE);
+    /**
+     * Create log source for next ingestion session according to {@link #mLogSourceType}.
+     * @param logcatSources logcat source buffers read by live logcat.
+     * @param resumeTimestamp time in nanoseconds since epoch from which live logcat should print log entries.
+     * @return log source.
+     */
+    private LogSource createLogSource(String[] logcatSources, long resumeTimestamp) {
+        switch (mLogSourceType) {
+            case LOG_SOURCE_REPLAY:
+                return new FileReplayLogSource(mReplayFile, mReplaySpeed);
+            case LOG_SOURCE_SYNTHETIC:
+                return new SyntheticLogSource(mSyntheticLinesPerSecond);
+            default:
+                return new ProcessLogSource(buildLogcatCommand(logcatSources, resumeTimestamp), mIsBinaryIngestion);
+        }
+    }
+
+    /**
+     * Build logcat command for given source buffers.
+     * Multiple source buffers are read by single logcat process; logd merges their log entries in timestamp order.
+     * @param logcatSources logcat source buffers.
+     * @param resumeTimestamp time in nanoseconds since epoch from which log entries should be printed. 0 to print all.
+     * @return logcat command.
+     */
+    private String[] buildLogcatCommand(String[] logcatSources, long resumeTimestamp) {
+        ArrayList<String> command = new ArrayList<>();
+        command.add("/system/bin/logcat");
+        if (mIsBinaryIngestion) {
+            //Binary log entries carry log id of their source buffer.
+            command.add("-B");
+        } else {
+            //'threadtime' format has timestamp, which is required to resume logcat.
+            command.add("-v");
+            command.add("threadtime");
+
+            if (logcatSources.length > 1 && Build.VERSION.SDK_INT >= LOGCAT_DIVIDERS_MIN_SDK) {
+                //Print divider line whenever source buffer changes, so that text log entries can be tagged.
+                command.add("-D");
+            }
+        }
+
+        //Print log entries since last read log entry. Older devices print all and those are skipped while reading.
+        if (resumeTimestamp > 0 && Build.VERSION.SDK_INT >= LOGCAT_RESUME_MIN_SDK) {
+            command.add("-T");
+            command.add(LogTimestamp.formatTimestamp(resumeTimestamp));
+        }
+
+        for (String logcatSource : logcatSources) {
+            command.add("-b");
+            command.add(logcatSource);
         }
 
-        Log.d(LOG_TAG, "Terminating LogcatRunnable thread");
-        return;
+        //Filter options and filterspecs. Filterspecs should be last arguments.
+        command.addAll(mLogcatFilterArguments);
+        return command.toArray(new String[command.size()]);
     }
 
     /**
-     * Make request to kill LogcatRunnable thread.
+     * Update filter applied in logcat and restart logcat if it is changed.
+     * While recording, view filter is applied in logcat only if recording uses same filter;
+     * otherwise recording would miss log entries.
+     * @return true if filter is changed else false.
      */
-    private synchronized void requestToKillLogcatRunnableThread() {
-        mShouldLogcatRunnableBeKilled = true;
+    private boolean updateLogcatFilter() {
+        LogcatFilterSpec filterSpec = mLogcatFilterSpec;
+        if (mIsRecording && filterSpec != null) {
+            LogcatFilterSpec recordingFilterSpec = mRecordingFilterSpec != null ? mRecordingFilterSpec
+                    : LogcatFilterSpec.forPriority(Log.VERBOSE);
+            if (!recordingFilterSpec.equals(filterSpec)) {
+                filterSpec = null;
+            }
+        }
+
+        List<String> filterArguments = filterSpec == null ? new ArrayList<String>()
+                : filterSpec.toLogcatArguments(Build.VERSION.SDK_INT);
+
+        //In 'only my app' mode, let logcat filter by process id if application has single process.
+        int[] appPids = mAppPids;
+        if (appPids != null && appPids.length == 1 && Build.VERSION.SDK_INT >= LogcatFilterSpec.LOGCAT_PID_MIN_SDK
+                && (filterSpec == null || filterSpec.getPid() == 0)) {
+            filterArguments.add(0, "--pid=" + appPids[0]);
+        }
+
+        if (filterArguments.equals(mLogcatFilterArguments)) {
+            return false;
+        }
+
+        Log.d(LOG_TAG, "updateLogcatFilter:" + filterArguments);
+        mLogcatFilterArguments = filterArguments;
+        restartLiveLogcat();
+        return true;
     }
 
     /**
-     * Check if request to kill LogcatRunnable thread is made.
-     * @return true if request is made else false.
+     * Restart logcat transparently, if it is being read, e.g. to apply new filter.
+     * Replayed and synthetic log entries are filtered only in reader and view.
      */
-    private synchronized boolean shouldLogcatRunnableBeKilled() {
-        return mShouldLogcatRunnableBeKilled;
+    private void restartLiveLogcat() {
+        if (mLogSourceType == LOG_SOURCE_LOGCAT && mIngestionController.isRunning()) {
+            mIngestionController.restart(READER_STOP_TIMEOUT);
+        }
+    }
+
+    /**
+     * Get point from which logcat should be resumed i.e. timestamp of last read log entry.
+     * @param boundaryEntries filled with text of recent log entries having that timestamp, which logcat prints again.
+     * @return timestamp in nanoseconds since epoch or 0 if logcat should not be resumed.
+     */
+    private long getResumePoint(ArrayList<String> boundaryEntries) {
+        synchronized (mRecentLogEntries) {
+            if (mRecentLogEntries.isEmpty()) {
+                return 0;
+            }
+
+            long resumeTimestamp = mRecentLogEntries.getLast().getTimestamp();
+            if (resumeTimestamp <= 0) {
+                return 0;
+            }
+
+            Iterator<LogEntry> iterator = mRecentLogEntries.descendingIterator();
+            while (iterator.hasNext()) {
+                LogEntry logEntry = iterator.next();
+                if (logEntry.getTimestamp() != resumeTimestamp) {
+                    break;
+                }
+                boundaryEntries.add(logEntry.getText());
+            }
+            return resumeTimestamp;
+        }
+    }
+
+    /**
+     * Remember recently read log entry to resume logcat from it on restart.
+     * @param logEntry log entry.
+     */
+    private void rememberRecentLogEntry(LogEntry logEntry) {
+        synchronized (mRecentLogEntries) {
+            if (mRecentLogEntries.size() == MAX_RECENT_LOG_ENTRIES) {
+                mRecentLogEntries.removeFirst();
+            }
+            mRecentLogEntries.addLast(logEntry);
+        }
     }
 
     /**
@@ -264,11 +816,148 @@ public class LogcatViewerService extends Service {
     }
 
     /**
-     * Send logcat log entry to view.
+     * Add log entry to hand-off queue. Pending log entries are delivered to view after {@link #mBatchInterval}
+     * interval or as soon as {@link #mMaxBatchSize} log entries are pending, whichever is earlier.
+     * If queue is full, reader may wait here depending on hand-off policy.
+     * @param logEntry log entry.
+     * @throws InterruptedException if reader is interrupted while waiting for view.
+     */
+    private void queueLogEntry(LogEntry logEntry) throws InterruptedException {
+        if (mHandoffQueue.offer(logEntry)) {
+            //First pending log entry, so schedule delivery.
+            mHandler.postDelayed(mDeliverLogBatchRunnable, mBatchInterval);
+        } else if (mBatchInterval > 0 && mHandoffQueue.size() == mMaxBatchSize) {
+            //Batch is full, so deliver it now instead of waiting for scheduled delivery.
+            mHandler.removeCallbacks(mDeliverLogBatchRunnable);
+            mHandler.post(mDeliverLogBatchRunnable);
+        }
+    }
+
+    /**
+     * Deliver pending log entries, at most {@link #mMaxBatchSize} of them, to view.
+     * If more log entries are pending, their delivery is scheduled right after this batch.
+     */
+    private void deliverLogBatch() {
+        synchronized (mBatchLock) {
+            ArrayList<LogEntry> batch = new ArrayList<>();
+            boolean hasMore = mHandoffQueue.drain(batch, mMaxBatchSize);
+            if (!batch.isEmpty()) {
+                sendLogBatch(batch);
+            }
+            if (hasMore) {
+                mHandler.post(mDeliverLogBatchRunnable);
+            }
+        }
+    }
+
+    /**
+     * Deliver all pending log entries to view at once.
+     */
+    private void deliverAllLogEntries() {
+        synchronized (mBatchLock) {
+            mHandler.removeCallbacks(mDeliverLogBatchRunnable);
+            ArrayList<LogEntry> batch = new ArrayList<>();
+            mHandoffQueue.drain(batch, Integer.MAX_VALUE);
+            if (!batch.isEmpty()) {
+                sendLogBatch(batch);
+            }
+        }
+    }
+
+    /**
+     * Send batch of logcat log entries to view.
+     * @param logEntries log entries.
+     */
+    private void sendLogBatch(ArrayList<LogEntry> logEntries) {
+        Message.obtain(mHandler, MSG_NEW_LOG_BATCH, logEntries).sendToTarget();
+    }
+
+    /**
+     * Schedule refresh of view to show repeat count of log entry. Refreshes are coalesced,
+     * so that view is refreshed at most once per {@link #mBatchInterval} however fast log entry repeats.
+     * @param logEntry repeated log entry.
+     */
+    private void scheduleRepeatRefresh(LogEntry logEntry) {
+        synchronized (mRepeatedLogEntries) {
+            int size = mRepeatedLogEntries.size();
+            if (size == 0 || mRepeatedLogEntries.get(size - 1) != logEntry) {
+                mRepeatedLogEntries.add(logEntry);
+            }
+        }
+        if (mIsRepeatRefreshPending.compareAndSet(false, true)) {
+            mHandler.postDelayed(mRepeatRefreshRunnable, mBatchInterval);
+        }
+    }
+
+    /**
+     * Save repeats of last recorded log entry as single line, in the way syslog does.
+     * @param repeatCount number of repeats.
+     */
+    private void recordRepeats(int repeatCount) {
+        if (repeatCount > 0) {
+            mRecordingData.add(REPEAT_RECORD_PREFIX + repeatCount + " times");
+        }
+    }
+
+    /**
+     * Add log entry to paused backlog. If backlog exceeds its limits, oldest log entries are dropped.
+     * Caller should hold {@link #mPausedBacklogLock}.
      * @param logEntry log entry.
      */
-    private void sendLogEntry(String logEntry) {
-        Message.obtain(mHandler, MSG_NEW_LOG_ENTRY, logEntry).sendToTarget();
+    private void addToPausedBacklog(LogEntry logEntry) {
+        mPausedBacklog.addLast(logEntry);
+        mPausedBacklogBytes += logEntry.getApproximateSize();
+        trimPausedBacklog();
+    }
+
+    /**
+     * Drop oldest log entries of paused backlog which exceed its limits, lowered while memory is trimmed.
+     * Caller should hold {@link #mPausedBacklogLock}.
+     */
+    private void trimPausedBacklog() {
+        if (mTrimTier != LogStore.TRIM_NONE && SystemClock.elapsedRealtime() - mLastTrimTime > MEMORY_RELAX_DELAY) {
+            mTrimTier = LogStore.TRIM_NONE;
+        }
+
+        //Each tier above compact halves limits.
+        int shift = Math.max(mTrimTier - LogStore.TRIM_COMPACT, 0);
+        int maxEntries = Math.max(mMaxBacklogEntries >> shift, 1);
+        int maxBytes = Math.max(mMaxBacklogBytes >> shift, 1);
+
+        while (mPausedBacklog.size() > maxEntries
+                || (mPausedBacklogBytes > maxBytes && mPausedBacklog.size() > 1)) {
+            mPausedBacklogBytes -= mPausedBacklog.removeFirst().getApproximateSize();
+            mPausedBacklogOverflowCount++;
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Lower limits of paused backlog according to level of memory pressure. Dropped log entries are counted
+     * like overflow of backlog, so they are shown as gap on resume.
+     * @param level level of memory pressure.
+     */
+    private void trimMemory(int level) {
+        synchronized (mPausedBacklogLock) {
+            mTrimCount++;
+            mLastTrimLevel = level;
+            mTrimTier = Math.max(mTrimTier, LogStore.getTrimTier(level));
+            mLastTrimTime = SystemClock.elapsedRealtime();
+            trimPausedBacklog();
+            Log.i(LOG_TAG, "Memory trimmed for level " + level + ". Paused backlog: " + mPausedBacklog.size()
+                    + " log entries, " + mPausedBacklogBytes + " bytes");
+        }
     }
 
     /**
@@ -316,36 +1005,54 @@ public class LogcatViewerService extends Service {
     private final ILogcatViewerService.Stub mBinder = new ILogcatViewerService.Stub() {
 
         public void changeLogcatSource(String logcatSource) {
-            mLogcatSource = logcatSource;
+            mLogcatSources = new String[]{logcatSource};
+            mLogSourceType = LOG_SOURCE_LOGCAT;
             restart();
         }
 
-        public void restart() {
-            //request to kill thread
-            requestToKillLogcatRunnableThread();
+        public void changeLogcatSources(String[] logcatSources) {
+            if (logcatSources == null || logcatSources.length == 0) {
+                return;
+            }
+            mLogcatSources = logcatSources.clone();
+            mLogSourceType = LOG_SOURCE_LOGCAT;
+            restart();
+        }
+
+        public void replayRecording(String recordingFilename, float speed) {
+            mReplayFile = new File(Constants.getRecordDir(LogcatViewerService.this), recordingFilename);
+            mReplaySpeed = speed;
+            mLogSourceType = LOG_SOURCE_REPLAY;
+            restart();
+        }
 
-            //Till thread is not killed, wait
-            while (mIsLogcatRunnableRunning) {
-                Log.d(LOG_TAG, "restart:Waiting to kill LogcatRunnable thread");
+        public void generateSyntheticLogs(int linesPerSecond) {
+            mSyntheticLinesPerSecond = linesPerSecond;
+            mLogSourceType = LOG_SOURCE_SYNTHETIC;
+            restart();
+        }
+
+        public void setBinaryIngestion(boolean enabled) {
+            if (mIsBinaryIngestion == enabled) {
+                return;
             }
+            mIsBinaryIngestion = enabled;
+            restart();
+        }
 
-            //since request to kill is completed, set mShouldLogcatRunnableBeKilled to false
-            mShouldLogcatRunnableBeKilled = false;
+        public void restart() {
+            //Stop reader thread, destroying logcat process, and start new one.
+            mIngestionController.restart(READER_STOP_TIMEOUT);
+        }
 
-            //Start new LogcatRunnable thread.
-            Thread thr = new Thread(mLogcatRunnable);
-            thr.start();
+        public long getLastRestartLatency() {
+            return mIngestionController.getLastRestartLatency();
         }
 
         public void stop() {
             Log.d(LOG_TAG, "stop:request to stop LogcatViewerService service is made.");
-            //Kill mLogcatRunnable thread.
-            requestToKillLogcatRunnableThread();
-
-            //Till thread is not killed, wait
-            while (mIsLogcatRunnableRunning) {
-                Log.d(LOG_TAG, "stop:Waiting to kill LogcatRunnable thread");
-            }
+            //Stop reading logcat and release resources.
+            stopLogcatSubscriber();
 
             //Stop LogcatViewerService service.
             stopSelf();
@@ -353,10 +1060,13 @@ public class LogcatViewerService extends Service {
 
         public void startRecording(String recordingFilename, String filterText) {
             mRecordingData = new Vector<>();
-            mIsRecording = true;
             mRecordingFilename = recordingFilename;
             mFilterText = filterText;
+            mRecordingFilterSpec = LogcatFilterSpec.parse(filterText);
+            mIsRecording = true;
             mHandler.postDelayed(mRecordLogEntryRunnable, LOG_SAVING_INTERVAL);
+            //Recording may need log entries which view filters out.
+            updateLogcatFilter();
         }
 
         public void stopRecording() {
@@ -365,18 +1075,107 @@ public class LogcatViewerService extends Service {
             recordLogData();
             mRecordingData.removeAllElements();
             mRecordingFilename = null;
+            updateLogcatFilter();
+        }
+
+        public void setAppOnlyMode(boolean enabled) {
+            synchronized (mAppPidsListener) {
+                if (enabled == (mAppProcessTracker != null)) {
+                    return;
+                }
+
+                if (enabled) {
+                    mAppProcessTracker = new AppProcessTracker(LogcatViewerService.this, getPackageName(),
+                            new Handler(Looper.getMainLooper()), mAppPidsListener);
+                    mAppPids = mAppProcessTracker.start();
+                } else {
+                    mAppProcessTracker.stop();
+                    mAppProcessTracker = null;
+                    mAppPids = null;
+                }
+            }
+
+            //Log entries of other processes are skipped or read again from last read log entry.
+            if (!updateLogcatFilter()) {
+                restartLiveLogcat();
+            }
+        }
+
+        public void setLogcatFilter(String filterSpec) {
+            mLogcatFilterSpec = LogcatFilterSpec.parse(filterSpec);
+            updateLogcatFilter();
         }
 
         public boolean isRecording() {
             return mIsRecording;
         }
 
+        public void setBatchDelivery(int batchInterval, int maxBatchSize) {
+            mBatchInterval = Math.max(batchInterval, 0);
+            mMaxBatchSize = Math.max(maxBatchSize, 1);
+        }
+
+        public void setHandoffPolicy(int policy, int capacity) {
+            mHandoffQueue.setPolicy(policy, capacity);
+        }
+
+        public long[] getHandoffCounters() {
+            return new long[]{mHandoffQueue.getQueuedCount(), mHandoffQueue.getDeliveredCount(),
+                    mHandoffQueue.getDroppedCount()};
+        }
+
+        public long[] getSymbolTableCounters() {
+            return new long[]{SymbolTable.TAGS.size(), SymbolTable.TAGS.getLookupCount(),
+                    SymbolTable.TAGS.getHitCount(), SymbolTable.PACKAGES.size(),
+                    SymbolTable.PACKAGES.getLookupCount(), SymbolTable.PACKAGES.getHitCount()};
+        }
+
+        public long[] getMemoryCounters() {
+            synchronized (mPausedBacklogLock) {
+                return new long[]{mPausedBacklog.size(), mPausedBacklogBytes, mTrimCount, mLastTrimLevel};
+            }
+        }
+
+        public void setPausedBacklogLimits(int maxEntries, int maxBytes) {
+            synchronized (mPausedBacklogLock) {
+                mMaxBacklogEntries = Math.max(maxEntries, 1);
+                mMaxBacklogBytes = Math.max(maxBytes, 1);
+            }
+        }
+
         public void pause() {
-            mIsPaused = true;
+            synchronized (mPausedBacklogLock) {
+                mIsPaused = true;
+            }
         }
 
         public void resume() {
-            mIsPaused = false;
+            synchronized (mPausedBacklogLock) {
+                if (!mIsPaused) {
+                    return;
+                }
+                mIsPaused = false;
+
+                //Log entries read before pause should reach view before backlog.
+                deliverAllLogEntries();
+
+                //Deliver backlog in bulk, with gap marker in place of log entries dropped from it.
+                if (!mPausedBacklog.isEmpty()) {
+                    ArrayList<LogEntry> backlog = new ArrayList<>(mPausedBacklog.size() + 1);
+                    if (mPausedBacklogOverflowCount > 0) {
+                        backlog.add(LogEntry.createGapMarker(mPausedBacklogOverflowCount));
+                    }
+                    backlog.addAll(mPausedBacklog);
+                    sendLogBatch(backlog);
+                    mPausedBacklog.clear();
+                    mPausedBacklogBytes = 0;
+                }
+
+                if (mPausedBacklogOverflowCount > 0) {
+                    Message.obtain(mHandler, MSG_PAUSED_BACKLOG_OVERFLOW, mPausedBacklogOverflowCount, 0).sendToTarget();
+                    mPausedBacklogOverflowCount = 0;
+                }
+            }
         }
     };
 }
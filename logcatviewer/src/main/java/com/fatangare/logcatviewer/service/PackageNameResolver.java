@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.service;
+
+import android.util.SparseIntArray;
+
+import com.fatangare.logcatviewer.parser.SymbolTable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Resolves process id to package name of process, interned in {@link SymbolTable#PACKAGES}.
+ * Package name is read once per process id from /proc/PID/cmdline; process name such as "com.example:remote"
+ * is reduced to its package. Processes of other apps may not be readable on newer Android versions,
+ * in which case their package name is not known.
+ * This class is not thread-safe; it should be used by reader thread only.
+ */
+class PackageNameResolver {
+    /**
+     * Maximum number of cached process ids. Cache is cleared once it is full, as old processes may have died.
+     */
+    private static final int MAX_CACHED_PIDS = 4096;
+
+    /**
+     * Package ids by process id, including {@link SymbolTable#NO_SYMBOL} for processes which can not be read.
+     */
+    private final SparseIntArray mPackageIds = new SparseIntArray();
+
+    private final byte[] mBuffer = new byte[256];
+
+    /**
+     * Get package name id of process.
+     *
+     * @param pid process id.
+     * @return id in {@link SymbolTable#PACKAGES} or {@link SymbolTable#NO_SYMBOL} if not known.
+     */
+    int resolve(int pid) {
+        int index = mPackageIds.indexOfKey(pid);
+        if (index >= 0) {
+            return mPackageIds.valueAt(index);
+        }
+
+        if (mPackageIds.size() == MAX_CACHED_PIDS) {
+            mPackageIds.clear();
+        }
+        int packageId = readPackageId(pid);
+        mPackageIds.put(pid, packageId);
+        return packageId;
+    }
+
+    /**
+     * Read package name of process from its command line. It is NUL terminated process name.
+     */
+    private int readPackageId(int pid) {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream("/proc/" + pid + "/cmdline");
+            int length = inputStream.read(mBuffer);
+            int end = 0;
+            while (end < length && mBuffer[end] != 0 && mBuffer[end] != ':') {
+                end++;
+            }
+            return end == 0 ? SymbolTable.NO_SYMBOL : SymbolTable.PACKAGES.intern(mBuffer, 0, end);
+        } catch (IOException e) {
+            //Process has died or is not readable.
+            return SymbolTable.NO_SYMBOL;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    //Nothing to release.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.source;
+
+import com.fatangare.logcatviewer.parser.LogTimestamp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Log source which replays saved recording i.e. logcat text lines in 'threadtime' format.
+ * Recording is either streamed as fast as it can be read, or paced by timestamps of its lines
+ * so that log entries arrive at original rate multiplied by given speed.
+ */
+public class FileReplayLogSource implements LogSource {
+    private final File mFile;
+
+    /**
+     * Replay speed relative to original rate. 0 or less means as fast as possible.
+     */
+    private final float mSpeed;
+
+    private InputStream mInputStream;
+    private volatile boolean mIsClosed;
+
+    /**
+     * Constructor
+     *
+     * @param file  recording file e.g. in {@link com.fatangare.logcatviewer.utils.Constants#getRecordDir}.
+     * @param speed replay speed relative to original rate e.g. 2 for twice as fast. 0 or less for as fast as possible.
+     */
+    public FileReplayLogSource(File file, float speed) {
+        mFile = file;
+        mSpeed = speed;
+    }
+
+    @Override
+    public synchronized InputStream open() throws IOException {
+        if (mIsClosed) {
+            throw new IOException("Log source is closed");
+        }
+
+        InputStream inputStream = new FileInputStream(mFile);
+        mInputStream = mSpeed > 0 ? new PacedInputStream(inputStream) : inputStream;
+        return mInputStream;
+    }
+
+    @Override
+    public synchronized void close() {
+        mIsClosed = true;
+        if (mInputStream != null) {
+            try {
+                mInputStream.close();
+            } catch (IOException e) {
+                //Nothing to release.
+            }
+        }
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return mFile.getName();
+    }
+
+    /**
+     * Stream which holds back each line till time since first line, divided by speed, has elapsed.
+     * Lines without timestamp are passed as soon as they are read.
+     */
+    private class PacedInputStream extends InputStream {
+        private static final long NANOS_PER_MILLI = 1000000L;
+
+        private final InputStream mSource;
+
+        private final byte[] mReadBuffer = new byte[8192];
+        private int mReadOffset;
+        private int mReadEnd;
+
+        /**
+         * Current line including its line terminator.
+         */
+        private byte[] mLine = new byte[1024];
+        private int mLineOffset;
+        private int mLineEnd;
+
+        private long mFirstTimestamp;
+        private long mStartTime;
+
+        PacedInputStream(InputStream source) {
+            mSource = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (mLineOffset == mLineEnd && !readLine()) {
+                return -1;
+            }
+
+            int count = Math.min(length, mLineEnd - mLineOffset);
+            System.arraycopy(mLine, mLineOffset, buffer, offset, count);
+            mLineOffset += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSource.close();
+        }
+
+        /**
+         * Read next line and wait till it is due.
+         *
+         * @return false if end of stream is reached.
+         */
+        private boolean readLine() throws IOException {
+            mLineOffset = mLineEnd = 0;
+            while (true) {
+                if (mReadOffset == mReadEnd) {
+                    int count = mIsClosed ? -1 : mSource.read(mReadBuffer, 0, mReadBuffer.length);
+                    if (count < 0) {
+                        return mLineEnd > 0;
+                    }
+                    mReadOffset = 0;
+                    mReadEnd = count;
+                }
+
+                byte b = mReadBuffer[mReadOffset++];
+                if (mLineEnd == mLine.length) {
+                    byte[] line = new byte[mLine.length * 2];
+                    System.arraycopy(mLine, 0, line, 0, mLineEnd);
+                    mLine = line;
+                }
+                mLine[mLineEnd++] = b;
+
+                if (b == '\n') {
+                    waitTillDue(LogTimestamp.parseTimestamp(mLine, 0, mLineEnd));
+                    return true;
+                }
+            }
+        }
+
+        private void waitTillDue(long timestamp) throws IOException {
+            if (timestamp == 0) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            if (mFirstTimestamp == 0) {
+                mFirstTimestamp = timestamp;
+                mStartTime = now;
+                return;
+            }
+
+            long dueTime = mStartTime + (long) ((timestamp - mFirstTimestamp) / mSpeed);
+            if (dueTime > now) {
+                try {
+                    Thread.sleep((dueTime - now) / NANOS_PER_MILLI);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Replay is interrupted");
+                }
+            }
+        }
+    }
+}
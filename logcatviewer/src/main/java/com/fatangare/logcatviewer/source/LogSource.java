@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.source;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Source of logcat output read by the reader thread e.g. live logcat process or saved recording.
+ * Each source is opened once for one ingestion session. Sources do not depend on Android framework,
+ * so that ingestion pipeline can be exercised off-device as well.
+ */
+public interface LogSource {
+    /**
+     * Open the source.
+     *
+     * @return stream of logcat output.
+     * @throws IOException if source cannot be opened.
+     */
+    InputStream open() throws IOException;
+
+    /**
+     * Close the source. It can be called from any thread and unblocks pending read of the stream.
+     */
+    void close();
+
+    /**
+     * Is output in binary format i.e. 'logcat -B' output? Otherwise it is text lines.
+     *
+     * @return true if yes else false.
+     */
+    boolean isBinary();
+
+    /**
+     * Get name of the source for logging.
+     *
+     * @return name.
+     */
+    String getName();
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.source;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Log source which runs logcat command and reads its output.
+ * Closing the source destroys the process, which unblocks pending read of its output.
+ */
+public class ProcessLogSource implements LogSource {
+    private final String[] mCommand;
+    private final boolean mIsBinary;
+
+    private Process mProcess;
+    private boolean mIsClosed;
+
+    /**
+     * Constructor
+     *
+     * @param command  logcat command e.g. {"/system/bin/logcat", "-v", "threadtime"}.
+     * @param isBinary true if command prints binary output i.e. has '-B' option.
+     */
+    public ProcessLogSource(String[] command, boolean isBinary) {
+        mCommand = command.clone();
+        mIsBinary = isBinary;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        Process process = Runtime.getRuntime().exec(mCommand);
+        synchronized (this) {
+            mProcess = process;
+            //Source is closed while process was starting.
+            if (mIsClosed) {
+                process.destroy();
+            }
+        }
+        return process.getInputStream();
+    }
+
+    @Override
+    public synchronized void close() {
+        mIsClosed = true;
+        if (mProcess != null) {
+            mProcess.destroy();
+        }
+    }
+
+    @Override
+    public boolean isBinary() {
+        return mIsBinary;
+    }
+
+    @Override
+    public String getName() {
+        return mCommand[0];
+    }
+}
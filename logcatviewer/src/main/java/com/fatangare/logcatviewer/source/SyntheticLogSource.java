@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.source;
+
+import com.fatangare.logcatviewer.parser.LogTimestamp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Log source which generates logcat text lines in 'threadtime' format at given rate.
+ * Tags and priorities are picked randomly by given weights, so that load resembling real logcat
+ * can be generated for ingestion, filtering and recording e.g. 50000 lines per second.
+ */
+public class SyntheticLogSource implements LogSource {
+    /**
+     * Default tags. By default, tag weights follow Zipf distribution i.e. few tags are very frequent.
+     */
+    private static final String[] DEFAULT_TAGS = {"ActivityManager", "dalvikvm", "WindowManager",
+            "PackageManager", "InputDispatcher", "ConnectivityService", "AudioFlinger", "SurfaceFlinger",
+            "chatty", "NetworkController", "BluetoothAdapter", "LocationManager"};
+
+    /**
+     * Default weights of priorities V, D, I, W, E, F.
+     */
+    private static final int[] DEFAULT_PRIORITY_WEIGHTS = {30, 35, 25, 6, 3, 1};
+
+    private static final char[] PRIORITY_CHARS = {'V', 'D', 'I', 'W', 'E', 'F'};
+
+    /**
+     * Maximum number of lines generated at once. It bounds the burst after generator falls behind.
+     */
+    private static final int MAX_LINES_PER_READ = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int mLinesPerSecond;
+    private final String[] mTags;
+    private final int[] mCumulativeTagWeights;
+    private final int[] mCumulativePriorityWeights;
+    private final long mSeed;
+
+    private volatile boolean mIsClosed;
+
+    /**
+     * Create source with default tags and priority mix.
+     *
+     * @param linesPerSecond rate of generated lines. 0 or less for as fast as possible.
+     */
+    public SyntheticLogSource(int linesPerSecond) {
+        this(linesPerSecond, DEFAULT_TAGS, null, DEFAULT_PRIORITY_WEIGHTS, 0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param linesPerSecond  rate of generated lines. 0 or less for as fast as possible.
+     * @param tags            tags of generated lines.
+     * @param tagWeights      relative frequency of each tag or null for Zipf distribution.
+     * @param priorityWeights relative frequency of priorities V, D, I, W, E and F.
+     * @param seed            seed of random generator, so that same load can be generated again.
+     */
+    public SyntheticLogSource(int linesPerSecond, String[] tags, int[] tagWeights, int[] priorityWeights, long seed) {
+        if (tags.length == 0 || (tagWeights != null && tagWeights.length != tags.length)
+                || priorityWeights.length != PRIORITY_CHARS.length) {
+            throw new IllegalArgumentException("Invalid tags or weights");
+        }
+
+        mLinesPerSecond = linesPerSecond;
+        mTags = tags.clone();
+
+        if (tagWeights == null) {
+            tagWeights = new int[tags.length];
+            for (int i = 0; i < tags.length; i++) {
+                tagWeights[i] = Math.max(1, 1000 / (i + 1));
+            }
+        }
+        mCumulativeTagWeights = cumulate(tagWeights);
+        mCumulativePriorityWeights = cumulate(priorityWeights);
+        mSeed = seed;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        if (mIsClosed) {
+            throw new IOException("Log source is closed");
+        }
+        return new GeneratorInputStream();
+    }
+
+    @Override
+    public void close() {
+        mIsClosed = true;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return "synthetic(" + mLinesPerSecond + " lines/s)";
+    }
+
+    private static int[] cumulate(int[] weights) {
+        int[] cumulative = new int[weights.length];
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("Negative weight: " + weights[i]);
+            }
+            total += weights[i];
+            cumulative[i] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("All weights are 0");
+        }
+        return cumulative;
+    }
+
+    private static int pick(int[] cumulativeWeights, Random random) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return i;
+            }
+        }
+        return cumulativeWeights.length - 1;
+    }
+
+    /**
+     * Stream which generates lines when they are due and keeps them till they are read.
+     */
+    private class GeneratorInputStream extends InputStream {
+        private final Random mRandom = new Random(mSeed);
+        private final StringBuilder mBuilder = new StringBuilder(256);
+        private final long mStartTime = System.nanoTime();
+
+        private long mLinesGenerated;
+        private byte[] mPending = new byte[0];
+        private int mPendingOffset;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (mIsClosed) {
+                return -1;
+            }
+            if (mPendingOffset == mPending.length) {
+                generate();
+            }
+
+            int count = Math.min(length, mPending.length - mPendingOffset);
+            System.arraycopy(mPending, mPendingOffset, buffer, offset, count);
+            mPendingOffset += count;
+            return count;
+        }
+
+        /**
+         * Generate lines which are due, waiting if none is due yet.
+         */
+        private void generate() throws IOException {
+            int count;
+            if (mLinesPerSecond <= 0) {
+                count = MAX_LINES_PER_READ;
+            } else {
+                while (true) {
+                    long elapsed = System.nanoTime() - mStartTime;
+                    long due = elapsed * mLinesPerSecond / 1000000000L;
+                    count = (int) Math.min(due - mLinesGenerated, MAX_LINES_PER_READ);
+                    if (count > 0) {
+                        break;
+                    }
+
+                    //Wait till next line is due.
+                    long nextDue = (mLinesGenerated + 1) * 1000000000L / mLinesPerSecond;
+                    try {
+                        Thread.sleep(Math.max(1, (nextDue - elapsed) / 1000000L));
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Generator is interrupted");
+                    }
+                    if (mIsClosed) {
+                        throw new InterruptedIOException("Generator is closed");
+                    }
+                }
+            }
+
+            mBuilder.setLength(0);
+            long timestamp = System.currentTimeMillis() * 1000000L;
+            for (int i = 0; i < count; i++) {
+                appendLine(timestamp);
+            }
+            mPending = mBuilder.toString().getBytes(UTF_8);
+            mPendingOffset = 0;
+        }
+
+        private void appendLine(long timestamp) {
+            int tagIndex = pick(mCumulativeTagWeights, mRandom);
+            int pid = 1000 + tagIndex * 7;
+            int tid = pid + mRandom.nextInt(8);
+
+            LogTimestamp.appendTimestamp(mBuilder, timestamp).append(' ');
+            appendRightAligned(pid, 5).append(' ');
+            appendRightAligned(tid, 5).append(' ');
+            mBuilder.append(PRIORITY_CHARS[pick(mCumulativePriorityWeights, mRandom)]).append(' ');
+            mBuilder.append(mTags[tagIndex]).append(": synthetic log entry #").append(mLinesGenerated++)
+                    .append(" value=").append(mRandom.nextInt(100000)).append('\n');
+        }
+
+        private StringBuilder appendRightAligned(int value, int width) {
+            for (int limit = 10, i = 1; i < width; i++, limit *= 10) {
+                if (value < limit) {
+                    mBuilder.append(' ');
+                }
+            }
+            return mBuilder.append(value);
+        }
+    }
+}
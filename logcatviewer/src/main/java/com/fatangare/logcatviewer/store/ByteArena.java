@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.store;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Append-only storage of byte ranges e.g. UTF-8 bytes of log lines, packed one after another in large slabs.
+ * Range is addressed by location, an int which has id of its slab in bits 18-30 and offset in slab in low 18 bits,
+ * so that it takes 4 bytes per range. Slab ids wrap around, hence at most {@link #MAX_SLABS} slabs can be in use;
+ * range which starts beyond offset of 18 bits is never needed, as slab larger than {@link #SLAB_SIZE} takes only
+ * one range. Location is never negative, so users can mark other kinds of entries by negative values.
+ * <p/>
+ * Ranges are released in the order they are appended. Once all ranges of a slab are released, slab is put in
+ * a small pool and reused for next ranges, so that steady stream of log lines does not allocate new slabs.
+ * This class is not thread-safe.
+ */
+public class ByteArena {
+    /**
+     * Size of slab. Range larger than this gets slab of its own.
+     */
+    public static final int SLAB_SIZE = 256 * 1024; //256KB
+
+    /**
+     * Maximum number of free slabs kept for reuse.
+     */
+    private static final int MAX_POOLED_SLABS = 4;
+
+    //Location
+    private static final int OFFSET_BITS = 18;
+    private static final int OFFSET_MASK = (1 << OFFSET_BITS) - 1;
+    private static final int SLAB_ID_MASK = (1 << 13) - 1;
+
+    /**
+     * Maximum number of slabs in use i.e. 2GB of normal slabs.
+     */
+    public static final int MAX_SLABS = SLAB_ID_MASK + 1;
+
+    /**
+     * Slabs from {@link #mFirstSlabId} onwards. Last slab is the one ranges are appended to.
+     * There are only a few of them, so freeing first one by shifting the list is cheap.
+     */
+    private final ArrayList<Slab> mSlabs = new ArrayList<>();
+    private long mFirstSlabId;
+
+    private final ArrayDeque<byte[]> mFreeSlabs = new ArrayDeque<>();
+
+    //Statistics
+    private long mBytes;
+    private int mSlabsAllocated;
+
+    private static class Slab {
+        final byte[] mData;
+        /**
+         * Offset from which next range is appended.
+         */
+        int mEnd;
+        /**
+         * Number of ranges in slab which are not released yet.
+         */
+        int mLiveCount;
+
+        Slab(byte[] data) {
+            mData = data;
+        }
+    }
+
+    /**
+     * Copy range to arena.
+     *
+     * @param data   bytes.
+     * @param offset offset of range.
+     * @param length length of range.
+     * @return location of copied range.
+     * @throws IllegalStateException if {@link #MAX_SLABS} slabs are in use.
+     */
+    public int append(byte[] data, int offset, int length) {
+        Slab slab = mSlabs.isEmpty() ? null : mSlabs.get(mSlabs.size() - 1);
+        //Slab larger than normal one is full after its only range, so that offsets fit in location.
+        if (slab == null || slab.mEnd >= SLAB_SIZE || slab.mData.length - slab.mEnd < length) {
+            if (mSlabs.size() == MAX_SLABS) {
+                throw new IllegalStateException("Arena has " + MAX_SLABS + " slabs in use");
+            }
+            slab = new Slab(allocateSlab(length));
+            mSlabs.add(slab);
+        }
+
+        System.arraycopy(data, offset, slab.mData, slab.mEnd, length);
+        int location = (int) ((mFirstSlabId + mSlabs.size() - 1) & SLAB_ID_MASK) << OFFSET_BITS | slab.mEnd;
+        slab.mEnd += length;
+        slab.mLiveCount++;
+        mBytes += length;
+        return location;
+    }
+
+    /**
+     * Get slab of range. Range starts at {@link #getOffset(long)} in returned bytes.
+     *
+     * @param location location returned by {@link #append(byte[], int, int)}.
+     * @return slab bytes.
+     */
+    public byte[] getData(int location) {
+        return getSlab(location).mData;
+    }
+
+    /**
+     * Get offset of range in its slab.
+     *
+     * @param location location returned by {@link #append(byte[], int, int)}.
+     * @return offset.
+     */
+    public static int getOffset(int location) {
+        return location & OFFSET_MASK;
+    }
+
+    /**
+     * Release range. Ranges should be released in the order they are appended.
+     *
+     * @param location location returned by {@link #append(byte[], int, int)}.
+     * @param length   length of range.
+     */
+    public void release(int location, int length) {
+        getSlab(location).mLiveCount--;
+        mBytes -= length;
+
+        //Free slabs whose all ranges are released, except slab which is being appended to.
+        while (mSlabs.size() > 1 && mSlabs.get(0).mLiveCount == 0) {
+            byte[] data = mSlabs.remove(0).mData;
+            mFirstSlabId++;
+            if (data.length == SLAB_SIZE && mFreeSlabs.size() < MAX_POOLED_SLABS) {
+                mFreeSlabs.addLast(data);
+            }
+        }
+    }
+
+    /**
+     * Release pooled slabs e.g. when system is low on memory.
+     */
+    public void trim() {
+        mFreeSlabs.clear();
+    }
+
+    /**
+     * Get number of bytes of ranges which are not released.
+     *
+     * @return number of bytes.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Get memory held by arena including free space of its slabs and pooled slabs.
+     *
+     * @return number of bytes.
+     */
+    public long getCapacity() {
+        long capacity = 0;
+        for (Slab slab : mSlabs) {
+            capacity += slab.mData.length;
+        }
+        return capacity + (long) mFreeSlabs.size() * SLAB_SIZE;
+    }
+
+    /**
+     * Get number of slabs allocated so far. Slabs reused from pool are not counted.
+     *
+     * @return number of slabs.
+     */
+    public int getSlabsAllocated() {
+        return mSlabsAllocated;
+    }
+
+    private Slab getSlab(int location) {
+        return mSlabs.get((int) (((location >>> OFFSET_BITS) - mFirstSlabId) & SLAB_ID_MASK));
+    }
+
+    private byte[] allocateSlab(int length) {
+        if (length <= SLAB_SIZE && !mFreeSlabs.isEmpty()) {
+            return mFreeSlabs.removeFirst();
+        }
+        mSlabsAllocated++;
+        return new byte[Math.max(length, SLAB_SIZE)];
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.store;
+
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.parser.SymbolTable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot of log entries in memory of {@link LogStore} in compact binary form, so that view can show log entries
+ * of previous session at once when it is opened again.
+ * <p/>
+ * Snapshot is written by {@link LogSnapshotWriter} as segments, each of log entries added to store since previous
+ * segment, and it is read back on background thread. Each segment has tags and package names of its log entries,
+ * which are interned again when it is read, so it can be read by other process than the one which captured it.
+ * <p/>
+ * Snapshot is header, which has offset of first segment whose log entries are still in store, and then segments
+ * oldest first. Segment is its size, number of log entries, tags, package names and then log entries oldest first.
+ * Log entry is its fields and line bytes; log entries which are not kept as bytes are kept as their text.
+ */
+public class LogSnapshot {
+    static final int MAGIC = 0x4c435653; //"LCVS"
+    static final int VERSION = 2;
+
+    /**
+     * Size of header: magic, version and offset of first segment.
+     */
+    static final int HEADER_SIZE = 16;
+
+    /**
+     * Offset of offset of first segment in header.
+     */
+    static final int FIRST_SEGMENT_OFFSET = 8;
+
+    /**
+     * Size of beginning of segment: its size after this field and number of log entries.
+     */
+    static final int SEGMENT_HEADER_SIZE = 8;
+
+    /**
+     * Size of bytes shared by line bytes of read log entries.
+     */
+    private static final int CHUNK_DATA_SIZE = 256 * 1024; //256KB
+
+    static final byte FLAG_PARSED = 1;
+    static final byte FLAG_GAP_MARKER = 2;
+    static final byte FLAG_REPEATED = 4;
+
+    /**
+     * Maximum size of fields of log entry before its line bytes.
+     */
+    static final int MAX_ENTRY_HEADER_SIZE = 53;
+
+    private final DataInputStream mInputStream;
+    private final long mFileLength;
+
+    /**
+     * Offset in file at which next segment starts.
+     */
+    private long mNextSegmentOffset;
+
+    /**
+     * Number of log entries of current segment which are not read yet.
+     */
+    private int mSegmentEntryCount;
+    private int[] mTagIds;
+    private int[] mPackageIds;
+
+    /**
+     * Bytes which line bytes of read log entries share and offset from which next line bytes are read.
+     */
+    private byte[] mChunkData;
+    private int mChunkEnd;
+
+    /**
+     * Open snapshot file to read log entries. It reads header and skips segments whose log entries were evicted
+     * from store.
+     *
+     * @param file snapshot file written by {@link LogSnapshotWriter}.
+     * @throws IOException if file cannot be read or it is not a snapshot.
+     */
+    public LogSnapshot(File file) throws IOException {
+        mFileLength = file.length();
+        mInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (mInputStream.readInt() != MAGIC || mInputStream.readInt() != VERSION) {
+                throw new IOException(file + " is not a log snapshot");
+            }
+            mNextSegmentOffset = mInputStream.readLong();
+            if (mNextSegmentOffset < HEADER_SIZE) {
+                throw new IOException(file + " is not a log snapshot");
+            }
+            skipFully(mNextSegmentOffset - HEADER_SIZE);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read next log entries, oldest first. Line bytes of read log entries are not copied again when they are
+     * appended to store. Segment which is not written completely e.g. as process was killed meanwhile is not read.
+     *
+     * @param maxEntries maximum number of log entries to read.
+     * @return log entries; empty if all log entries are read.
+     * @throws IOException if file cannot be read.
+     */
+    public List<LogEntry> read(int maxEntries) throws IOException {
+        ArrayList<LogEntry> logEntries = new ArrayList<>();
+        while (logEntries.size() < maxEntries) {
+            if (mSegmentEntryCount == 0 && !readSegmentHeader()) {
+                break;
+            }
+            logEntries.add(readLogEntry());
+            mSegmentEntryCount--;
+        }
+        return logEntries;
+    }
+
+    public void close() {
+        try {
+            mInputStream.close();
+        } catch (IOException e) {
+            //Nothing to release.
+        }
+    }
+
+    /**
+     * Read size, number of log entries, tags and package names of next segment.
+     *
+     * @return false if there is no complete segment left.
+     */
+    private boolean readSegmentHeader() throws IOException {
+        while (mNextSegmentOffset + SEGMENT_HEADER_SIZE <= mFileLength) {
+            long segmentEnd = mNextSegmentOffset + 4 + (mInputStream.readInt() & 0xffffffffL);
+            if (segmentEnd > mFileLength) {
+                return false;
+            }
+            mNextSegmentOffset = segmentEnd;
+            mSegmentEntryCount = mInputStream.readInt();
+            mTagIds = readSymbols(mInputStream, SymbolTable.TAGS);
+            mPackageIds = readSymbols(mInputStream, SymbolTable.PACKAGES);
+            if (mSegmentEntryCount > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void skipFully(long count) throws IOException {
+        while (count > 0) {
+            long skipped = mInputStream.skip(count);
+            if (skipped <= 0) {
+                throw new EOFException("Log snapshot is truncated");
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Read symbols and intern them.
+     *
+     * @return ids of symbols by their index in segment.
+     */
+    private static int[] readSymbols(DataInputStream inputStream, SymbolTable symbolTable) throws IOException {
+        int[] ids = new int[inputStream.readInt()];
+        byte[] bytes = new byte[0xffff];
+        for (int i = 0; i < ids.length; i++) {
+            int length = inputStream.readUnsignedShort();
+            inputStream.readFully(bytes, 0, length);
+            ids[i] = symbolTable.intern(bytes, 0, length);
+        }
+        return ids;
+    }
+
+    private LogEntry readLogEntry() throws IOException {
+        DataInputStream inputStream = mInputStream;
+        byte flags = inputStream.readByte();
+        int logId = inputStream.readByte();
+        if ((flags & FLAG_GAP_MARKER) != 0) {
+            LogEntry gapMarker = LogEntry.createGapMarker(inputStream.readInt());
+            gapMarker.setLogId(logId);
+            return gapMarker;
+        }
+
+        int priority = inputStream.readByte();
+        long timestamp = inputStream.readLong();
+        int pid = inputStream.readInt();
+        int tid = inputStream.readInt();
+        int tagIndex = inputStream.readInt();
+        int packageIndex = inputStream.readInt();
+        int tagOffset = -1;
+        int tagLength = 0;
+        int messageOffset = 0;
+        if ((flags & FLAG_PARSED) != 0) {
+            tagOffset = inputStream.readChar();
+            tagLength = inputStream.readChar();
+            messageOffset = inputStream.readChar();
+        }
+        int repeatCount = 0;
+        long lastRepeatTimestamp = 0;
+        if ((flags & FLAG_REPEATED) != 0) {
+            repeatCount = inputStream.readInt();
+            lastRepeatTimestamp = inputStream.readLong();
+        }
+
+        int length = inputStream.readInt();
+        if (mChunkData == null || mChunkData.length - mChunkEnd < length) {
+            mChunkData = new byte[Math.max(length, CHUNK_DATA_SIZE)];
+            mChunkEnd = 0;
+        }
+        int offset = mChunkEnd;
+        inputStream.readFully(mChunkData, offset, length);
+        mChunkEnd += length;
+
+        LogEntry logEntry = new LogEntry(mChunkData, offset, length);
+        logEntry.setStoredFields(timestamp, pid, tid, priority,
+                tagIndex < 0 ? SymbolTable.NO_SYMBOL : mTagIds[tagIndex],
+                tagOffset < 0 ? -1 : offset + tagOffset, tagLength, offset + messageOffset);
+        logEntry.setPackageId(packageIndex < 0 ? SymbolTable.NO_SYMBOL : mPackageIds[packageIndex]);
+        logEntry.setLogId(logId);
+        logEntry.setRepeats(repeatCount, lastRepeatTimestamp);
+        return logEntry;
+    }
+}
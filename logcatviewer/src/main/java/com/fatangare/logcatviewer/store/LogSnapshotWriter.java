@@ -0,0 +1,492 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.fatangare.logcatviewer.store;
+
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.parser.SymbolTable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Writer of {@link LogSnapshot} file. Snapshot is appended to file as segments, each of log entries added to store
+ * since previous segment, so that cost of saving snapshot is proportional to number of new log entries instead of
+ * all log entries in store.
+ * <p/>
+ * Segment is captured on main thread, since store is not thread-safe, from columns of store into chunks of fixed
+ * size, so that no log entry object is created for log entry kept as bytes and no buffer of size of store is
+ * allocated. Chunks are written to file on background thread and then reused by next segment.
+ * <p/>
+ * Segments whose log entries are all evicted from store are skipped by header of file and file is rewritten
+ * without them once they take more space than segments whose log entries are in store.
+ */
+public class LogSnapshotWriter {
+    /**
+     * Size of chunk which segment is captured into.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024; //64KB
+
+    /**
+     * Maximum number of free chunks kept for next segments.
+     */
+    private static final int MAX_FREE_CHUNKS = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+
+    /**
+     * Chunks which are written to file and can be reused. It is shared by main thread and writing thread.
+     */
+    private final ArrayDeque<ByteBuffer> mFreeChunks = new ArrayDeque<>();
+
+    //Used on main thread only.
+    /**
+     * Index in segment of tag and package name by their id, -1 if they are not in segment. They are kept,
+     * so that capturing does not allocate.
+     */
+    private int[] mTagIndexes = new int[0];
+    private int[] mPackageIndexes = new int[0];
+
+    //Used on writing thread only.
+    private RandomAccessFile mRandomAccessFile;
+
+    /**
+     * Offset and number of log entries of each segment in file after first one whose log entries are in store.
+     */
+    private final ArrayList<long[]> mSegments = new ArrayList<>();
+    private long mEntryCount;
+
+    /**
+     * Constructor
+     *
+     * @param file snapshot file. Log entries of snapshot which is in file already are kept.
+     */
+    public LogSnapshotWriter(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Capture log entries in memory of store from given sequence number onwards. It is called on main thread.
+     * Spilled log entries are not captured.
+     *
+     * @param store        store.
+     * @param fromSequence sequence number of first log entry which is not in snapshot yet.
+     * @return segment to be written by {@link #write(Segment)} or null if there is no log entry to capture.
+     */
+    public Segment capture(LogStore store, long fromSequence) {
+        long firstSequence = Math.max(fromSequence, store.getFirstInMemorySequence());
+        long nextSequence = store.getNextSequence();
+        if (firstSequence >= nextSequence) {
+            return null;
+        }
+
+        //Find tags and package names of log entries, numbered in segment.
+        if (mTagIndexes.length < SymbolTable.TAGS.size()) {
+            mTagIndexes = new int[SymbolTable.TAGS.size()];
+            Arrays.fill(mTagIndexes, -1);
+        }
+        if (mPackageIndexes.length < SymbolTable.PACKAGES.size()) {
+            mPackageIndexes = new int[SymbolTable.PACKAGES.size()];
+            Arrays.fill(mPackageIndexes, -1);
+        }
+        int[] tagIds = new int[16];
+        int[] packageIds = new int[16];
+        int tagCount = 0;
+        int packageCount = 0;
+        for (long sequence = firstSequence; sequence < nextSequence; sequence++) {
+            int tagId = store.getTagId(sequence);
+            if (tagId != SymbolTable.NO_SYMBOL && mTagIndexes[tagId] < 0) {
+                if (tagCount == tagIds.length) {
+                    tagIds = Arrays.copyOf(tagIds, tagCount * 2);
+                }
+                mTagIndexes[tagId] = tagCount;
+                tagIds[tagCount++] = tagId;
+            }
+            int packageId = store.getPackageId(sequence);
+            if (packageId != SymbolTable.NO_SYMBOL && mPackageIndexes[packageId] < 0) {
+                if (packageCount == packageIds.length) {
+                    packageIds = Arrays.copyOf(packageIds, packageCount * 2);
+                }
+                mPackageIndexes[packageId] = packageCount;
+                packageIds[packageCount++] = packageId;
+            }
+        }
+
+        Segment segment = new Segment((int) (nextSequence - firstSequence),
+                nextSequence - store.getFirstInMemorySequence());
+        segment.putSymbols(SymbolTable.TAGS, tagIds, tagCount);
+        segment.putSymbols(SymbolTable.PACKAGES, packageIds, packageCount);
+        for (long sequence = firstSequence; sequence < nextSequence; sequence++) {
+            int tagId = store.getTagId(sequence);
+            int packageId = store.getPackageId(sequence);
+            store.putSnapshotEntry(sequence, segment,
+                    tagId == SymbolTable.NO_SYMBOL ? -1 : mTagIndexes[tagId],
+                    packageId == SymbolTable.NO_SYMBOL ? -1 : mPackageIndexes[packageId]);
+        }
+
+        //Indexes are reset for next segment.
+        for (int i = 0; i < tagCount; i++) {
+            mTagIndexes[tagIds[i]] = -1;
+        }
+        for (int i = 0; i < packageCount; i++) {
+            mPackageIndexes[packageIds[i]] = -1;
+        }
+        return segment;
+    }
+
+    /**
+     * Append segment to snapshot file. It is called on background thread, one segment at a time.
+     *
+     * @param segment segment captured by {@link #capture(LogStore, long)}. Its chunks are reused once it is written.
+     * @throws IOException if file cannot be written.
+     */
+    public void write(Segment segment) throws IOException {
+        try {
+            if (mRandomAccessFile == null) {
+                open();
+            }
+
+            FileChannel channel = mRandomAccessFile.getChannel();
+            long offset = channel.size();
+            segment.mChunks.get(0).putInt(0, (int) (segment.getSize() - 4));
+            channel.position(offset);
+            for (ByteBuffer chunk : segment.mChunks) {
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+            mSegments.add(new long[]{offset, segment.mEntryCount});
+            mEntryCount += segment.mEntryCount;
+
+            //Segments whose log entries are all evicted from store are skipped.
+            boolean isSkipped = false;
+            while (mSegments.size() > 1 && mEntryCount - mSegments.get(0)[1] >= segment.mStoreCount) {
+                mEntryCount -= mSegments.remove(0)[1];
+                isSkipped = true;
+            }
+            if (isSkipped) {
+                mRandomAccessFile.seek(LogSnapshot.FIRST_SEGMENT_OFFSET);
+                mRandomAccessFile.writeLong(mSegments.get(0)[0]);
+            }
+            channel.force(false);
+
+            long skippedSize = mSegments.get(0)[0] - LogSnapshot.HEADER_SIZE;
+            if (skippedSize > channel.size() - mSegments.get(0)[0]) {
+                compact();
+            }
+        } catch (IOException e) {
+            //Snapshot is started again with next segment.
+            close();
+            mFile.delete();
+            throw e;
+        } finally {
+            recycle(segment);
+        }
+    }
+
+    /**
+     * Release chunks kept for next segments e.g. when memory is low.
+     */
+    public void trimMemory() {
+        synchronized (mFreeChunks) {
+            mFreeChunks.clear();
+        }
+    }
+
+    /**
+     * Close snapshot file. It is called on writing thread.
+     */
+    public void close() {
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                //Nothing to release.
+            }
+            mRandomAccessFile = null;
+        }
+        mSegments.clear();
+        mEntryCount = 0;
+    }
+
+    /**
+     * Open snapshot file and find its segments. File which is not a snapshot is started again and segment which
+     * is not written completely is removed.
+     */
+    private void open() throws IOException {
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        RandomAccessFile file = mRandomAccessFile;
+        long length = file.length();
+        long offset = 0;
+        if (length >= LogSnapshot.HEADER_SIZE && file.readInt() == LogSnapshot.MAGIC
+                && file.readInt() == LogSnapshot.VERSION) {
+            offset = file.readLong();
+        }
+        if (offset < LogSnapshot.HEADER_SIZE || offset > length) {
+            writeHeader(file);
+            return;
+        }
+
+        while (offset + LogSnapshot.SEGMENT_HEADER_SIZE <= length) {
+            file.seek(offset);
+            long segmentEnd = offset + 4 + (file.readInt() & 0xffffffffL);
+            if (segmentEnd > length) {
+                break;
+            }
+            int entryCount = file.readInt();
+            mSegments.add(new long[]{offset, entryCount});
+            mEntryCount += entryCount;
+            offset = segmentEnd;
+        }
+        file.setLength(offset);
+    }
+
+    private static void writeHeader(RandomAccessFile file) throws IOException {
+        file.setLength(0);
+        file.seek(0);
+        file.writeInt(LogSnapshot.MAGIC);
+        file.writeInt(LogSnapshot.VERSION);
+        file.writeLong(LogSnapshot.HEADER_SIZE);
+    }
+
+    /**
+     * Rewrite snapshot file without skipped segments. It is written to temporary file first, so that existing file
+     * is replaced only by complete snapshot.
+     */
+    private void compact() throws IOException {
+        long firstOffset = mSegments.get(0)[0];
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(LogSnapshot.HEADER_SIZE);
+            header.putInt(LogSnapshot.MAGIC);
+            header.putInt(LogSnapshot.VERSION);
+            header.putLong(LogSnapshot.HEADER_SIZE);
+            header.flip();
+            FileChannel outputChannel = outputStream.getChannel();
+            while (header.hasRemaining()) {
+                outputChannel.write(header);
+            }
+
+            FileChannel channel = mRandomAccessFile.getChannel();
+            long position = firstOffset;
+            long end = channel.size();
+            while (position < end) {
+                position += channel.transferTo(position, end - position, outputChannel);
+            }
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+
+        mRandomAccessFile.close();
+        mRandomAccessFile = null;
+        if (!tempFile.renameTo(mFile)) {
+            tempFile.delete();
+            throw new IOException("Renaming " + tempFile + " to " + mFile + " failed");
+        }
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        for (long[] segment : mSegments) {
+            segment[0] -= firstOffset - LogSnapshot.HEADER_SIZE;
+        }
+    }
+
+    private ByteBuffer obtainChunk() {
+        synchronized (mFreeChunks) {
+            ByteBuffer chunk = mFreeChunks.poll();
+            if (chunk != null) {
+                chunk.clear();
+                return chunk;
+            }
+        }
+        return ByteBuffer.allocate(CHUNK_SIZE);
+    }
+
+    private void recycle(Segment segment) {
+        synchronized (mFreeChunks) {
+            for (ByteBuffer chunk : segment.mChunks) {
+                if (mFreeChunks.size() < MAX_FREE_CHUNKS) {
+                    mFreeChunks.add(chunk);
+                }
+            }
+        }
+        segment.mChunks.clear();
+    }
+
+    /**
+     * Log entries captured from store into chunks. Fields are put to chunks directly, as it is several times faster
+     * than DataOutputStream.
+     */
+    public class Segment {
+        private final ArrayList<ByteBuffer> mChunks = new ArrayList<>();
+        private ByteBuffer mChunk;
+        private final int mEntryCount;
+
+        /**
+         * Number of log entries in memory of store when segment was captured, including those of segment.
+         */
+        private final long mStoreCount;
+
+        private Segment(int entryCount, long storeCount) {
+            mEntryCount = entryCount;
+            mStoreCount = storeCount;
+            mChunk = obtainChunk();
+            mChunks.add(mChunk);
+            //Size is set when segment is written.
+            mChunk.putInt(0);
+            mChunk.putInt(entryCount);
+        }
+
+        /**
+         * Get number of log entries in segment.
+         *
+         * @return number of log entries.
+         */
+        public int getEntryCount() {
+            return mEntryCount;
+        }
+
+        /**
+         * Get size of segment in bytes.
+         *
+         * @return size in bytes.
+         */
+        public long getSize() {
+            long size = 0;
+            for (ByteBuffer chunk : mChunks) {
+                size += chunk.position();
+            }
+            return size;
+        }
+
+        /**
+         * Put log entry which is kept as object in store e.g. decoded binary log entry or gap marker.
+         */
+        void putLogEntry(LogEntry logEntry, int tagIndex, int packageIndex) {
+            if (logEntry.isGapMarker()) {
+                ensureRemaining(6);
+                mChunk.put(LogSnapshot.FLAG_GAP_MARKER);
+                mChunk.put((byte) logEntry.getLogId());
+                mChunk.putInt(logEntry.getDroppedCount());
+                return;
+            }
+
+            byte[] data = logEntry.getData();
+            int offset = logEntry.getOffset();
+            int length = logEntry.getLength();
+            boolean isParsed = data != null && logEntry.getTagOffset() >= 0;
+            if (data == null) {
+                data = logEntry.getText().getBytes(UTF_8);
+                offset = 0;
+                length = data.length;
+            }
+            putEntry(logEntry.getLogId(), logEntry.getPriority(), logEntry.getTimestamp(), logEntry.getPid(),
+                    logEntry.getTid(), tagIndex, packageIndex,
+                    isParsed ? logEntry.getTagOffset() - offset : -1, logEntry.getTagLength(),
+                    logEntry.getMessageOffset() - offset, logEntry.getRepeatCount(),
+                    logEntry.getLastRepeatTimestamp(), data, offset, length);
+        }
+
+        /**
+         * Put fields and line bytes of log entry.
+         *
+         * @param tagOffset offset of tag from start of line or -1 if line is not parsed.
+         */
+        void putEntry(int logId, int priority, long timestamp, int pid, int tid, int tagIndex, int packageIndex,
+                      int tagOffset, int tagLength, int messageOffset, int repeatCount, long lastRepeatTimestamp,
+                      byte[] data, int offset, int length) {
+            boolean isParsed = tagOffset >= 0;
+            boolean isRepeated = repeatCount > 0;
+
+            ensureRemaining(LogSnapshot.MAX_ENTRY_HEADER_SIZE);
+            ByteBuffer chunk = mChunk;
+            chunk.put((byte) ((isParsed ? LogSnapshot.FLAG_PARSED : 0)
+                    | (isRepeated ? LogSnapshot.FLAG_REPEATED : 0)));
+            chunk.put((byte) logId);
+            chunk.put((byte) priority);
+            chunk.putLong(timestamp);
+            chunk.putInt(pid);
+            chunk.putInt(tid);
+            chunk.putInt(tagIndex);
+            chunk.putInt(packageIndex);
+            if (isParsed) {
+                chunk.putChar((char) tagOffset);
+                chunk.putChar((char) tagLength);
+                chunk.putChar((char) messageOffset);
+            }
+            if (isRepeated) {
+                chunk.putInt(repeatCount);
+                chunk.putLong(lastRepeatTimestamp);
+            }
+            chunk.putInt(length);
+            putBytes(data, offset, length);
+        }
+
+        private void putSymbols(SymbolTable symbolTable, int[] ids, int count) {
+            ensureRemaining(4);
+            mChunk.putInt(count);
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = symbolTable.getSymbol(ids[i]).getBytes(UTF_8);
+                ensureRemaining(2);
+                mChunk.putShort((short) bytes.length);
+                putBytes(bytes, 0, bytes.length);
+            }
+        }
+
+        /**
+         * Put bytes, continuing in next chunks if they do not fit in current chunk.
+         */
+        private void putBytes(byte[] data, int offset, int length) {
+            while (length > 0) {
+                if (!mChunk.hasRemaining()) {
+                    nextChunk();
+                }
+                int count = Math.min(length, mChunk.remaining());
+                mChunk.put(data, offset, count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        /**
+         * Continue in next chunk if current chunk does not have given bytes remaining. Rest of current chunk is
+         * not written.
+         */
+        private void ensureRemaining(int length) {
+            if (mChunk.remaining() < length) {
+                nextChunk();
+            }
+        }
+
+        private void nextChunk() {
+            mChunk = obtainChunk();
+            mChunks.add(mChunk);
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.store;
+
+import com.fatangare.logcatviewer.parser.LogEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Scrollback of log entries evicted from {@link LogStore}, kept in append-only segment files e.g. in cache directory.
+ * Each segment file is memory-mapped once it is created, so reading a spilled log entry is a read of mapped memory:
+ * its fields are read in place without allocating and only its line bytes are copied when log entry is created.
+ * Heap keeps only a few fields per segment and offsets of records of the segment being written, hence it stays
+ * fixed while scrollback grows on disk. Once scrollback reaches its maximum size, oldest segment is reused for
+ * newest log entries, and segments of cleared scrollback are reused too, so at most maximum size / segment size
+ * segments are ever created and mapped. A mapping is released only when its buffer is garbage collected, hence
+ * segments are never unmapped one by one; all of them are released together once spill is closed and dropped.
+ * <p/>
+ * Segment file has records, one per log entry in sequence order, followed by offsets of records once it is full.
+ * Record is a fixed header of log entry fields followed by its line bytes. Files are valid only in this process,
+ * since tag and package ids refer to {@link com.fatangare.logcatviewer.parser.SymbolTable}.
+ * This class is not thread-safe.
+ */
+public class LogSpill {
+    /**
+     * Default maximum size of scrollback on disk in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024; //64MB
+
+    /**
+     * Size of segment file.
+     */
+    static final int SEGMENT_SIZE = 4 * 1024 * 1024; //4MB
+
+    /**
+     * Line bytes longer than this are truncated, so that any record fits in a segment.
+     */
+    private static final int MAX_DATA_LENGTH = 64 * 1024;
+
+    private static final String SEGMENT_FILE_PREFIX = "segment-";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //Record header: offsets of fields.
+    private static final int LENGTH = 0; //int
+    private static final int FLAGS = 4; //byte
+    private static final int PRIORITY = 5; //byte
+    private static final int LOG_ID = 6; //byte
+    private static final int TIMESTAMP = 7; //long
+    private static final int PID = 15; //int; number of dropped log entries for gap marker.
+    private static final int TID = 19; //int
+    private static final int TAG_ID = 23; //int
+    private static final int PACKAGE_ID = 27; //int
+    private static final int TAG_OFFSET = 31; //char; relative to line bytes.
+    private static final int TAG_LENGTH = 33; //char
+    private static final int MESSAGE_OFFSET = 35; //char; relative to line bytes.
+    private static final int REPEAT_COUNT = 37; //int
+    private static final int LAST_REPEAT_TIMESTAMP = 41; //long
+    private static final int HEADER_SIZE = 49;
+
+    private static final byte FLAG_PARSED = 1;
+    private static final byte FLAG_GAP_MARKER = 2;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /**
+     * Segments, oldest first. Last one is the segment being written.
+     */
+    private final ArrayList<Segment> mSegments = new ArrayList<>();
+    /**
+     * Segments of cleared scrollback, kept for reuse with their files and mappings.
+     */
+    private final ArrayList<Segment> mFreeSegments = new ArrayList<>();
+    private long mFirstSequence;
+    private long mNextSequence;
+    private int mNextSegmentId;
+
+    /**
+     * Offsets of records of segment being written. They are written to segment once it is full.
+     */
+    private int[] mOffsets = new int[1024];
+
+    private static class Segment {
+        final File mFile;
+        final MappedByteBuffer mBuffer;
+        long mFirstSequence;
+        int mCount;
+        /**
+         * Offset from which next record is written.
+         */
+        int mEnd;
+        /**
+         * Offset of offsets of records or -1 if segment is being written.
+         */
+        int mOffsetsOffset = -1;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            mFile = file;
+            mBuffer = buffer;
+        }
+
+        /**
+         * Start writing segment from its beginning. Records of previous use are overwritten.
+         */
+        void reset(long firstSequence) {
+            mFirstSequence = firstSequence;
+            mCount = 0;
+            mEnd = 0;
+            mOffsetsOffset = -1;
+        }
+    }
+
+    /**
+     * Constructor. Segment files left in directory e.g. by previous process are deleted.
+     *
+     * @param directory directory of segment files. It is created if it does not exist.
+     * @param maxBytes  maximum size of segment files in bytes.
+     * @throws IOException if directory cannot be created.
+     */
+    public LogSpill(File directory, long maxBytes) throws IOException {
+        mDirectory = directory;
+        mMaxBytes = Math.max(maxBytes, 2L * SEGMENT_SIZE);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Creating " + directory + " failed");
+        }
+        deleteSegmentFiles();
+    }
+
+    /**
+     * Append log entry evicted from store. Log entries should be appended in sequence order without gaps.
+     *
+     * @param sequence sequence number of log entry.
+     * @param logEntry log entry.
+     * @throws IOException if segment file cannot be created.
+     */
+    public void append(long sequence, LogEntry logEntry) throws IOException {
+        if (logEntry.isGapMarker()) {
+            Segment segment = getSegmentForRecord(sequence, 0);
+            int position = segment.mEnd;
+            putHeader(segment.mBuffer, position, FLAG_GAP_MARKER, logEntry.getLogId(), logEntry.getPriority(),
+                    logEntry.getTimestamp(), logEntry.getDroppedCount(), logEntry.getTid(), logEntry.getTagId(),
+                    logEntry.getPackageId(), 0, 0, 0, 0, 0, 0);
+            finishRecord(segment, position, 0);
+            return;
+        }
+
+        byte[] data = logEntry.getData();
+        int offset = logEntry.getOffset();
+        int length = logEntry.getLength();
+        boolean isParsed = data != null && logEntry.getTagOffset() >= 0;
+        if (data == null) {
+            //Decoded log entry is kept as its text.
+            data = logEntry.getText().getBytes(UTF_8);
+            offset = 0;
+            length = data.length;
+        }
+        appendEntry(sequence, logEntry.getLogId(), logEntry.getPriority(), logEntry.getTimestamp(),
+                logEntry.getPid(), logEntry.getTid(), logEntry.getTagId(), logEntry.getPackageId(),
+                isParsed ? logEntry.getTagOffset() - offset : -1, logEntry.getTagLength(),
+                logEntry.getMessageOffset() - offset, logEntry.getRepeatCount(), logEntry.getLastRepeatTimestamp(),
+                data, offset, length);
+    }
+
+    /**
+     * Append fields and line bytes of log entry evicted from store, e.g. straight from its columns and arena,
+     * so that no log entry object is created for it. Log entries should be appended in sequence order without gaps.
+     *
+     * @param sequence  sequence number of log entry.
+     * @param tagOffset offset of tag from start of line or -1 if line is not parsed.
+     * @throws IOException if segment file cannot be created.
+     */
+    public void appendEntry(long sequence, int logId, int priority, long timestamp, int pid, int tid, int tagId,
+                            int packageId, int tagOffset, int tagLength, int messageOffset, int repeatCount,
+                            long lastRepeatTimestamp, byte[] data, int offset, int length) throws IOException {
+        //Tag and message of truncated line are not kept.
+        boolean isParsed = tagOffset >= 0 && length <= MAX_DATA_LENGTH;
+        length = Math.min(length, MAX_DATA_LENGTH);
+
+        Segment segment = getSegmentForRecord(sequence, length);
+        int position = segment.mEnd;
+        MappedByteBuffer buffer = segment.mBuffer;
+        putHeader(buffer, position, isParsed ? FLAG_PARSED : 0, logId, priority, timestamp, pid, tid, tagId,
+                packageId, isParsed ? tagOffset : 0, isParsed ? tagLength : 0, isParsed ? messageOffset : 0,
+                length, repeatCount, lastRepeatTimestamp);
+        buffer.position(position + HEADER_SIZE);
+        buffer.put(data, offset, length);
+        finishRecord(segment, position, length);
+    }
+
+    /**
+     * Get log entry by its sequence number. Its line bytes are copied from segment.
+     *
+     * @param sequence sequence number of spilled log entry.
+     * @return log entry.
+     */
+    public LogEntry get(long sequence) {
+        Segment segment = getSegment(sequence);
+        MappedByteBuffer buffer = segment.mBuffer;
+        int position = getPosition(segment, sequence);
+        byte flags = buffer.get(position + FLAGS);
+
+        LogEntry logEntry;
+        if ((flags & FLAG_GAP_MARKER) != 0) {
+            logEntry = LogEntry.createGapMarker(buffer.getInt(position + PID));
+        } else {
+            //Bytes are copied at once through duplicate, so that position of shared buffer is not changed.
+            byte[] data = new byte[buffer.getInt(position + LENGTH)];
+            ByteBuffer source = buffer.duplicate();
+            source.position(position + HEADER_SIZE);
+            source.get(data, 0, data.length);
+            logEntry = new LogEntry(data, 0, data.length);
+            if ((flags & FLAG_PARSED) != 0) {
+                logEntry.setStoredFields(buffer.getLong(position + TIMESTAMP), buffer.getInt(position + PID),
+                        buffer.getInt(position + TID), buffer.get(position + PRIORITY),
+                        buffer.getInt(position + TAG_ID), buffer.getChar(position + TAG_OFFSET),
+                        buffer.getChar(position + TAG_LENGTH), buffer.getChar(position + MESSAGE_OFFSET));
+            } else {
+                logEntry.setStoredFields(buffer.getLong(position + TIMESTAMP), buffer.getInt(position + PID),
+                        buffer.getInt(position + TID), buffer.get(position + PRIORITY),
+                        buffer.getInt(position + TAG_ID), -1, 0, 0);
+            }
+            logEntry.setPackageId(buffer.getInt(position + PACKAGE_ID));
+            logEntry.setRepeats(buffer.getInt(position + REPEAT_COUNT),
+                    buffer.getLong(position + LAST_REPEAT_TIMESTAMP));
+        }
+        logEntry.setLogId(buffer.get(position + LOG_ID));
+        logEntry.setSequence(sequence);
+        return logEntry;
+    }
+
+    /**
+     * Get text of spilled log entry.
+     *
+     * @param sequence sequence number of spilled log entry.
+     * @return text.
+     */
+    public String getText(long sequence) {
+        return get(sequence).getText();
+    }
+
+    public long getTimestamp(long sequence) {
+        return getLong(sequence, TIMESTAMP);
+    }
+
+    public int getPid(long sequence) {
+        return isGapMarker(sequence) ? 0 : getInt(sequence, PID);
+    }
+
+    public int getTid(long sequence) {
+        return getInt(sequence, TID);
+    }
+
+    public int getPriority(long sequence) {
+        return getByte(sequence, PRIORITY);
+    }
+
+    public int getTagId(long sequence) {
+        return getInt(sequence, TAG_ID);
+    }
+
+    public int getPackageId(long sequence) {
+        return getInt(sequence, PACKAGE_ID);
+    }
+
+    public int getLogId(long sequence) {
+        return getByte(sequence, LOG_ID);
+    }
+
+    public boolean isGapMarker(long sequence) {
+        return (getByte(sequence, FLAGS) & FLAG_GAP_MARKER) != 0;
+    }
+
+    /**
+     * Check if log entry of given sequence number is spilled and not deleted yet.
+     *
+     * @param sequence sequence number.
+     * @return true if yes else false.
+     */
+    public boolean contains(long sequence) {
+        return sequence >= mFirstSequence && sequence < mNextSequence;
+    }
+
+    public boolean isEmpty() {
+        return mFirstSequence == mNextSequence;
+    }
+
+    /**
+     * Get sequence number of oldest spilled log entry.
+     *
+     * @return sequence number.
+     */
+    public long getFirstSequence() {
+        return mFirstSequence;
+    }
+
+    /**
+     * Get number of spilled log entries which are not deleted yet.
+     *
+     * @return number of log entries.
+     */
+    public long size() {
+        return mNextSequence - mFirstSequence;
+    }
+
+    /**
+     * Get size of segments which have spilled log entries.
+     *
+     * @return size in bytes.
+     */
+    public long getBytes() {
+        return (long) mSegments.size() * SEGMENT_SIZE;
+    }
+
+    /**
+     * Drop all spilled log entries. Their segments are kept and reused; next appended log entry starts new
+     * scrollback.
+     */
+    public void clear() {
+        mFreeSegments.addAll(mSegments);
+        mSegments.clear();
+        mFirstSequence = mNextSequence;
+    }
+
+    /**
+     * Drop all spilled log entries and delete segment files. Spill should not be used afterwards; mappings of
+     * segments are released once it is garbage collected.
+     */
+    public void close() {
+        clear();
+        for (Segment segment : mFreeSegments) {
+            deleteSegment(segment);
+        }
+        mFreeSegments.clear();
+    }
+
+    /**
+     * Get number of segment files created so far. It never exceeds maximum size / segment size.
+     *
+     * @return number of segment files.
+     */
+    public int getSegmentsCreated() {
+        return mNextSegmentId;
+    }
+
+    private long getLong(long sequence, int field) {
+        Segment segment = getSegment(sequence);
+        return segment.mBuffer.getLong(getPosition(segment, sequence) + field);
+    }
+
+    private int getInt(long sequence, int field) {
+        Segment segment = getSegment(sequence);
+        return segment.mBuffer.getInt(getPosition(segment, sequence) + field);
+    }
+
+    private byte getByte(long sequence, int field) {
+        Segment segment = getSegment(sequence);
+        return segment.mBuffer.get(getPosition(segment, sequence) + field);
+    }
+
+    /**
+     * Get segment to which record of given data length is written, starting new segment if it does not fit.
+     */
+    private Segment getSegmentForRecord(long sequence, int length) throws IOException {
+        if (isEmpty()) {
+            mFirstSequence = sequence;
+            mNextSequence = sequence;
+        }
+        Segment segment = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+        if (segment == null || !hasSpace(segment, HEADER_SIZE + length)) {
+            if (segment != null) {
+                seal(segment);
+            }
+            segment = startSegment(sequence);
+        }
+        return segment;
+    }
+
+    private static void putHeader(MappedByteBuffer buffer, int position, byte flags, int logId, int priority,
+                                  long timestamp, int pid, int tid, int tagId, int packageId, int tagOffset,
+                                  int tagLength, int messageOffset, int length, int repeatCount,
+                                  long lastRepeatTimestamp) {
+        buffer.putInt(position + LENGTH, length);
+        buffer.put(position + FLAGS, flags);
+        buffer.put(position + PRIORITY, (byte) priority);
+        buffer.put(position + LOG_ID, (byte) logId);
+        buffer.putLong(position + TIMESTAMP, timestamp);
+        buffer.putInt(position + PID, pid);
+        buffer.putInt(position + TID, tid);
+        buffer.putInt(position + TAG_ID, tagId);
+        buffer.putInt(position + PACKAGE_ID, packageId);
+        buffer.putChar(position + TAG_OFFSET, (char) tagOffset);
+        buffer.putChar(position + TAG_LENGTH, (char) tagLength);
+        buffer.putChar(position + MESSAGE_OFFSET, (char) messageOffset);
+        buffer.putInt(position + REPEAT_COUNT, repeatCount);
+        buffer.putLong(position + LAST_REPEAT_TIMESTAMP, lastRepeatTimestamp);
+    }
+
+    /**
+     * Record offset of record which is written at given position.
+     */
+    private void finishRecord(Segment segment, int position, int length) {
+        if (segment.mCount == mOffsets.length) {
+            int[] offsets = new int[mOffsets.length * 2];
+            System.arraycopy(mOffsets, 0, offsets, 0, segment.mCount);
+            mOffsets = offsets;
+        }
+        mOffsets[segment.mCount++] = position;
+        segment.mEnd = position + HEADER_SIZE + length;
+        mNextSequence++;
+    }
+
+    /**
+     * Find segment of spilled log entry. There are only a few segments, so they are searched from newest one,
+     * which is most likely to be read.
+     */
+    private Segment getSegment(long sequence) {
+        if (!contains(sequence)) {
+            throw new IndexOutOfBoundsException("Sequence " + sequence + " is not spilled");
+        }
+        for (int i = mSegments.size() - 1; ; i--) {
+            if (mSegments.get(i).mFirstSequence <= sequence) {
+                return mSegments.get(i);
+            }
+        }
+    }
+
+    private int getPosition(Segment segment, long sequence) {
+        int index = (int) (sequence - segment.mFirstSequence);
+        if (segment.mOffsetsOffset < 0) {
+            return mOffsets[index];
+        }
+        return segment.mBuffer.getInt(segment.mOffsetsOffset + index * 4);
+    }
+
+    /**
+     * Check if record of given size and its offset fit in segment besides offsets of its records.
+     */
+    private boolean hasSpace(Segment segment, int recordSize) {
+        return (long) segment.mEnd + recordSize + (segment.mCount + 1) * 4L <= SEGMENT_SIZE;
+    }
+
+    /**
+     * Write offsets of records to full segment, so that offsets of records of next segment can be kept in heap.
+     */
+    private void seal(Segment segment) {
+        for (int i = 0; i < segment.mCount; i++) {
+            segment.mBuffer.putInt(segment.mEnd + i * 4, mOffsets[i]);
+        }
+        segment.mOffsetsOffset = segment.mEnd;
+    }
+
+    /**
+     * Start segment for records from given sequence number. Free segment is reused if there is one; otherwise, if
+     * scrollback is at its maximum size, oldest segment is reused, else new segment is created.
+     */
+    private Segment startSegment(long firstSequence) throws IOException {
+        Segment segment;
+        if (!mFreeSegments.isEmpty()) {
+            segment = mFreeSegments.remove(mFreeSegments.size() - 1);
+        } else if ((long) (mSegments.size() + 1) * SEGMENT_SIZE > mMaxBytes) {
+            //Maximum size is at least two segments, so segment being written is never taken.
+            segment = mSegments.remove(0);
+            mFirstSequence = mSegments.get(0).mFirstSequence;
+        } else {
+            segment = createSegment();
+        }
+        segment.reset(firstSequence);
+        mSegments.add(segment);
+        return segment;
+    }
+
+    private Segment createSegment() throws IOException {
+        File file = new File(mDirectory, SEGMENT_FILE_PREFIX + mNextSegmentId++);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            //Mapping remains valid after file is closed.
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            return new Segment(file, buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Delete segment file. Its mapping is released once segment is garbage collected.
+     */
+    private void deleteSegment(Segment segment) {
+        if (!segment.mFile.delete()) {
+            segment.mFile.deleteOnExit();
+        }
+    }
+
+    private void deleteSegmentFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(SEGMENT_FILE_PREFIX)) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,1308 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.store;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.parser.LogTimestamp;
+import com.fatangare.logcatviewer.parser.SymbolTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TimeZone;
+
+/**
+ * Bounded store of log entries in the order they are received. It is a ring buffer: appending is O(1)
+ * and, once store is full by number of entries or by their size, oldest log entries are evicted in O(1).
+ * <p/>
+ * Store does not keep an object per text log entry. Its fields are kept column-wise in primitive arrays
+ * e.g. timestamps in a long[] and priorities in a byte[], and its line bytes are copied to {@link ByteArena},
+ * packed one after another. So filters over priority, pid, tag, package or time scan primitive arrays without
+ * allocating, and log entry object is created by {@link #get(long)} only when it is needed e.g. when it is shown.
+ * Columns are as narrow as log entries allow, e.g. offsets of tag and message are bytes, and 'threadtime' prefix
+ * "MM-DD hh:mm:ss.mmm  PID  TID P " of line is not copied to arena when it can be rebuilt from columns.
+ * Log entries which are not kept as bytes e.g. decoded binary log entries, or whose fields do not fit in columns,
+ * are kept as they are in a separate ring, besides their columns.
+ * <p/>
+ * If spill directory is set, evicted log entries are moved to {@link LogSpill} instead of being dropped, so that
+ * scrollback extends beyond memory. Spilled log entries are read with same methods as log entries in memory.
+ * <p/>
+ * Each appended log entry gets a sequence number which only grows and is never reused, so views can refer to
+ * log entries by sequence number and find out which of them are evicted by comparing it with
+ * {@link #getFirstSequence()}.
+ * This class is not thread-safe; it should be used by main thread only.
+ */
+public class LogStore {
+    private static final String LOG_TAG = "LogStore";
+
+    /**
+     * Default maximum number of log entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 50000;
+
+    /**
+     * Default maximum size of log entries in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024; //16MB
+
+    /**
+     * Initial capacity of ring. It grows till maximum number of log entries, so that small store stays small.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Lines are kept in arena only if they are shorter, as their sizes are kept in char i.e. 16 bits.
+     * Longer lines are kept as log entries.
+     */
+    private static final int MAX_LINE_LENGTH = 0xffff;
+
+    /**
+     * Offsets of tag and message relative to start of line, and length of tag, are kept in byte i.e. 8 bits.
+     * Lines of larger values are kept as log entries.
+     */
+    private static final int MAX_FIELD_OFFSET = 0xff;
+
+    //Flags of log entry kept as bytes.
+    private static final byte FLAG_PARSED = 1;
+    /**
+     * 'threadtime' prefix of line is not in arena; it is rebuilt from columns.
+     */
+    private static final byte FLAG_PREFIX_ELIDED = 2;
+    private static final byte FLAG_REPEATED = 4;
+
+    /**
+     * Length of 'threadtime' prefix "MM-DD hh:mm:ss.mmm  PID  TID P " for pid and tid of at most 5 digits.
+     */
+    private static final int THREADTIME_PREFIX_LENGTH = LogTimestamp.TIMESTAMP_LENGTH + 15;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //Tiers of memory trimming, see {@link #trimMemory(int)}.
+    /**
+     * Memory is not trimmed.
+     */
+    public static final int TRIM_NONE = 0;
+    /**
+     * Free memory which is not used by log entries i.e. free space of columns and pooled arena slabs.
+     */
+    public static final int TRIM_COMPACT = 1;
+    /**
+     * Compact and keep half of log entries in memory. Others are spilled, if spill directory is set, else dropped.
+     */
+    public static final int TRIM_SPILL = 2;
+    /**
+     * Compact and keep quarter of log entries in memory.
+     */
+    public static final int TRIM_CRITICAL = 3;
+
+    /**
+     * Size of columns of single log entry.
+     */
+    private static final int COLUMNS_SIZE = 36;
+
+    /**
+     * Location of line bytes of each log entry in {@link #mArena}, or, for log entry which is not kept as bytes,
+     * -1 - its number in {@link #mObjects}.
+     */
+    private int[] mLocations;
+    /**
+     * Length of line of each log entry kept as bytes, including its elided prefix.
+     */
+    private char[] mLineLengths;
+
+    //Columns of log entry fields.
+    private long[] mTimestamps;
+    private int[] mPids;
+    private int[] mTids;
+    private byte[] mPriorities;
+    private int[] mTagIds;
+    private int[] mPackageIds;
+    private byte[] mLogIds;
+    private byte[] mFlags;
+    /**
+     * Offsets of tag and message relative to start of line, and length of tag, as unsigned bytes.
+     */
+    private byte[] mTagOffsets;
+    private byte[] mTagLengths;
+    private byte[] mMessageOffsets;
+
+    /**
+     * Repeats by sequence number of log entries kept as bytes. Few log entries are repeated, hence they are
+     * not columns; log entries which have repeats are flagged by {@link #FLAG_REPEATED}.
+     */
+    private final HashMap<Long, Repeats> mRepeats = new HashMap<>();
+
+    private static class Repeats {
+        int mCount;
+        long mLastTimestamp;
+    }
+
+    private final ByteArena mArena = new ByteArena();
+
+    /**
+     * Time zone in which 'threadtime' prefix was checked before it was elided. Prefix is rebuilt in same time
+     * zone, so rebuilt line is same as original one even if default time zone changes later.
+     */
+    private final TimeZone mTimeZone = TimeZone.getDefault();
+
+    /**
+     * Buffer in which line of log entry with elided prefix is rebuilt.
+     */
+    private byte[] mLineBuffer = new byte[256];
+
+    /**
+     * Last timestamp put to rebuilt prefix and its text. Consecutive log entries often have same timestamp,
+     * so it is formatted once for them.
+     */
+    private long mFormattedTimestamp = -1;
+    private final byte[] mFormattedTimestampBytes = new byte[LogTimestamp.TIMESTAMP_LENGTH];
+
+    /**
+     * Ring of log entries which are not kept as bytes, in the order they are appended. Log entries are numbered
+     * as they are appended, modulo 2^31; {@link #mFirstObjectNumber} is number of log entry at head.
+     * Size of each log entry when it was appended is kept, as approximate size of log entry may change later
+     * e.g. once its text is formatted, so that eviction subtracts what append added.
+     */
+    private LogEntry[] mObjects = new LogEntry[INITIAL_OBJECT_CAPACITY];
+    private int[] mObjectSizes = new int[INITIAL_OBJECT_CAPACITY];
+    private int mObjectHead;
+    private int mObjectCount;
+    private int mFirstObjectNumber;
+    private long mObjectBytes;
+
+    private static final int INITIAL_OBJECT_CAPACITY = 16;
+
+    /**
+     * Number of priority buckets of {@link #mPriorityIndex}: verbose, debug, info, warning and error.
+     */
+    private static final int PRIORITY_BUCKETS = 5;
+
+    /**
+     * Sequence numbers of log entries in memory by log id of source buffer and priority, so that log entries of
+     * a source buffer and priority level are found without reading log id and priority of each log entry.
+     * Spilled log entries are removed from it, so that heap does not grow with scrollback on disk.
+     * Log entries of unknown priority are in verbose bucket and fatal ones in error bucket. Buckets of log id are
+     * created when its first log entry is added. Gap markers are in {@link #mGapMarkerIndex} only, so that they pass
+     * every source buffer and priority level.
+     */
+    private LogView[][] mPriorityIndex = new LogView[0][];
+
+    /**
+     * Initial capacity of view of tag index. Most tags have few log entries, so their views start small.
+     */
+    private static final int TAG_VIEW_CAPACITY = 16;
+
+    /**
+     * Number of evictions after which views of all tags are trimmed. View of a tag is also trimmed whenever it is
+     * read, so this only bounds memory held by evicted log entries of tags which are not read.
+     */
+    private static final int TAG_INDEX_TRIM_INTERVAL = 4096;
+
+    /**
+     * Sequence numbers of log entries in memory by tag id. View of tag which has no log entries is null.
+     * Unlike {@link #mPriorityIndex}, there may be many tags, hence views are trimmed lazily.
+     */
+    private LogView[] mTagIndex = new LogView[0];
+
+    /**
+     * Sequence numbers of gap markers in memory, so that log entries selected by tag or priority can include them.
+     */
+    private final LogView mGapMarkerIndex = new LogView(TAG_VIEW_CAPACITY);
+
+    /**
+     * Views merged by {@link #selectByPriority(int, int, LogView)} and {@link #selectByTags(int[], LogView)}.
+     * It is kept, so that selecting does not allocate.
+     */
+    private LogView[] mSelectedViews = new LogView[0];
+
+    /**
+     * Scrollback of evicted log entries or null if they are dropped.
+     */
+    private LogSpill mSpill;
+    /**
+     * Index of oldest log entry in columns.
+     */
+    private int mHead;
+    private int mSize;
+    private int mCapacity;
+
+    /**
+     * Sequence number of oldest log entry in memory. Sequence number of log entry at offset i from head is
+     * mFirstSequence + i. Spilled log entries are just before it.
+     */
+    private long mFirstSequence;
+    private long mBytes;
+
+    /**
+     * Limits in effect. They are lower than limits set by {@link #setLimits(int, long)} while memory is trimmed.
+     */
+    private int mMaxEntries;
+    private long mMaxBytes;
+
+    private int mLimitMaxEntries;
+    private long mLimitMaxBytes;
+    private int mTrimTier = TRIM_NONE;
+
+    //Statistics
+    private long mEvictedCount;
+    private int mTrimCount;
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries maximum number of log entries.
+     * @param maxBytes   maximum size of log entries in bytes.
+     */
+    public LogStore(int maxEntries, long maxBytes) {
+        mLimitMaxEntries = mMaxEntries = Math.max(maxEntries, 1);
+        mLimitMaxBytes = mMaxBytes = Math.max(maxBytes, 1);
+        allocateColumns(Math.min(INITIAL_CAPACITY, mMaxEntries));
+    }
+
+    /**
+     * Append log entry, evicting oldest log entries if store is full. Text log entry is copied to store,
+     * so given log entry is not kept; it only gets sequence number of stored log entry.
+     *
+     * @param logEntry log entry.
+     * @return sequence number of log entry.
+     */
+    public long append(LogEntry logEntry) {
+        if (mSize == mCapacity) {
+            if (mSize < mMaxEntries) {
+                resize(Math.min(mSize * 2, mMaxEntries));
+            } else {
+                evictOldest();
+            }
+        }
+
+        int index = (mHead + mSize) % mCapacity;
+        long sequence = mFirstSequence + mSize;
+        mTimestamps[index] = logEntry.getTimestamp();
+        mPids[index] = logEntry.getPid();
+        mTids[index] = logEntry.getTid();
+        mPriorities[index] = (byte) logEntry.getPriority();
+        mTagIds[index] = logEntry.getTagId();
+        mPackageIds[index] = logEntry.getPackageId();
+        mLogIds[index] = (byte) logEntry.getLogId();
+        if (fitsInColumns(logEntry)) {
+            mBytes += appendLine(index, sequence, logEntry);
+        } else {
+            int size = logEntry.getApproximateSize();
+            mLocations[index] = appendObject(logEntry, size);
+            mFlags[index] = 0;
+            mBytes += size;
+        }
+        mSize++;
+
+        //Latest log entry is kept even if it alone exceeds size limit.
+        while (mBytes > mMaxBytes && mSize > 1) {
+            evictOldest();
+        }
+
+        if (logEntry.isGapMarker()) {
+            mGapMarkerIndex.add(sequence);
+        } else {
+            getPriorityBuckets(logEntry.getLogId())[getPriorityBucket(logEntry.getPriority())].add(sequence);
+            if (logEntry.getTagId() != SymbolTable.NO_SYMBOL) {
+                getTagView(logEntry.getTagId()).add(sequence);
+            }
+        }
+        logEntry.setSequence(sequence);
+        return sequence;
+    }
+
+    /**
+     * Get log entry by its sequence number. Text log entry is created from columns on each call, so it should be
+     * called only for log entries which are needed as objects; filters should use column getters instead.
+     *
+     * @param sequence sequence number.
+     * @return log entry or null if it is evicted or not appended yet.
+     */
+    public LogEntry get(long sequence) {
+        if (!contains(sequence)) {
+            return null;
+        }
+        if (sequence < mFirstSequence) {
+            return mSpill.get(sequence);
+        }
+
+        int index = indexOf(sequence);
+        if (mLocations[index] < 0) {
+            return getObject(index);
+        }
+
+        //Log entry keeps its bytes, so line with elided prefix is rebuilt in bytes of its own.
+        byte[] data;
+        int offset;
+        if ((mFlags[index] & FLAG_PREFIX_ELIDED) != 0) {
+            data = new byte[mLineLengths[index]];
+            offset = 0;
+            putLine(index, data);
+        } else {
+            data = mArena.getData(mLocations[index]);
+            offset = ByteArena.getOffset(mLocations[index]);
+        }
+        LogEntry logEntry = new LogEntry(data, offset, mLineLengths[index]);
+        if ((mFlags[index] & FLAG_PARSED) == 0) {
+            logEntry.setStoredFields(mTimestamps[index], mPids[index], mTids[index], mPriorities[index],
+                    mTagIds[index], -1, 0, 0);
+        } else {
+            logEntry.setStoredFields(mTimestamps[index], mPids[index], mTids[index], mPriorities[index],
+                    mTagIds[index], offset + getTagOffset(index), mTagLengths[index] & 0xff,
+                    offset + (mMessageOffsets[index] & 0xff));
+        }
+        logEntry.setPackageId(mPackageIds[index]);
+        logEntry.setLogId(mLogIds[index]);
+        if ((mFlags[index] & FLAG_REPEATED) != 0) {
+            Repeats repeats = mRepeats.get(sequence);
+            logEntry.setRepeats(repeats.mCount, repeats.mLastTimestamp);
+        }
+        logEntry.setSequence(sequence);
+        return logEntry;
+    }
+
+    /**
+     * Put log entry in memory to snapshot segment. Fields and line bytes of log entry kept as bytes are put from
+     * columns and arena, so that no log entry object is created for it.
+     *
+     * @param sequence     sequence number of log entry in memory.
+     * @param segment      segment.
+     * @param tagIndex     index of tag in segment or -1.
+     * @param packageIndex index of package name in segment or -1.
+     */
+    void putSnapshotEntry(long sequence, LogSnapshotWriter.Segment segment, int tagIndex, int packageIndex) {
+        int index = indexOf(sequence);
+        if (mLocations[index] < 0) {
+            segment.putLogEntry(getObject(index), tagIndex, packageIndex);
+            return;
+        }
+
+        Repeats repeats = (mFlags[index] & FLAG_REPEATED) != 0 ? mRepeats.get(sequence) : null;
+        segment.putEntry(mLogIds[index], mPriorities[index], mTimestamps[index], mPids[index], mTids[index],
+                tagIndex, packageIndex, (mFlags[index] & FLAG_PARSED) != 0 ? getTagOffset(index) : -1,
+                mTagLengths[index] & 0xff, mMessageOffsets[index] & 0xff, repeats == null ? 0 : repeats.mCount,
+                repeats == null ? 0 : repeats.mLastTimestamp, getLineData(index), getLineOffset(index),
+                mLineLengths[index]);
+    }
+
+    /**
+     * Check if log entry of given sequence number is in store.
+     *
+     * @param sequence sequence number.
+     * @return true if yes else false.
+     */
+    public boolean contains(long sequence) {
+        return sequence >= getFirstSequence() && sequence < mFirstSequence + mSize;
+    }
+
+    /**
+     * Get text of log entry without creating log entry object.
+     *
+     * @param sequence sequence number of log entry in store.
+     * @return text of log entry.
+     */
+    public String getText(long sequence) {
+        if (sequence < mFirstSequence) {
+            return getSpill(sequence).getText(sequence);
+        }
+        int index = indexOf(sequence);
+        if (mLocations[index] < 0) {
+            return getObject(index).getText();
+        }
+        return new String(getLineData(index), getLineOffset(index), mLineLengths[index], UTF_8);
+    }
+
+    /**
+     * Get time of log entry.
+     *
+     * @param sequence sequence number of log entry in store.
+     * @return time in nanoseconds since epoch or 0 if not known.
+     */
+    public long getTimestamp(long sequence) {
+        if (sequence < mFirstSequence) {
+            return getSpill(sequence).getTimestamp(sequence);
+        }
+        return mTimestamps[indexOf(sequence)];
+    }
+
+    public int getPid(long sequence) {
+        if (sequence < mFirstSequence) {
+            return getSpill(sequence).getPid(sequence);
+        }
+        return mPids[indexOf(sequence)];
+    }
+
+    public int getTid(long sequence) {
+        if (sequence < mFirstSequence) {
+            return getSpill(sequence).getTid(sequence);
+        }
+        return mTids[indexOf(sequence)];
+    }
+
+    /**
+     * Get priority of log entry.
+     *
+     * @param sequence sequence number of log entry in store.
+     * @return android.util.Log priority constant or {@link LogEntry#PRIORITY_UNKNOWN}.
+     */
+    public int getPriority(long sequence) {
+        if (sequence < mFirstSequence) {
+            return getSpill(sequence).getPriority(sequence);
+        }
+        return mPriorities[indexOf(sequence)];
+    }
+
+    /**
+     * Get id of tag of log entry.
+     *
+     * @param sequence sequence number of log entry in store.
+     * @return id in {@link SymbolTable#TAGS} or {@link SymbolTable#NO_SYMBOL}.
+     */
+    public int getTagId(long sequence) {
+        if (sequence < mFirstSequence) {
+            return getSpill(sequence).getTagId(sequence);
+        }
+        return mTagIds[indexOf(sequence)];
+    }
+
+    /**
+     * Get id of package name of process which wrote log entry.
+     *
+     * @param sequence sequence number of log entry in store.
+     * @return id in {@link SymbolTable#PACKAGES} or {@link SymbolTable#NO_SYMBOL}.
+     */
+    public int getPackageId(long sequence) {
+        if (sequence < mFirstSequence) {
+            return getSpill(sequence).getPackageId(sequence);
+        }
+        return mPackageIds[indexOf(sequence)];
+    }
+
+    public int getLogId(long sequence) {
+        if (sequence < mFirstSequence) {
+            return getSpill(sequence).getLogId(sequence);
+        }
+        return mLogIds[indexOf(sequence)];
+    }
+
+    /**
+     * Is log entry a marker of dropped log entries? See {@link LogEntry#createGapMarker(int)}.
+     *
+     * @param sequence sequence number of log entry in store.
+     * @return true if yes else false.
+     */
+    public boolean isGapMarker(long sequence) {
+        if (sequence < mFirstSequence) {
+            return getSpill(sequence).isGapMarker(sequence);
+        }
+        int index = indexOf(sequence);
+        return mLocations[index] < 0 && getObject(index).isGapMarker();
+    }
+
+    /**
+     * Set repeat count and time of last repeat of stored log entry. Log entries which are kept as they are
+     * get their repeats directly and spilled log entries are not modified, hence they are not changed.
+     *
+     * @param sequence            sequence number of log entry in store.
+     * @param repeatCount         number of repeats.
+     * @param lastRepeatTimestamp time of last repeat in nanoseconds since epoch.
+     */
+    public void setRepeats(long sequence, int repeatCount, long lastRepeatTimestamp) {
+        if (sequence < mFirstSequence) {
+            return;
+        }
+        int index = indexOf(sequence);
+        if (mLocations[index] >= 0 && repeatCount > 0) {
+            setRepeats(index, sequence, repeatCount, lastRepeatTimestamp);
+        }
+    }
+
+    /**
+     * Set view to log entries in memory of given source buffer and priority or higher, including gap markers.
+     * Log entries are taken from priority index, so it takes time proportional to number of such log entries
+     * instead of all log entries, and view is reused if it is large enough. Spilled log entries are not selected;
+     * they are before {@link #getFirstInMemorySequence()} and can be filtered by their columns.
+     *
+     * @param logId           log id of source buffer or negative value for log entries of all source buffers.
+     * @param minimumPriority android.util.Log priority constant. Log entry of unknown priority is taken as verbose.
+     * @param view            view to be set.
+     */
+    public void selectByPriority(int logId, int minimumPriority, LogView view) {
+        int fromLogId = logId < 0 ? 0 : logId;
+        int toLogId = logId < 0 ? mPriorityIndex.length : Math.min(logId + 1, mPriorityIndex.length);
+        int maxCount = Math.max(toLogId - fromLogId, 0) * PRIORITY_BUCKETS + 1;
+        if (mSelectedViews.length < maxCount) {
+            mSelectedViews = new LogView[maxCount];
+        }
+
+        int count = 0;
+        mSelectedViews[count++] = mGapMarkerIndex;
+        for (int i = fromLogId; i < toLogId; i++) {
+            LogView[] buckets = mPriorityIndex[i];
+            if (buckets == null) {
+                continue;
+            }
+            //Empty buckets are skipped, as each merged view costs a comparison per selected log entry.
+            for (int bucket = getPriorityBucket(minimumPriority); bucket < PRIORITY_BUCKETS; bucket++) {
+                if (!buckets[bucket].isEmpty()) {
+                    mSelectedViews[count++] = buckets[bucket];
+                }
+            }
+        }
+        view.setUnion(mSelectedViews, 0, count);
+        Arrays.fill(mSelectedViews, null);
+    }
+
+    /**
+     * Set view to log entries in memory of given tags, including gap markers. Log entries are taken from tag index,
+     * so it takes time proportional to number of such log entries times number of tags. Spilled log entries are
+     * not selected, like in {@link #selectByPriority(int, int, LogView)}.
+     *
+     * @param tagIds ids of tags in {@link SymbolTable#TAGS}.
+     * @param view   view to be set.
+     */
+    public void selectByTags(int[] tagIds, LogView view) {
+        if (mSelectedViews.length < tagIds.length + 1) {
+            mSelectedViews = new LogView[tagIds.length + 1];
+        }
+
+        int count = 0;
+        mSelectedViews[count++] = mGapMarkerIndex;
+        for (int tagId : tagIds) {
+            LogView tagView = tagId >= 0 && tagId < mTagIndex.length ? mTagIndex[tagId] : null;
+            if (tagView != null) {
+                tagView.removeBefore(mFirstSequence);
+                mSelectedViews[count++] = tagView;
+            }
+        }
+        view.setUnion(mSelectedViews, 0, count);
+        Arrays.fill(mSelectedViews, null);
+    }
+
+    /**
+     * Get number of log entries of tag in memory. Spilled log entries are not counted.
+     *
+     * @param tagId id of tag in {@link SymbolTable#TAGS}.
+     * @return number of log entries.
+     */
+    public int getTagCount(int tagId) {
+        LogView tagView = tagId >= 0 && tagId < mTagIndex.length ? mTagIndex[tagId] : null;
+        if (tagView == null) {
+            return 0;
+        }
+        tagView.removeBefore(mFirstSequence);
+        return tagView.size();
+    }
+
+    /**
+     * Get tags of log entries in memory, ordered by number of their log entries. Spilled log entries are not counted.
+     *
+     * @return ids of tags in {@link SymbolTable#TAGS}, tag of most log entries first.
+     */
+    public int[] getTagsByVolume() {
+        trimTagIndex();
+
+        //Number of log entries and tag id are packed in single value, so that they are sorted together.
+        long[] volumes = new long[mTagIndex.length];
+        int count = 0;
+        for (int tagId = 0; tagId < mTagIndex.length; tagId++) {
+            if (mTagIndex[tagId] != null) {
+                volumes[count++] = ((long) mTagIndex[tagId].size() << 32) | tagId;
+            }
+        }
+        Arrays.sort(volumes, 0, count);
+
+        int[] tagIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            tagIds[i] = (int) volumes[count - 1 - i];
+        }
+        return tagIds;
+    }
+
+    /**
+     * Get sequence number of oldest log entry in store, including spilled log entries. Log entries of smaller
+     * sequence numbers are evicted.
+     *
+     * @return sequence number.
+     */
+    public long getFirstSequence() {
+        return mSpill == null || mSpill.isEmpty() ? mFirstSequence : mSpill.getFirstSequence();
+    }
+
+    /**
+     * Get sequence number of oldest log entry in memory. Log entries before it are spilled or evicted.
+     *
+     * @return sequence number.
+     */
+    public long getFirstInMemorySequence() {
+        return mFirstSequence;
+    }
+
+    /**
+     * Get sequence number which next appended log entry will get.
+     *
+     * @return sequence number.
+     */
+    public long getNextSequence() {
+        return mFirstSequence + mSize;
+    }
+
+    /**
+     * Get number of log entries in memory. Spilled log entries are not counted.
+     *
+     * @return number of log entries.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Get approximate size of log entries in store.
+     *
+     * @return size in bytes.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Get memory held by arena which keeps line bytes, including its free space.
+     *
+     * @return size in bytes.
+     */
+    public long getArenaCapacity() {
+        return mArena.getCapacity();
+    }
+
+    /**
+     * Get number of spilled log entries which are still on disk.
+     *
+     * @return number of log entries.
+     */
+    public long getSpilledCount() {
+        return mSpill == null ? 0 : mSpill.size();
+    }
+
+    /**
+     * Get size of spilled log entries on disk.
+     *
+     * @return size in bytes.
+     */
+    public long getSpilledBytes() {
+        return mSpill == null ? 0 : mSpill.getBytes();
+    }
+
+    /**
+     * Set directory to which evicted log entries are spilled, so that they can still be read.
+     * Files left in it e.g. by previous process are deleted.
+     *
+     * @param directory directory e.g. in cache directory of app or null to drop evicted log entries.
+     * @param maxBytes  maximum size of spilled log entries on disk in bytes.
+     */
+    public void setSpillDirectory(File directory, long maxBytes) {
+        closeSpill();
+        if (directory == null) {
+            return;
+        }
+        try {
+            mSpill = new LogSpill(directory, maxBytes);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Spilling log entries to " + directory + " failed. Exception: " + e.toString());
+        }
+    }
+
+    /**
+     * Delete spilled log entries. Log entries in memory are kept.
+     */
+    public void closeSpill() {
+        if (mSpill != null) {
+            mSpill.close();
+            mSpill = null;
+        }
+    }
+
+    /**
+     * Get number of log entries evicted so far.
+     *
+     * @return number of log entries.
+     */
+    public long getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    /**
+     * Set maximum number of log entries and their size. If store exceeds new limits, oldest log entries are evicted.
+     *
+     * @param maxEntries maximum number of log entries.
+     * @param maxBytes   maximum size of log entries in bytes.
+     */
+    public void setLimits(int maxEntries, long maxBytes) {
+        mLimitMaxEntries = Math.max(maxEntries, 1);
+        mLimitMaxBytes = Math.max(maxBytes, 1);
+        applyLimits();
+    }
+
+    /**
+     * Reduce memory used by store because system is low on memory. Limits are lowered according to tier
+     * till {@link #relaxMemory()} is called; log entries beyond them are spilled if spill directory is set.
+     *
+     * @param tier one of TRIM_ constants. Lower tier than current one does not raise limits.
+     */
+    public void trimMemory(int tier) {
+        mTrimCount++;
+        mTrimTier = Math.max(mTrimTier, tier);
+        applyLimits();
+
+        //Compact: columns and ring of log entries not kept as bytes are shrunk to log entries in memory and free
+        //slabs are released.
+        if (mCapacity > Math.max(mSize, INITIAL_CAPACITY)) {
+            resize(Math.max(mSize, Math.min(INITIAL_CAPACITY, mMaxEntries)));
+        }
+        mArena.trim();
+        if (mObjects.length > Math.max(mObjectCount * 2, INITIAL_OBJECT_CAPACITY)) {
+            resizeObjects(Math.max(mObjectCount, INITIAL_OBJECT_CAPACITY));
+        }
+        for (LogView[] buckets : mPriorityIndex) {
+            if (buckets != null) {
+                for (LogView view : buckets) {
+                    view.trimToSize();
+                }
+            }
+        }
+        trimTagIndex();
+        for (LogView view : mTagIndex) {
+            if (view != null) {
+                view.trimToSize();
+            }
+        }
+    }
+
+    /**
+     * Restore limits set by {@link #setLimits(int, long)} once memory pressure is over. Columns grow again
+     * as log entries are appended.
+     */
+    public void relaxMemory() {
+        mTrimTier = TRIM_NONE;
+        applyLimits();
+    }
+
+    /**
+     * Get trim tier for level of memory pressure reported to component.
+     *
+     * @param level level passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     * @return one of TRIM_ constants.
+     */
+    public static int getTrimTier(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return TRIM_CRITICAL;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return TRIM_SPILL;
+        }
+        return TRIM_COMPACT;
+    }
+
+    /**
+     * Get current trim tier.
+     *
+     * @return one of TRIM_ constants.
+     */
+    public int getTrimTier() {
+        return mTrimTier;
+    }
+
+    /**
+     * Get number of times memory is trimmed.
+     *
+     * @return number of trims.
+     */
+    public int getTrimCount() {
+        return mTrimCount;
+    }
+
+    /**
+     * Get approximate memory used by store i.e. its columns, arena, priority index and log entries which are not
+     * kept as bytes. Spilled log entries are not counted, as they are on disk.
+     *
+     * @return size in bytes.
+     */
+    public long getMemoryFootprint() {
+        long footprint = (long) mCapacity * COLUMNS_SIZE + mArena.getCapacity() + (long) mObjects.length * 8
+                + mObjectBytes;
+        for (LogView[] buckets : mPriorityIndex) {
+            if (buckets != null) {
+                for (LogView view : buckets) {
+                    footprint += view.getMemorySize();
+                }
+            }
+        }
+        for (LogView view : mTagIndex) {
+            if (view != null) {
+                footprint += view.getMemorySize();
+            }
+        }
+        return footprint + mGapMarkerIndex.getMemorySize();
+    }
+
+    private void applyLimits() {
+        //Each tier above compact halves limits.
+        int shift = Math.max(mTrimTier - TRIM_COMPACT, 0);
+        mMaxEntries = Math.max(mLimitMaxEntries >> shift, 1);
+        mMaxBytes = Math.max(mLimitMaxBytes >> shift, 1);
+
+        while (mSize > mMaxEntries || (mBytes > mMaxBytes && mSize > 1)) {
+            evictOldest();
+        }
+        if (mCapacity > mMaxEntries) {
+            resize(mMaxEntries);
+        }
+    }
+
+    /**
+     * Evict all log entries, including spilled ones. Sequence numbers are not reset.
+     */
+    public void clear() {
+        LogSpill spill = mSpill;
+        mSpill = null;
+        while (mSize > 0) {
+            evictOldest();
+        }
+        if (spill != null) {
+            spill.clear();
+        }
+        mSpill = spill;
+    }
+
+    /**
+     * Get spill which has log entry of given sequence number before memory.
+     */
+    private LogSpill getSpill(long sequence) {
+        if (mSpill == null || !mSpill.contains(sequence)) {
+            throw new IndexOutOfBoundsException("Sequence " + sequence + " is not in store");
+        }
+        return mSpill;
+    }
+
+    /**
+     * Get index in columns of log entry which is in store.
+     */
+    private int indexOf(long sequence) {
+        long offset = sequence - mFirstSequence;
+        if (offset < 0 || offset >= mSize) {
+            throw new IndexOutOfBoundsException("Sequence " + sequence + " is not in store");
+        }
+        int index = mHead + (int) offset;
+        return index < mCapacity ? index : index - mCapacity;
+    }
+
+    private void evictOldest() {
+        if (mSpill != null) {
+            try {
+                spillOldest();
+            } catch (IOException e) {
+                //Scrollback is dropped, but log entries in memory are kept.
+                Log.w(LOG_TAG, "Spilling log entry failed. Exception: " + e.toString());
+                closeSpill();
+            }
+        }
+        if (mLocations[mHead] < 0) {
+            mBytes -= removeObject();
+        } else {
+            mArena.release(mLocations[mHead], getStoredLength(mHead));
+            mBytes -= mLineLengths[mHead];
+            if ((mFlags[mHead] & FLAG_REPEATED) != 0) {
+                mRepeats.remove(mFirstSequence);
+            }
+        }
+        mHead = (mHead + 1) % mCapacity;
+        mSize--;
+        mFirstSequence++;
+        mEvictedCount++;
+        trimPriorityIndex();
+        if (mEvictedCount % TAG_INDEX_TRIM_INTERVAL == 0) {
+            trimTagIndex();
+        }
+    }
+
+    /**
+     * Move oldest log entry in memory to spill. Log entry kept as bytes is spilled straight from columns and arena,
+     * so that no log entry object is created for it.
+     */
+    private void spillOldest() throws IOException {
+        int index = mHead;
+        if (mLocations[index] < 0) {
+            mSpill.append(mFirstSequence, getObject(index));
+            return;
+        }
+
+        Repeats repeats = (mFlags[index] & FLAG_REPEATED) != 0 ? mRepeats.get(mFirstSequence) : null;
+        mSpill.appendEntry(mFirstSequence, mLogIds[index], mPriorities[index], mTimestamps[index], mPids[index],
+                mTids[index], mTagIds[index], mPackageIds[index],
+                (mFlags[index] & FLAG_PARSED) != 0 ? getTagOffset(index) : -1, mTagLengths[index] & 0xff,
+                mMessageOffsets[index] & 0xff, repeats == null ? 0 : repeats.mCount,
+                repeats == null ? 0 : repeats.mLastTimestamp, getLineData(index), getLineOffset(index),
+                mLineLengths[index]);
+    }
+
+    /**
+     * Check if log entry can be kept as bytes in arena, i.e. its line and offsets of its fields fit in columns.
+     */
+    private static boolean fitsInColumns(LogEntry logEntry) {
+        if (logEntry.getData() == null || logEntry.getLength() >= MAX_LINE_LENGTH) {
+            return false;
+        }
+        return logEntry.getTagOffset() < 0
+                || (logEntry.getMessageOffset() - logEntry.getOffset() <= MAX_FIELD_OFFSET
+                && logEntry.getTagLength() <= MAX_FIELD_OFFSET);
+    }
+
+    /**
+     * Copy line of log entry to arena and set its columns, except those of fields common to all log entries.
+     * 'threadtime' prefix of line is not copied if it can be rebuilt from columns.
+     *
+     * @return size of log entry.
+     */
+    private int appendLine(int index, long sequence, LogEntry logEntry) {
+        byte[] data = logEntry.getData();
+        int offset = logEntry.getOffset();
+        int length = logEntry.getLength();
+        byte flags = 0;
+        if (logEntry.getTagOffset() >= 0) {
+            flags = FLAG_PARSED;
+            mTagOffsets[index] = (byte) (logEntry.getTagOffset() - offset);
+            mTagLengths[index] = (byte) logEntry.getTagLength();
+            mMessageOffsets[index] = (byte) (logEntry.getMessageOffset() - offset);
+            if (hasThreadtimePrefix(index, data, offset)) {
+                flags |= FLAG_PREFIX_ELIDED;
+            }
+        }
+        mFlags[index] = flags;
+        mLineLengths[index] = (char) length;
+
+        int prefixLength = (flags & FLAG_PREFIX_ELIDED) != 0 ? THREADTIME_PREFIX_LENGTH : 0;
+        mLocations[index] = mArena.append(data, offset + prefixLength, length - prefixLength);
+        if (logEntry.getRepeatCount() > 0) {
+            setRepeats(index, sequence, logEntry.getRepeatCount(), logEntry.getLastRepeatTimestamp());
+        }
+        return length;
+    }
+
+    /**
+     * Check if line starts with 'threadtime' prefix which is same as prefix rebuilt from columns, followed by tag.
+     */
+    private boolean hasThreadtimePrefix(int index, byte[] data, int offset) {
+        if ((mTagOffsets[index] & 0xff) != THREADTIME_PREFIX_LENGTH || mTimestamps[index] <= 0) {
+            return false;
+        }
+        putThreadtimePrefix(index, mLineBuffer);
+        for (int i = 0; i < THREADTIME_PREFIX_LENGTH; i++) {
+            if (mLineBuffer[i] != data[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Put 'threadtime' prefix "MM-DD hh:mm:ss.mmm  PID  TID P " of log entry to start of buffer.
+     */
+    private void putThreadtimePrefix(int index, byte[] buffer) {
+        if (mTimestamps[index] != mFormattedTimestamp) {
+            LogTimestamp.putTimestamp(mFormattedTimestampBytes, 0, mTimestamps[index], mTimeZone);
+            mFormattedTimestamp = mTimestamps[index];
+        }
+        System.arraycopy(mFormattedTimestampBytes, 0, buffer, 0, LogTimestamp.TIMESTAMP_LENGTH);
+        int position = LogTimestamp.TIMESTAMP_LENGTH;
+        buffer[position++] = ' ';
+        position = putRightAligned(buffer, position, mPids[index]);
+        buffer[position++] = ' ';
+        position = putRightAligned(buffer, position, mTids[index]);
+        buffer[position++] = ' ';
+        buffer[position++] = (byte) LogEntry.getPriorityChar(mPriorities[index]);
+        buffer[position] = ' ';
+    }
+
+    /**
+     * Put value right aligned in 5 characters. Value which does not fit is put as '?' characters, which never
+     * match a parsed line.
+     *
+     * @return position after value.
+     */
+    private static int putRightAligned(byte[] buffer, int position, int value) {
+        boolean fits = value >= 0 && value < 100000;
+        for (int i = position + 4; i >= position; i--) {
+            if (!fits) {
+                buffer[i] = '?';
+            } else if (value == 0 && i < position + 4) {
+                buffer[i] = ' ';
+            } else {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+        }
+        return position + 5;
+    }
+
+    /**
+     * Put whole line of log entry kept as bytes, including its elided prefix, to start of buffer.
+     */
+    private void putLine(int index, byte[] buffer) {
+        int prefixLength = 0;
+        if ((mFlags[index] & FLAG_PREFIX_ELIDED) != 0) {
+            putThreadtimePrefix(index, buffer);
+            prefixLength = THREADTIME_PREFIX_LENGTH;
+        }
+        System.arraycopy(mArena.getData(mLocations[index]), ByteArena.getOffset(mLocations[index]), buffer,
+                prefixLength, mLineLengths[index] - prefixLength);
+    }
+
+    /**
+     * Get bytes of line of log entry kept as bytes. Line starts at {@link #getLineOffset(int)}; line with elided
+     * prefix is rebuilt in {@link #mLineBuffer}, so it is valid only till next call.
+     */
+    private byte[] getLineData(int index) {
+        if ((mFlags[index] & FLAG_PREFIX_ELIDED) == 0) {
+            return mArena.getData(mLocations[index]);
+        }
+        if (mLineBuffer.length < mLineLengths[index]) {
+            mLineBuffer = new byte[Math.max(mLineLengths[index], mLineBuffer.length * 2)];
+        }
+        putLine(index, mLineBuffer);
+        return mLineBuffer;
+    }
+
+    private int getLineOffset(int index) {
+        return (mFlags[index] & FLAG_PREFIX_ELIDED) == 0 ? ByteArena.getOffset(mLocations[index]) : 0;
+    }
+
+    /**
+     * Get length of bytes of log entry in arena, i.e. length of line without elided prefix.
+     */
+    private int getStoredLength(int index) {
+        return mLineLengths[index] - ((mFlags[index] & FLAG_PREFIX_ELIDED) != 0 ? THREADTIME_PREFIX_LENGTH : 0);
+    }
+
+    private int getTagOffset(int index) {
+        return mTagOffsets[index] & 0xff;
+    }
+
+    private void setRepeats(int index, long sequence, int repeatCount, long lastRepeatTimestamp) {
+        Repeats repeats = mRepeats.get(sequence);
+        if (repeats == null) {
+            repeats = new Repeats();
+            mRepeats.put(sequence, repeats);
+            mFlags[index] |= FLAG_REPEATED;
+        }
+        repeats.mCount = repeatCount;
+        repeats.mLastTimestamp = lastRepeatTimestamp;
+    }
+
+    /**
+     * Add log entry to ring of log entries which are not kept as bytes.
+     *
+     * @param size size of log entry.
+     * @return location of log entry.
+     */
+    private int appendObject(LogEntry logEntry, int size) {
+        if (mObjectCount == mObjects.length) {
+            resizeObjects(mObjects.length * 2);
+        }
+        int objectIndex = (mObjectHead + mObjectCount) % mObjects.length;
+        mObjects[objectIndex] = logEntry;
+        mObjectSizes[objectIndex] = size;
+        mObjectBytes += size;
+        int number = (mFirstObjectNumber + mObjectCount) & Integer.MAX_VALUE;
+        mObjectCount++;
+        return -1 - number;
+    }
+
+    /**
+     * Get log entry which is not kept as bytes.
+     */
+    private LogEntry getObject(int index) {
+        int offset = (-1 - mLocations[index] - mFirstObjectNumber) & Integer.MAX_VALUE;
+        return mObjects[(mObjectHead + offset) % mObjects.length];
+    }
+
+    /**
+     * Remove oldest log entry from ring of log entries which are not kept as bytes.
+     *
+     * @return size of log entry.
+     */
+    private int removeObject() {
+        int size = mObjectSizes[mObjectHead];
+        mObjects[mObjectHead] = null;
+        mObjectBytes -= size;
+        mObjectHead = (mObjectHead + 1) % mObjects.length;
+        mObjectCount--;
+        mFirstObjectNumber = (mFirstObjectNumber + 1) & Integer.MAX_VALUE;
+        return size;
+    }
+
+    /**
+     * Move log entries which are not kept as bytes to ring of given capacity, oldest first.
+     */
+    private void resizeObjects(int capacity) {
+        LogEntry[] objects = new LogEntry[capacity];
+        int[] objectSizes = new int[capacity];
+        for (int i = 0; i < mObjectCount; i++) {
+            int objectIndex = (mObjectHead + i) % mObjects.length;
+            objects[i] = mObjects[objectIndex];
+            objectSizes[i] = mObjectSizes[objectIndex];
+        }
+        mObjects = objects;
+        mObjectSizes = objectSizes;
+        mObjectHead = 0;
+    }
+
+    /**
+     * Remove log entries which are not in memory from priority index.
+     */
+    private void trimPriorityIndex() {
+        for (LogView[] buckets : mPriorityIndex) {
+            if (buckets != null) {
+                for (LogView view : buckets) {
+                    view.removeBefore(mFirstSequence);
+                }
+            }
+        }
+        mGapMarkerIndex.removeBefore(mFirstSequence);
+    }
+
+    /**
+     * Remove log entries which are not in memory from tag index. Views of tags which have no log entries left
+     * are released.
+     */
+    private void trimTagIndex() {
+        for (int tagId = 0; tagId < mTagIndex.length; tagId++) {
+            LogView tagView = mTagIndex[tagId];
+            if (tagView != null) {
+                tagView.removeBefore(mFirstSequence);
+                if (tagView.isEmpty()) {
+                    mTagIndex[tagId] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get view of tag index for tag, creating it if needed.
+     */
+    private LogView getTagView(int tagId) {
+        if (tagId >= mTagIndex.length) {
+            mTagIndex = Arrays.copyOf(mTagIndex, Math.max(tagId + 1, mTagIndex.length * 2));
+        }
+        if (mTagIndex[tagId] == null) {
+            mTagIndex[tagId] = new LogView(TAG_VIEW_CAPACITY);
+        }
+        return mTagIndex[tagId];
+    }
+
+    /**
+     * Get priority buckets of {@link #mPriorityIndex} for log id, creating them if needed.
+     */
+    private LogView[] getPriorityBuckets(int logId) {
+        if (logId >= mPriorityIndex.length) {
+            mPriorityIndex = Arrays.copyOf(mPriorityIndex, logId + 1);
+        }
+        if (mPriorityIndex[logId] == null) {
+            LogView[] buckets = new LogView[PRIORITY_BUCKETS];
+            for (int i = 0; i < PRIORITY_BUCKETS; i++) {
+                buckets[i] = new LogView();
+            }
+            mPriorityIndex[logId] = buckets;
+        }
+        return mPriorityIndex[logId];
+    }
+
+    /**
+     * Get bucket of {@link #mPriorityIndex} for priority.
+     */
+    private static int getPriorityBucket(int priority) {
+        return priority <= Log.VERBOSE ? 0 : Math.min(priority, Log.ERROR) - Log.VERBOSE;
+    }
+
+    private void allocateColumns(int capacity) {
+        mCapacity = capacity;
+        mLocations = new int[capacity];
+        mLineLengths = new char[capacity];
+        mTimestamps = new long[capacity];
+        mPids = new int[capacity];
+        mTids = new int[capacity];
+        mPriorities = new byte[capacity];
+        mTagIds = new int[capacity];
+        mPackageIds = new int[capacity];
+        mLogIds = new byte[capacity];
+        mFlags = new byte[capacity];
+        mTagOffsets = new byte[capacity];
+        mTagLengths = new byte[capacity];
+        mMessageOffsets = new byte[capacity];
+    }
+
+    /**
+     * Move log entries to columns of given capacity, oldest first.
+     */
+    private void resize(int capacity) {
+        int[] locations = mLocations;
+        char[] lineLengths = mLineLengths;
+        long[] timestamps = mTimestamps;
+        int[] pids = mPids;
+        int[] tids = mTids;
+        byte[] priorities = mPriorities;
+        int[] tagIds = mTagIds;
+        int[] packageIds = mPackageIds;
+        byte[] logIds = mLogIds;
+        byte[] flags = mFlags;
+        byte[] tagOffsets = mTagOffsets;
+        byte[] tagLengths = mTagLengths;
+        byte[] messageOffsets = mMessageOffsets;
+        int oldCapacity = mCapacity;
+
+        allocateColumns(capacity);
+        copyColumn(locations, mLocations, oldCapacity);
+        copyColumn(lineLengths, mLineLengths, oldCapacity);
+        copyColumn(timestamps, mTimestamps, oldCapacity);
+        copyColumn(pids, mPids, oldCapacity);
+        copyColumn(tids, mTids, oldCapacity);
+        copyColumn(priorities, mPriorities, oldCapacity);
+        copyColumn(tagIds, mTagIds, oldCapacity);
+        copyColumn(packageIds, mPackageIds, oldCapacity);
+        copyColumn(logIds, mLogIds, oldCapacity);
+        copyColumn(flags, mFlags, oldCapacity);
+        copyColumn(tagOffsets, mTagOffsets, oldCapacity);
+        copyColumn(tagLengths, mTagLengths, oldCapacity);
+        copyColumn(messageOffsets, mMessageOffsets, oldCapacity);
+        mHead = 0;
+    }
+
+    /**
+     * Copy log entries of ring column to start of new column, oldest first. Columns are arrays of any type.
+     */
+    private void copyColumn(Object column, Object newColumn, int capacity) {
+        int firstPart = Math.min(mSize, capacity - mHead);
+        System.arraycopy(column, mHead, newColumn, 0, firstPart);
+        System.arraycopy(column, 0, newColumn, firstPart, mSize - firstPart);
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.fatangare.logcatviewer.store;
+
+/**
+ * Filtered view of {@link LogStore} i.e. sequence numbers of log entries which pass a filter, in store order.
+ * View does not copy log entries; it keeps sequence numbers as 4-byte offsets from a base sequence number,
+ * so several views over same store cost 4 bytes per matching log entry each.
+ * <p/>
+ * Sequence numbers are appended as new log entries pass the filter and removed from start as store evicts
+ * log entries. Older log entries can be added at start, so that view can be filled newest first.
+ * Unfiltered view needs no LogView at all, as position in it maps directly to sequence number.
+ * This class is not thread-safe.
+ */
+public class LogView {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Offsets of sequence numbers from {@link #mBaseSequence}. They are from {@link #mStart} till {@link #mEnd}.
+     */
+    private final int mInitialCapacity;
+    private int[] mOffsets;
+    private int mStart;
+    private int mEnd;
+    private long mBaseSequence;
+
+    /**
+     * Positions in views merged by {@link #setUnion(LogView[], int, int)} and sequence numbers at them.
+     * They are kept, so that merging does not allocate.
+     */
+    private int[] mUnionPositions;
+    private long[] mUnionSequences;
+
+    public LogView() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param initialCapacity initial number of sequence numbers which view can keep without growing, e.g. small
+     *                        for view which is likely to have few log entries.
+     */
+    public LogView(int initialCapacity) {
+        mInitialCapacity = Math.max(initialCapacity, 2);
+        mOffsets = new int[mInitialCapacity];
+    }
+
+    /**
+     * Add sequence number at end of view. It should be greater than sequence numbers already in view.
+     *
+     * @param sequence sequence number of log entry in store.
+     */
+    public void add(long sequence) {
+        if (mStart == mEnd) {
+            mStart = 0;
+            mEnd = 0;
+            mBaseSequence = sequence;
+        } else if (sequence - mBaseSequence > Integer.MAX_VALUE) {
+            rebase(mBaseSequence + mOffsets[mStart]);
+        }
+
+        if (mEnd == mOffsets.length) {
+            //Space of removed sequence numbers is reused first.
+            move(mStart > mOffsets.length / 2 ? mOffsets.length : mOffsets.length * 2, 0);
+        }
+        mOffsets[mEnd++] = (int) (sequence - mBaseSequence);
+    }
+
+    /**
+     * Add sequence number at start of view. It should be less than sequence numbers already in view.
+     *
+     * @param sequence sequence number of log entry in store.
+     */
+    public void addFirst(long sequence) {
+        if (mStart == mEnd) {
+            mStart = mOffsets.length / 2;
+            mEnd = mStart;
+            mBaseSequence = sequence;
+        } else if (mBaseSequence - sequence > Integer.MAX_VALUE) {
+            rebase(mBaseSequence + mOffsets[mEnd - 1]);
+        }
+
+        if (mStart == 0) {
+            //Half of free space is kept at start, as view is likely to be filled further backwards.
+            int count = size();
+            int capacity = count > mOffsets.length / 2 ? mOffsets.length * 2 : mOffsets.length;
+            move(capacity, (capacity - count + 1) / 2);
+        }
+        mOffsets[--mStart] = (int) (sequence - mBaseSequence);
+    }
+
+    /**
+     * Get sequence number at given position.
+     *
+     * @param position position in view.
+     * @return sequence number of log entry in store.
+     */
+    public long get(int position) {
+        return mBaseSequence + mOffsets[mStart + position];
+    }
+
+    /**
+     * Replace sequence number at given position, e.g. to remove some log entries from view in place.
+     * Sequence numbers in view should stay in store order.
+     *
+     * @param position position in view.
+     * @param sequence sequence number of log entry in store, not less than the one at position.
+     */
+    public void set(int position, long sequence) {
+        mOffsets[mStart + position] = (int) (sequence - mBaseSequence);
+    }
+
+    /**
+     * Remove sequence numbers from given position till end of view.
+     *
+     * @param size number of sequence numbers which are kept.
+     */
+    public void truncate(int size) {
+        mEnd = mStart + Math.min(Math.max(size, 0), size());
+    }
+
+    /**
+     * Get number of log entries in view.
+     *
+     * @return number of log entries.
+     */
+    public int size() {
+        return mEnd - mStart;
+    }
+
+    /**
+     * Is view empty?
+     *
+     * @return true if yes else false.
+     */
+    public boolean isEmpty() {
+        return mEnd == mStart;
+    }
+
+    /**
+     * Replace sequence numbers of view with union of sequence numbers of given views, in store order.
+     * Sequence number which is in several views is taken once. Memory of view is reused, so it allocates only if
+     * union does not fit in it.
+     *
+     * @param views     views.
+     * @param fromIndex index of first view to be merged.
+     * @param toIndex   index after last view to be merged.
+     */
+    public void setUnion(LogView[] views, int fromIndex, int toIndex) {
+        int count = 0;
+        long baseSequence = 0;
+        if (mUnionPositions == null || mUnionPositions.length < toIndex) {
+            mUnionPositions = new int[toIndex];
+            mUnionSequences = new long[toIndex];
+        }
+        for (int i = fromIndex; i < toIndex; i++) {
+            LogView view = views[i];
+            if (!view.isEmpty() && (count == 0 || view.get(0) < baseSequence)) {
+                baseSequence = view.get(0);
+            }
+            count += view.size();
+            mUnionPositions[i] = view.mStart;
+            mUnionSequences[i] = view.isEmpty() ? Long.MAX_VALUE : view.get(0);
+        }
+
+        if (count > mOffsets.length) {
+            mOffsets = new int[count + count / 2];
+        }
+        mStart = 0;
+        mEnd = 0;
+        mBaseSequence = baseSequence;
+        if (count == 0) {
+            return;
+        }
+        if (toIndex - fromIndex == 1) {
+            LogView view = views[fromIndex];
+            System.arraycopy(view.mOffsets, view.mStart, mOffsets, 0, count);
+            mBaseSequence = view.mBaseSequence;
+            mEnd = count;
+            return;
+        }
+
+        //There are only a few views, so next sequence number is found by comparing their next ones.
+        //Union is complete when next sequence numbers of all views are past their end i.e. Long.MAX_VALUE.
+        long[] sequences = mUnionSequences;
+        while (true) {
+            int nextIndex = fromIndex;
+            for (int i = fromIndex + 1; i < toIndex; i++) {
+                if (sequences[i] < sequences[nextIndex]) {
+                    nextIndex = i;
+                }
+            }
+            if (sequences[nextIndex] == Long.MAX_VALUE) {
+                break;
+            }
+            int offset = (int) (sequences[nextIndex] - baseSequence);
+            if (mEnd == 0 || mOffsets[mEnd - 1] != offset) {
+                mOffsets[mEnd++] = offset;
+            }
+
+            LogView view = views[nextIndex];
+            int position = ++mUnionPositions[nextIndex];
+            sequences[nextIndex] = position < view.mEnd ? view.mBaseSequence + view.mOffsets[position] : Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Remove sequence numbers older than given one, e.g. of log entries evicted from store.
+     *
+     * @param sequence first sequence number which is kept.
+     */
+    public void removeBefore(long sequence) {
+        while (mStart < mEnd && mBaseSequence + mOffsets[mStart] < sequence) {
+            mStart++;
+        }
+    }
+
+    /**
+     * Remove all sequence numbers and release memory of view.
+     */
+    public void clear() {
+        if (mOffsets.length > mInitialCapacity) {
+            mOffsets = new int[mInitialCapacity];
+        }
+        mStart = 0;
+        mEnd = 0;
+    }
+
+    /**
+     * Release memory which is not used by sequence numbers in view.
+     */
+    public void trimToSize() {
+        int capacity = Math.max(size(), mInitialCapacity);
+        if (capacity < mOffsets.length) {
+            move(capacity, 0);
+        }
+    }
+
+    /**
+     * Get memory used by view.
+     *
+     * @return size in bytes.
+     */
+    public long getMemorySize() {
+        return (long) mOffsets.length * 4;
+    }
+
+    /**
+     * Move sequence numbers to given position of array of given capacity.
+     */
+    private void move(int capacity, int start) {
+        int count = mEnd - mStart;
+        int[] offsets = capacity == mOffsets.length ? mOffsets : new int[capacity];
+        System.arraycopy(mOffsets, mStart, offsets, start, count);
+        mOffsets = offsets;
+        mStart = start;
+        mEnd = start + count;
+    }
+
+    /**
+     * Make offsets relative to new base sequence number, so that newer sequence numbers fit in offsets.
+     */
+    private void rebase(long baseSequence) {
+        int shift = (int) (baseSequence - mBaseSequence);
+        for (int i = mStart; i < mEnd; i++) {
+            mOffsets[i] -= shift;
+        }
+        mBaseSequence = baseSequence;
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.ui.adapter;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.fatangare.logcatviewer.R;
+import com.fatangare.logcatviewer.parser.SymbolTable;
+
+import java.util.HashSet;
+
+/**
+ * This is the list adapter for the tag picker i.e. tags of shown log entries, tag of most log entries first.
+ */
+public class LogTagsListAdapter extends BaseAdapter {
+    private LayoutInflater mInflater;
+
+    //Tags and number of their log entries.
+    private int[] mTagIds = new int[0];
+    private int[] mTagCounts = new int[0];
+
+    /**
+     * Ids of tags selected by user.
+     */
+    private HashSet<Integer> mSelectedTagIds = new HashSet<>();
+
+    //Viewholder to hold view.
+    private class ViewHolder {
+        public TextView mTvTagName;
+        public TextView mTvTagCount;
+    }
+
+    public LogTagsListAdapter(Context context) {
+        mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+    }
+
+    /**
+     * Read tags of log entries of log list adapter and tags selected in it.
+     *
+     * @param logcatViewerListAdapter log list adapter.
+     */
+    public void update(LogcatViewerListAdapter logcatViewerListAdapter) {
+        mTagIds = logcatViewerListAdapter.getTagsByVolume();
+        mTagCounts = new int[mTagIds.length];
+        for (int i = 0; i < mTagIds.length; i++) {
+            mTagCounts[i] = logcatViewerListAdapter.getTagCount(mTagIds[i]);
+        }
+
+        mSelectedTagIds.clear();
+        int[] filterTagIds = logcatViewerListAdapter.getFilterTags();
+        if (filterTagIds != null) {
+            for (int tagId : filterTagIds) {
+                mSelectedTagIds.add(tagId);
+            }
+        }
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Select tag or deselect it if it is selected.
+     *
+     * @param pos position of tag.
+     */
+    public void toggleSelection(int pos) {
+        if (!mSelectedTagIds.remove(mTagIds[pos])) {
+            mSelectedTagIds.add(mTagIds[pos]);
+        }
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Get ids of selected tags.
+     *
+     * @return ids of tags in {@link SymbolTable#TAGS}.
+     */
+    public int[] getSelectedTagIds() {
+        int[] tagIds = new int[mSelectedTagIds.size()];
+        int i = 0;
+        for (int tagId : mSelectedTagIds) {
+            tagIds[i++] = tagId;
+        }
+        return tagIds;
+    }
+
+    @Override
+    public int getCount() {
+        return mTagIds.length;
+    }
+
+    @Override
+    public Object getItem(int i) {
+        return SymbolTable.TAGS.getSymbol(mTagIds[i]);
+    }
+
+    @Override
+    public long getItemId(int i) {
+        return mTagIds[i];
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return mTagIds.length == 0;
+    }
+
+    @Override
+    public View getView(int pos, View convertView, ViewGroup parent) {
+        ViewHolder viewHolder;
+
+        if (convertView == null) { //inflate the view here because there's no existing view object.
+            convertView = mInflater.inflate(R.layout.logtag_listitem, parent, false);
+
+            viewHolder = new ViewHolder();
+            viewHolder.mTvTagName = (TextView) convertView.findViewById(R.id.tagName);
+            viewHolder.mTvTagCount = (TextView) convertView.findViewById(R.id.tagCount);
+
+            convertView.setTag(viewHolder);
+
+        } else { //reuse existing view
+            viewHolder = (ViewHolder) convertView.getTag();
+        }
+
+        viewHolder.mTvTagName.setText((String) getItem(pos));
+        viewHolder.mTvTagCount.setText(String.valueOf(mTagCounts[pos]));
+        convertView.setBackgroundColor(mSelectedTagIds.contains(mTagIds[pos]) ? Color.LTGRAY : Color.WHITE);
+
+        return convertView;
+    }
+}
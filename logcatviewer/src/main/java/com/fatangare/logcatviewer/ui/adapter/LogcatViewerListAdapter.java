@@ -19,7 +19,10 @@ package com.fatangare.logcatviewer.ui.adapter;
 
 import android.content.Context;
 import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -28,9 +31,21 @@ import android.widget.ListView;
 import android.widget.TextView;
 
 import com.fatangare.logcatviewer.R;
-
-import java.util.ArrayList;
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.parser.LogTimestamp;
+import com.fatangare.logcatviewer.parser.LogcatFilterSpec;
+import com.fatangare.logcatviewer.parser.SymbolTable;
+import com.fatangare.logcatviewer.store.LogSnapshotWriter;
+import com.fatangare.logcatviewer.store.LogStore;
+import com.fatangare.logcatviewer.store.LogView;
+import com.fatangare.logcatviewer.utils.Constants;
+
+import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * This is the list adapter for the logcat log entries.
@@ -41,14 +56,51 @@ public class LogcatViewerListAdapter extends BaseAdapter {
     //Logcat log entries
 
     /**
-     * Actual log entries.
+     * Actual log entries. Store is bounded, so oldest log entries are evicted from it as new ones are added.
+     */
+    private LogStore mLogcatData;
+
+    /**
+     * Filtered log entries - filtered by source buffer, priority-level and filter-text. Evicted log entries are
+     * removed from it, so it never refers to log entries which are not in {@link #mLogcatData}.
+     * It is used only if {@link #mIsFiltered} is true; otherwise all log entries of store are shown.
+     */
+    private final LogView mFilteredLogcatData = new LogView();
+    private boolean mIsFiltered;
+
+    /**
+     * Maximum time in milliseconds spent at once in filtering stored log-entries. Rest of them are filtered
+     * in next message of main thread, so that large store is filtered without blocking the view.
+     */
+    private static final int FILTER_SLICE_TIME = 8;
+
+    /**
+     * Sequence number of next stored log-entry to be filtered. Stored log-entries are filtered newest first,
+     * so that visible tail of list is filled at once. Filtering is complete when it is before first stored log-entry.
+     */
+    private long mFilterSequence = -1;
+
+    /**
+     * Log-entries taken from index of store which are filtered, and position of {@link #mFilterSequence} in it.
+     * Position is -1 if all stored log-entries are filtered instead.
      */
-    private ArrayList<String> mLogcatData;
+    private final LogView mFilterIndexView = new LogView();
+    private int mFilterIndexPosition = -1;
 
     /**
-     * Filtered log entries - filtered by priority-level and filter-text.
+     * Newest log-entry which was spilled when log-entries were taken from index of store. Index of store has only
+     * log-entries in memory, so spilled log-entries are filtered one by one from it once index is done.
      */
-    private ArrayList<String> mFilteredLogcatData;
+    private long mFilterSpilledSequence = -1;
+
+    private final Handler mHandler = new Handler();
+
+    private final Runnable mFilterRunnable = new Runnable() {
+        @Override
+        public void run() {
+            filterStoredLogEntries();
+        }
+    };
 
     /**
      * Current priority level. It can be any of {@link #mPriorityLevels} values.
@@ -57,9 +109,44 @@ public class LogcatViewerListAdapter extends BaseAdapter {
     private String mLogPriorityLevel = "";
 
     /**
-     * Current filter text. It can be tag, package name or some text.
+     * Minimum android.util.Log priority of current priority level.
+     */
+    private int mMinimumPriority = Log.VERBOSE;
+
+    /**
+     * Current filter text. It can be tag, package name, some text or logcat filter e.g. "MyTag:D *:S".
      */
     private String mLogFilterText = "";
+    private String mLowerCaseLogFilterText = "";
+
+    /**
+     * Current filter text parsed as logcat filter e.g. "MyTag:D *:S". It is null if filter text is ordinary text.
+     */
+    private LogcatFilterSpec mLogFilterSpec;
+
+    /**
+     * Ids of tag and package name which are same as filter text. Log-entry of that tag or package is matched by
+     * comparing ids, without searching filter text in it; any other log-entry is still searched for filter text.
+     */
+    private int mFilterTagId = SymbolTable.NO_SYMBOL;
+    private int mFilterPackageId = SymbolTable.NO_SYMBOL;
+
+    /**
+     * Sorted ids of tags selected by user e.g. in tag picker. Only their log-entries are shown.
+     * It is null if log-entries are not filtered by tags.
+     */
+    private int[] mFilterTagIds;
+
+    /**
+     * Log id of logcat source buffer whose log entries are shown.
+     * {@link Constants#LOG_ID_ALL} means log entries of all source buffers are shown.
+     */
+    private int mLogcatSourceLogId = Constants.LOG_ID_ALL;
+
+    /**
+     * Sequence numbers of repeated log-entries whose repeat details are expanded by user.
+     */
+    private HashSet<Long> mExpandedLogEntries = new HashSet<>();
 
     /**
      * Color map to add text-color to log-entry according to its priority level.
@@ -72,6 +159,11 @@ public class LogcatViewerListAdapter extends BaseAdapter {
     final String[] mPriorityLevels = {PRIORITY_LEVEL_VERBOSE, PRIORITY_LEVEL_DEBUG,
             PRIORITY_LEVEL_INFO, PRIORITY_LEVEL_WARNING, PRIORITY_LEVEL_ERROR};
 
+    /**
+     * android.util.Log priorities for {@link #mPriorityLevels}.
+     */
+    final int[] mPriorities = {Log.VERBOSE, Log.DEBUG, Log.INFO, Log.WARN, Log.ERROR};
+
     /**
      * Verbose priority level.
      */
@@ -93,14 +185,34 @@ public class LogcatViewerListAdapter extends BaseAdapter {
      */
     public static final String PRIORITY_LEVEL_ERROR = " E ";
 
+    /**
+     * Directory in cache directory of app to which log-entries evicted from memory are spilled.
+     */
+    private static final String SCROLLBACK_DIRECTORY = "logcat_scrollback";
+
+    private final File mScrollbackDirectory;
+
+    /**
+     * Time of last log-entry restored from snapshot and text of restored log-entries of that time.
+     * Logcat prints log-entries of previous session again, so received log-entries till that time are skipped.
+     * Time is 0 once it is passed or if nothing is restored.
+     */
+    private long mRestoreBoundaryTimestamp;
+    private HashSet<String> mRestoreBoundaryTexts = new HashSet<>();
+
+    /**
+     * Sequence number which next log-entry would get when snapshot was last captured.
+     */
+    private long mSnapshotSequence = -1;
+
     /**
      * Constructor
      *
      * @param context
      */
     public LogcatViewerListAdapter(Context context) {
-        mLogcatData = new ArrayList<String>();
-        mFilteredLogcatData = new ArrayList<>();
+        mLogcatData = new LogStore(LogStore.DEFAULT_MAX_ENTRIES, LogStore.DEFAULT_MAX_BYTES);
+        mScrollbackDirectory = new File(context.getCacheDir(), SCROLLBACK_DIRECTORY);
 
         mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 
@@ -125,6 +237,11 @@ public class LogcatViewerListAdapter extends BaseAdapter {
 
         //Set current filter text.
         mLogFilterText = logFilterText;
+        mLowerCaseLogFilterText = logFilterText.toLowerCase();
+        mLogFilterSpec = LogcatFilterSpec.parse(logFilterText);
+        mFilterTagId = SymbolTable.NO_SYMBOL;
+        mFilterPackageId = SymbolTable.NO_SYMBOL;
+        resolveFilterSymbols();
         //Filter log entries based on filter-text.
         filterLogcatData();
     }
@@ -142,10 +259,155 @@ public class LogcatViewerListAdapter extends BaseAdapter {
 
         //Set current priority level.
         mLogPriorityLevel = logPriorityLevel;
+        mMinimumPriority = getMinimumPriority(logPriorityLevel);
         //Filter log-entries based on priority level.
         filterLogcatData();
     }
 
+    /**
+     * Show log entries of given tags only. Log entries are taken from tag index of store, so filtering takes time
+     * proportional to number of log entries of given tags. Filter text, priority level and source buffer still apply.
+     *
+     * @param tagIds ids of tags in {@link SymbolTable#TAGS} or null or empty to show log entries of all tags.
+     */
+    public void setFilterTags(int[] tagIds) {
+        int[] filterTagIds = tagIds == null || tagIds.length == 0 ? null : tagIds.clone();
+        if (filterTagIds != null) {
+            Arrays.sort(filterTagIds);
+        }
+        //If new and old values are same then return.
+        if (Arrays.equals(mFilterTagIds, filterTagIds)) {
+            return;
+        }
+
+        //Set current tags.
+        mFilterTagIds = filterTagIds;
+        //Filter log-entries based on tags.
+        filterLogcatData();
+    }
+
+    /**
+     * Return ids of tags whose log entries are shown.
+     * @return sorted ids of tags or null if log entries of all tags are shown.
+     */
+    public int[] getFilterTags() {
+        return mFilterTagIds == null ? null : mFilterTagIds.clone();
+    }
+
+    /**
+     * Get tags of stored log entries, ordered by number of their log entries e.g. to let user pick tags.
+     * @return ids of tags in {@link SymbolTable#TAGS}, tag of most log entries first.
+     */
+    public int[] getTagsByVolume() {
+        return mLogcatData.getTagsByVolume();
+    }
+
+    /**
+     * Get number of stored log entries of tag.
+     * @param tagId id of tag in {@link SymbolTable#TAGS}.
+     * @return number of log entries.
+     */
+    public int getTagCount(int tagId) {
+        return mLogcatData.getTagCount(tagId);
+    }
+
+    /**
+     * Show log entries of given logcat source buffer only.
+     * It is used when service reads several source buffers with single logcat process.
+     *
+     * @param logId log id of source buffer or {@link Constants#LOG_ID_ALL} to show all log entries.
+     */
+    public void setLogcatSourceLogId(int logId) {
+        //If new and old values are same then return.
+        if (mLogcatSourceLogId == logId) {
+            return;
+        }
+
+        //Set current source buffer.
+        mLogcatSourceLogId = logId;
+        //Filter log-entries based on source buffer.
+        filterLogcatData();
+    }
+
+    /**
+     * Set maximum number of stored log entries and their size. If store exceeds new limits, oldest log entries
+     * are evicted.
+     *
+     * @param maxEntries maximum number of log entries.
+     * @param maxBytes   maximum size of log entries in bytes.
+     */
+    public void setStoreLimits(int maxEntries, long maxBytes) {
+        mLogcatData.setLimits(maxEntries, maxBytes);
+        removeEvictedLogEntries();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Set maximum size of scrollback i.e. log entries evicted from memory, which are kept on disk.
+     * Existing scrollback is deleted.
+     *
+     * @param maxBytes maximum size of scrollback in bytes or 0 to drop evicted log entries.
+     */
+    public void setScrollbackLimit(long maxBytes) {
+        mLogcatData.setSpillDirectory(maxBytes > 0 ? mScrollbackDirectory : null, maxBytes);
+        removeEvictedLogEntries();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Reduce memory used by adapter because system is low on memory. Log entries beyond lowered store limits
+     * are moved to scrollback, if it is enabled, till {@link #relaxMemory()} is called.
+     *
+     * @param tier one of LogStore.TRIM_ constants.
+     */
+    public void trimMemory(int tier) {
+        mLogcatData.trimMemory(tier);
+        removeEvictedLogEntries();
+        mFilteredLogcatData.trimToSize();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Restore store limits lowered by {@link #trimMemory(int)}.
+     */
+    public void relaxMemory() {
+        mLogcatData.relaxMemory();
+    }
+
+    /**
+     * Get approximate memory used by log entries of adapter.
+     *
+     * @return size in bytes.
+     */
+    public long getMemoryFootprint() {
+        return mLogcatData.getMemoryFootprint() + mFilteredLogcatData.getMemorySize();
+    }
+
+    /**
+     * Get number of times memory of adapter is trimmed.
+     *
+     * @return number of trims.
+     */
+    public int getTrimCount() {
+        return mLogcatData.getTrimCount();
+    }
+
+    /**
+     * Release resources of adapter e.g. delete scrollback. Adapter should not be used afterwards.
+     */
+    public void close() {
+        mHandler.removeCallbacks(mFilterRunnable);
+        mLogcatData.closeSpill();
+    }
+
+    /**
+     * Are stored log-entries still being filtered? Filtered log-entries are shown as they are found.
+     * @return true if yes else false.
+     */
+    public boolean isFiltering() {
+        return mFilterSequence >= mLogcatData.getFirstSequence();
+    }
+
     /**
      * Return current filter text.
      * @return current filter text.
@@ -162,30 +424,43 @@ public class LogcatViewerListAdapter extends BaseAdapter {
         return mLogPriorityLevel;
     }
 
+    /**
+     * Return logcat filter which reads only log-entries that can pass current priority level and filter text.
+     * @return logcat filter.
+     */
+    public LogcatFilterSpec getLogcatFilterSpec() {
+        //Ordinary filter text can not be expressed as logcat filter.
+        return mLogFilterSpec == null ? LogcatFilterSpec.forPriority(mMinimumPriority)
+                : mLogFilterSpec.withMinimumPriority(mMinimumPriority);
+    }
+
     @Override
     public int getCount() {
-        return mFilteredLogcatData.size();
+        return mIsFiltered ? mFilteredLogcatData.size()
+                : (int) (mLogcatData.getNextSequence() - mLogcatData.getFirstSequence());
     }
 
     @Override
     public long getItemId(int pos) {
-        return pos;
+        //Sequence number stays same for log-entry even if older log-entries are evicted.
+        return mIsFiltered ? mFilteredLogcatData.get(pos) : mLogcatData.getFirstSequence() + pos;
     }
 
     @Override
     public Object getItem(int pos) {
-        return mFilteredLogcatData.get(pos);
+        //Store creates log-entry from its columns.
+        return mLogcatData.get(getItemId(pos));
     }
 
     @Override
     public boolean isEmpty() {
-        return mFilteredLogcatData.size() == 0;
+        return getCount() == 0;
     }
 
     @Override
     public View getView(int pos, View convertView, ViewGroup parent) {
         TextView holder;
-        String logcatEntry = mFilteredLogcatData.get(pos);
+        LogEntry logcatEntry = (LogEntry) getItem(pos);
 
         if (convertView == null) {
             //inflate the view here because there's no existing view object.
@@ -199,113 +474,437 @@ public class LogcatViewerListAdapter extends BaseAdapter {
             holder = (TextView) convertView.getTag();
         }
 
-        holder.setText(logcatEntry);
+        holder.setText(getDisplayText(logcatEntry));
         holder.setTextColor(getTextColorForLogcatEntry(logcatEntry));
 
         final boolean autoscroll =
                 (parent.getScrollY() + parent.getHeight() >= parent.getBottom());
 
         if (autoscroll) {
-            ((ListView) parent).setSelection(mFilteredLogcatData.size() - 1);
+            ((ListView) parent).setSelection(getCount() - 1);
         }
 
         return convertView;
     }
 
+    /**
+     * Expand or collapse repeat details of log-entry i.e. how many times and till when it is repeated.
+     * @param pos position of log-entry.
+     * @return true if log-entry is repeated and its details are toggled else false.
+     */
+    public boolean toggleRepeatDetails(int pos) {
+        LogEntry logcatEntry = (LogEntry) getItem(pos);
+        if (logcatEntry.getRepeatCount() == 0) {
+            return false;
+        }
+
+        if (!mExpandedLogEntries.remove(logcatEntry.getSequence())) {
+            mExpandedLogEntries.add(logcatEntry.getSequence());
+        }
+        notifyDataSetChanged();
+        return true;
+    }
+
     /**
      * add new log-entry to list.
      * @param logEnry new log-entry
      */
-    public void addLogEntry(String logEnry) {
-        mLogcatData.add(logEnry);
-        addFilterLogcatEntry(logEnry);
+    public void addLogEntry(LogEntry logEnry) {
+        if (isRestoredLogEntry(logEnry)) {
+            return;
+        }
+        long sequence = mLogcatData.append(logEnry);
+        if (resolveFilterSymbols()) {
+            filterLogcatData();
+            return;
+        }
+        if (mLogcatData.contains(sequence)) {
+            addFilterLogcatEntry(sequence);
+        }
+        removeEvictedLogEntries();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * add batch of new log-entries to list. List-view is updated only once for whole batch.
+     * @param logEntries new log-entries in the order they are received.
+     */
+    public void addLogEntries(List<LogEntry> logEntries) {
+        long firstSequence = mLogcatData.getNextSequence();
+        for (LogEntry logEntry : logEntries) {
+            if (!isRestoredLogEntry(logEntry)) {
+                mLogcatData.append(logEntry);
+            }
+        }
+        if (resolveFilterSymbols()) {
+            filterLogcatData();
+            return;
+        }
+
+        //Some log-entries of batch may be evicted already.
+        if (mIsFiltered) {
+            long nextSequence = mLogcatData.getNextSequence();
+            for (long sequence = Math.max(firstSequence, mLogcatData.getFirstSequence()); sequence < nextSequence;
+                 sequence++) {
+                addFilterLogcatEntry(sequence);
+            }
+        }
+        removeEvictedLogEntries();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Update repeat counts of stored log-entries from log-entries which are repeated since they were added.
+     * @param logEntries repeated log-entries as they were added.
+     */
+    public void updateRepeats(List<LogEntry> logEntries) {
+        for (LogEntry logEntry : logEntries) {
+            //Log-entry which is not added yet gets its repeat count when it is added.
+            if (mLogcatData.contains(logEntry.getSequence())) {
+                mLogcatData.setRepeats(logEntry.getSequence(), logEntry.getRepeatCount(),
+                        logEntry.getLastRepeatTimestamp());
+            }
+        }
         notifyDataSetChanged();
     }
 
+    /**
+     * Capture log-entries in memory added since last snapshot, so that they can be restored when view is opened
+     * again. See {@link LogSnapshotWriter}.
+     * @param snapshotWriter writer of snapshot.
+     * @return segment of snapshot or null if no log-entry is added since last snapshot.
+     */
+    public LogSnapshotWriter.Segment captureSnapshot(LogSnapshotWriter snapshotWriter) {
+        if (mSnapshotSequence == mLogcatData.getNextSequence()) {
+            return null;
+        }
+        LogSnapshotWriter.Segment segment = snapshotWriter.capture(mLogcatData, mSnapshotSequence);
+        mSnapshotSequence = mLogcatData.getNextSequence();
+        return segment;
+    }
+
+    /**
+     * Check if memory used by log entries is trimmed, i.e. memory pressure was reported recently.
+     * @return true if yes else false.
+     */
+    public boolean isMemoryTrimmed() {
+        return mLogcatData.getTrimTier() != LogStore.TRIM_NONE;
+    }
+
+    /**
+     * Mark end of log-entries restored from snapshot. Received log-entries which logcat prints again
+     * i.e. which are not newer than last restored log-entry are skipped.
+     */
+    public void finishRestore() {
+        mRestoreBoundaryTimestamp = 0;
+        mRestoreBoundaryTexts.clear();
+        long firstSequence = mLogcatData.getFirstSequence();
+        for (long sequence = mLogcatData.getNextSequence() - 1; sequence >= firstSequence; sequence--) {
+            long timestamp = mLogcatData.getTimestamp(sequence);
+            if (mLogcatData.isGapMarker(sequence) || timestamp <= 0) {
+                continue;
+            }
+            if (mRestoreBoundaryTimestamp != 0 && timestamp != mRestoreBoundaryTimestamp) {
+                break;
+            }
+            mRestoreBoundaryTimestamp = timestamp;
+            mRestoreBoundaryTexts.add(mLogcatData.getText(sequence));
+        }
+        //Restored log-entries are already in snapshot.
+        mSnapshotSequence = mLogcatData.getNextSequence();
+    }
+
+    /**
+     * Check if received log-entry is printed again by logcat and it is already restored from snapshot.
+     * @param logEntry received log-entry.
+     * @return true if yes else false.
+     */
+    private boolean isRestoredLogEntry(LogEntry logEntry) {
+        if (mRestoreBoundaryTimestamp == 0 || logEntry.isGapMarker()) {
+            return false;
+        }
+
+        long timestamp = logEntry.getTimestamp();
+        if (timestamp > mRestoreBoundaryTimestamp) {
+            //Restore boundary is passed.
+            mRestoreBoundaryTimestamp = 0;
+            mRestoreBoundaryTexts.clear();
+            return false;
+        }
+        return timestamp > 0 && (timestamp < mRestoreBoundaryTimestamp
+                || mRestoreBoundaryTexts.remove(logEntry.getText()));
+    }
+
     /**
      * Reset log-entries.
-     * Set filter text to empty and priority level to verbose and show all log-entries.
+     * Set filter text to empty and priority level to verbose and show all log-entries of selected source buffer.
      */
     public void reset() {
         mLogFilterText = "";
+        mLowerCaseLogFilterText = "";
+        mLogFilterSpec = null;
+        mFilterTagId = SymbolTable.NO_SYMBOL;
+        mFilterPackageId = SymbolTable.NO_SYMBOL;
+        mFilterTagIds = null;
         mLogPriorityLevel = "";
-        mFilteredLogcatData.clear();
-        mFilteredLogcatData.addAll(mLogcatData);
-        notifyDataSetChanged();
+        mMinimumPriority = Log.VERBOSE;
+        //Selected source buffer is kept as it is not a filter set by user.
+        filterLogcatData();
     }
 
     /**
-     * Filter log-entries based on {@link #mLogFilterText} and {@link #mLogPriorityLevel}.
+     * Filter log-entries based on {@link #mLogcatSourceLogId}, {@link #mLogFilterText}, {@link #mFilterTagIds}
+     * and {@link #mLogPriorityLevel}. Stored log-entries, or only those of filtered tags, are filtered progressively,
+     * newest first, unless those in memory can be taken from priority index of store; filtering in progress is
+     * cancelled.
+     * List-view is notified once here, so callers need not notify it again.
      */
     private void filterLogcatData() {
+        mHandler.removeCallbacks(mFilterRunnable);
+        mFilterSequence = -1;
+        mFilterIndexPosition = -1;
+        mFilterIndexView.clear();
+
+        //If filter-text is empty, priority level is verbose and all source buffers are shown then filtering is not
+        //required. Store itself is shown then, so switching back to unfiltered log-entries takes no time.
+        mIsFiltered = mMinimumPriority > Log.VERBOSE || !TextUtils.isEmpty(mLogFilterText)
+                || mLogcatSourceLogId != Constants.LOG_ID_ALL || mFilterTagIds != null;
+        if (!mIsFiltered) {
+            mFilteredLogcatData.clear();
+            notifyDataSetChanged();
+            return;
+        }
+
+        //If log-entries are filtered by tags selected by user, only log-entries of those tags are taken from tag index
+        //of store and filtered further, progressively like all stored log-entries.
+        if (mFilterTagIds != null) {
+            mFilteredLogcatData.clear();
+            mLogcatData.selectByTags(mFilterTagIds, mFilterIndexView);
+            mFilterSpilledSequence = mLogcatData.getFirstInMemorySequence() - 1;
+            mFilterIndexPosition = mFilterIndexView.size() - 1;
+            mFilterSequence = mFilterIndexPosition >= 0 ? mFilterIndexView.get(mFilterIndexPosition)
+                    : mFilterSpilledSequence;
+            filterStoredLogEntries();
+            return;
+        }
+
+        //If only priority level and source buffer are set, log-entries in memory are taken from priority index of
+        //store at once. Spilled log-entries are not in index, so they are filtered progressively.
+        if (TextUtils.isEmpty(mLogFilterText)) {
+            mLogcatData.selectByPriority(mLogcatSourceLogId, mMinimumPriority, mFilteredLogcatData);
+            mFilterSequence = mLogcatData.getFirstInMemorySequence() - 1;
+            filterStoredLogEntries();
+            return;
+        }
         mFilteredLogcatData.clear();
 
-        //If filter-text is empty and priority level is empty then filtering is not required.
-        if (TextUtils.isEmpty(mLogPriorityLevel) && TextUtils.isEmpty(mLogFilterText)) {
-            mFilteredLogcatData = new ArrayList<>(mLogcatData);
+        //Log-entries added from now on are filtered as they are added.
+        mFilterSequence = mLogcatData.getNextSequence() - 1;
+        filterStoredLogEntries();
+    }
+
+    /**
+     * Filter stored log-entries, or log-entries of {@link #mFilterIndexView}, backwards from {@link #mFilterSequence}
+     * for at most {@link #FILTER_SLICE_TIME} and schedule filtering of rest of them.
+     */
+    private void filterStoredLogEntries() {
+        long deadline = SystemClock.uptimeMillis() + FILTER_SLICE_TIME;
+        //Evicted log-entries need not be filtered.
+        long firstSequence = mLogcatData.getFirstSequence();
+
+        //Filter each log-entry by its columns in store, so that no log-entry object is created for it.
+        //Time is checked once in a while, as it costs more than filtering a log-entry by its columns.
+        int count = 0;
+        while (mFilterSequence >= firstSequence) {
+            if (filterConditionForLogcatEntry(mFilterSequence)) {
+                mFilteredLogcatData.addFirst(mFilterSequence);
+            }
+            mFilterSequence = getPreviousFilterSequence();
+            if ((++count & 0xff) == 0 && SystemClock.uptimeMillis() >= deadline) {
+                break;
+            }
+        }
+
+        if (mFilterSequence >= firstSequence) {
+            mHandler.post(mFilterRunnable);
+        } else {
+            mFilterIndexPosition = -1;
+            mFilterIndexView.clear();
         }
+        notifyDataSetChanged();
+    }
 
-        //Filter each log-entry
-        for (String logcatEntry : mLogcatData) {
-            if ((TextUtils.isEmpty(mLogPriorityLevel) || (!TextUtils.isEmpty(mLogPriorityLevel) && priorityLevelConditionForFiltering(logcatEntry))) &&
-                    (TextUtils.isEmpty(mLogFilterText) || (!TextUtils.isEmpty(mLogFilterText) &&
-                            logcatEntry.toLowerCase().contains(mLogFilterText.toLowerCase())))) {
-                mFilteredLogcatData.add(logcatEntry);
+    /**
+     * Get sequence number of log-entry to be filtered after {@link #mFilterSequence}. Once no log-entry is left in
+     * {@link #mFilterIndexView}, spilled log-entries are filtered from {@link #mFilterSpilledSequence}.
+     * @return sequence number.
+     */
+    private long getPreviousFilterSequence() {
+        if (mFilterIndexPosition < 0) {
+            return mFilterSequence - 1;
+        }
+        mFilterIndexPosition--;
+        return mFilterIndexPosition >= 0 ? mFilterIndexView.get(mFilterIndexPosition) : mFilterSpilledSequence;
+    }
+
+    /**
+     * Remove log-entries evicted from store from filtered log-entries and expanded log-entries.
+     */
+    private void removeEvictedLogEntries() {
+        long firstSequence = mLogcatData.getFirstSequence();
+        mFilteredLogcatData.removeBefore(firstSequence);
+
+        Iterator<Long> iterator = mExpandedLogEntries.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() < firstSequence) {
+                iterator.remove();
             }
         }
     }
 
+    /**
+     * Check if log-entry matches {@link #mLogcatSourceLogId}, {@link #mLogPriorityLevel}, {@link #mFilterTagIds}
+     * and {@link #mLogFilterText}.
+     * @param sequence sequence number of log-entry in store.
+     * @return true if log-entry should be shown else false.
+     */
+    private boolean filterConditionForLogcatEntry(long sequence) {
+        //Gap marker is always shown, so that missing log-entries are never hidden.
+        if (mLogcatData.isGapMarker(sequence)) {
+            return true;
+        }
+
+        return (mLogcatSourceLogId == Constants.LOG_ID_ALL || mLogcatData.getLogId(sequence) == mLogcatSourceLogId) &&
+                (TextUtils.isEmpty(mLogPriorityLevel) || priorityLevelConditionForFiltering(sequence)) &&
+                (mFilterTagIds == null || Arrays.binarySearch(mFilterTagIds, mLogcatData.getTagId(sequence)) >= 0) &&
+                (TextUtils.isEmpty(mLogFilterText) || filterTextConditionForFiltering(sequence));
+    }
+
+    /**
+     * Filter log-entry based on filter text. Filter text can be logcat filter or some text, which is searched in
+     * log-entry ignoring case. Log-entry whose tag or package name is same as filter text is matched by its ids
+     * without searching its text.
+     * @param sequence sequence number of log-entry in store.
+     * @return true if log-entry matches filter text else false.
+     */
+    private boolean filterTextConditionForFiltering(long sequence) {
+        if (mLogFilterSpec != null) {
+            return mLogFilterSpec.matches(mLogcatData.get(sequence));
+        }
+
+        if ((mFilterTagId != SymbolTable.NO_SYMBOL && mLogcatData.getTagId(sequence) == mFilterTagId)
+                || (mFilterPackageId != SymbolTable.NO_SYMBOL
+                && mLogcatData.getPackageId(sequence) == mFilterPackageId)) {
+            return true;
+        }
+
+        return mLogcatData.getText(sequence).toLowerCase().contains(mLowerCaseLogFilterText);
+    }
+
+    /**
+     * Find ids of tag and package name which are same as filter text. Tag or package may be seen only after
+     * filter text is set, hence ids are looked up again with new log-entries till they are found.
+     * @return true if package id is newly found, so log-entries should be filtered again, else false.
+     *         Log-entries of tag which is same as filter text contain filter text anyway, hence finding tag id
+     *         does not change filtered log-entries.
+     */
+    private boolean resolveFilterSymbols() {
+        if (mLogFilterSpec != null || TextUtils.isEmpty(mLogFilterText)) {
+            return false;
+        }
+
+        if (mFilterTagId == SymbolTable.NO_SYMBOL) {
+            mFilterTagId = SymbolTable.TAGS.find(mLogFilterText);
+        }
+        if (mFilterPackageId == SymbolTable.NO_SYMBOL) {
+            mFilterPackageId = SymbolTable.PACKAGES.find(mLogFilterText);
+            return mFilterPackageId != SymbolTable.NO_SYMBOL;
+        }
+        return false;
+    }
+
     /**
      * Filter log-entry based on priority levels.
      * All log-entries for current priority level and below it should be shown.
      * e.g. If {@link #PRIORITY_LEVEL_WARNING} is set, log-entries for warning and error priority levels should be shown.
-     * @param logcatEntry log-entry
+     * @param sequence sequence number of log-entry in store.
      * @return true if log-entry is in given priority level else false.
      */
-    private boolean priorityLevelConditionForFiltering(String logcatEntry) {
-        int size = mPriorityLevels.length;
-        for (int i = 0; i < size; i++) {
-            //if current priority level is found
-            if (mPriorityLevels[i].equals(mLogPriorityLevel)) {
-                //Check if either current priority level or below it in hierarchy is part of given log-entry.
-                for (int j = i; j < size; j++) {
-                    String priorityLevel1 = mPriorityLevels[j].trim() + "/";
-                    if (logcatEntry.contains(mPriorityLevels[j]) || logcatEntry.contains(priorityLevel1)) {
-                        return true;
-                    }
-                }
-                return false;
+    private boolean priorityLevelConditionForFiltering(long sequence) {
+        //Priority is parsed at ingest. Log-entry of unknown priority e.g. divider line is treated as verbose.
+        int priority = mLogcatData.getPriority(sequence);
+        return (priority == LogEntry.PRIORITY_UNKNOWN ? Log.VERBOSE : priority) >= mMinimumPriority;
+    }
+
+    /**
+     * Get minimum android.util.Log priority of priority level.
+     * @param logPriorityLevel priority level.
+     * @return priority; verbose if priority level is empty or not known.
+     */
+    private int getMinimumPriority(String logPriorityLevel) {
+        for (int i = 0; i < mPriorityLevels.length; i++) {
+            if (mPriorityLevels[i].equals(logPriorityLevel)) {
+                return mPriorities[i];
             }
         }
-        return false;
+        return Log.VERBOSE;
     }
 
     /**
      * First filter new log-entry and if it is filtered, add it to list.
-     * @param logcatEntry
+     * @param sequence sequence number of log-entry in store.
      */
-    private void addFilterLogcatEntry(String logcatEntry) {
-        if ((TextUtils.isEmpty(mLogPriorityLevel) || (!TextUtils.isEmpty(mLogPriorityLevel) && priorityLevelConditionForFiltering(logcatEntry))) &&
-                (TextUtils.isEmpty(mLogFilterText) || (!TextUtils.isEmpty(mLogFilterText) &&
-                        logcatEntry.toLowerCase().contains(mLogFilterText.toLowerCase())))) {
-            mFilteredLogcatData.add(logcatEntry);
+    private void addFilterLogcatEntry(long sequence) {
+        if (mIsFiltered && filterConditionForLogcatEntry(sequence)) {
+            mFilteredLogcatData.add(sequence);
         }
     }
 
+    /**
+     * Get text of log-entry to be shown. Repeated log-entry is shown with its repeat count or, if expanded,
+     * with time of first and last repeats.
+     * @param logcatEntry log-entry.
+     * @return text to be shown.
+     */
+    private String getDisplayText(LogEntry logcatEntry) {
+        String text = logcatEntry.getText();
+        int repeatCount = logcatEntry.getRepeatCount();
+        if (repeatCount == 0) {
+            return text;
+        }
+
+        StringBuilder builder = new StringBuilder(text.length() + 64).append(text);
+        if (!mExpandedLogEntries.contains(logcatEntry.getSequence())) {
+            return builder.append("  (x").append(repeatCount + 1).append(')').toString();
+        }
+
+        builder.append("\n--------- repeated ").append(repeatCount).append(" more times");
+        long firstTimestamp = logcatEntry.getTimestamp();
+        long lastTimestamp = logcatEntry.getLastRepeatTimestamp();
+        if (firstTimestamp > 0 && lastTimestamp > 0) {
+            LogTimestamp.appendTimestamp(builder.append(" from "), firstTimestamp);
+            LogTimestamp.appendTimestamp(builder.append(" to "), lastTimestamp);
+        }
+        return builder.toString();
+    }
+
     /**
      * Get text-color for log-entry based on its priority level.
      * @param logcatEntry log entry.
      * @return text-color for log entry.
      */
-    private int getTextColorForLogcatEntry(String logcatEntry) {
+    private int getTextColorForLogcatEntry(LogEntry logcatEntry) {
         String priorityLevel = PRIORITY_LEVEL_VERBOSE; //default:verbose
 
-        //get priority level of log-entry.
-        for (String key : mPriorityLevelColorMap.keySet()) {
-            String key1 = key.trim() + "/";
-            if (logcatEntry.contains(key) || logcatEntry.contains(key1)) {
-                priorityLevel = key;
-                break;
+        //Gap marker is shown as warning.
+        if (logcatEntry.isGapMarker()) {
+            return mPriorityLevelColorMap.get(PRIORITY_LEVEL_WARNING);
+        }
+
+        //get priority level of log-entry from its parsed priority; fatal is shown as error.
+        for (int i = 0; i < mPriorities.length; i++) {
+            if (logcatEntry.getPriority() >= mPriorities[i]) {
+                priorityLevel = mPriorityLevels[i];
             }
         }
 
@@ -31,12 +31,66 @@ public class Constants {
     public static final String LOGCAT_SOURCE_BUFFER_MAIN = "main";
     public static final String LOGCAT_SOURCE_BUFFER_RADIO = "radio";
     public static final String LOGCAT_SOURCE_BUFFER_EVENTS = "events";
+    public static final String LOGCAT_SOURCE_BUFFER_SYSTEM = "system";
+    public static final String LOGCAT_SOURCE_BUFFER_CRASH = "crash";
+
+    /**
+     * Logcat source buffers indexed by their log id as used in binary logcat output.
+     */
+    private static final String[] LOGCAT_SOURCE_BUFFER_LOG_IDS = {LOGCAT_SOURCE_BUFFER_MAIN,
+            LOGCAT_SOURCE_BUFFER_RADIO, LOGCAT_SOURCE_BUFFER_EVENTS, LOGCAT_SOURCE_BUFFER_SYSTEM,
+            LOGCAT_SOURCE_BUFFER_CRASH};
+
+    /**
+     * Logcat source buffers which can be read together by single logcat process.
+     * 'system' and 'crash' buffers are available since Android 5.0.
+     */
+    public static final String[] LOGCAT_SOURCE_BUFFERS_ALL = LOGCAT_SOURCE_BUFFER_LOG_IDS.clone();
+
+    /**
+     * Log id which matches log entries of all logcat source buffers.
+     */
+    public static final int LOG_ID_ALL = -1;
+
+    /**
+     * Log id of log entries whose source buffer is not known e.g. text log entries read from several buffers
+     * on device whose logcat does not print divider lines. It is not log id of any logcat source buffer.
+     */
+    public static final int LOG_ID_UNKNOWN = 8;
 
     /**
      * Top Logcat logger directory to save log entries.
      */
     private static final String LOG_RECORD_DIR = "/LogcatViewer/";
 
+    /**
+     * Get log id of logcat source buffer.
+     *
+     * @param logcatSource logcat source buffer e.g. {@link #LOGCAT_SOURCE_BUFFER_MAIN}.
+     * @return log id or 0 ('main') if source buffer is not known.
+     */
+    public static int getLogId(String logcatSource) {
+        for (int i = 0; i < LOGCAT_SOURCE_BUFFER_LOG_IDS.length; i++) {
+            if (LOGCAT_SOURCE_BUFFER_LOG_IDS[i].equals(logcatSource)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get logcat source buffer for log id.
+     *
+     * @param logId log id.
+     * @return logcat source buffer or null if log id is not known.
+     */
+    public static String getLogcatSource(int logId) {
+        if (logId < 0 || logId >= LOGCAT_SOURCE_BUFFER_LOG_IDS.length) {
+            return null;
+        }
+        return LOGCAT_SOURCE_BUFFER_LOG_IDS[logId];
+    }
+
     /**
      * Get directory where logs are saved.
      *
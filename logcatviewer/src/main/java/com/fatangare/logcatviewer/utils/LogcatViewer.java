@@ -20,6 +20,8 @@ package com.fatangare.logcatviewer.utils;
 import android.content.Context;
 
 import com.fatangare.logcatviewer.service.LogcatViewerFloatingView;
+import com.fatangare.logcatviewer.store.LogSpill;
+import com.fatangare.logcatviewer.store.LogStore;
 
 import wei.mark.standout.StandOutWindow;
 
@@ -37,6 +39,40 @@ public class LogcatViewer {
                 .show(context, LogcatViewerFloatingView.class, StandOutWindow.DEFAULT_ID);
     }
 
+    /**
+     * Show only logcat logs of this application, following its processes when they are restarted.
+     * It should be called before {@link #showLogcatLoggerView(Context)}. It can be changed in the view as well.
+     *
+     * @param appOnlyMode true to show only logs of this application, false to show all logs.
+     */
+    public static void setAppOnlyMode(boolean appOnlyMode) {
+        LogcatViewerFloatingView.setAppOnlyMode(appOnlyMode);
+    }
+
+    /**
+     * Set how many logcat logs are kept in memory of the view. Once either limit is reached, oldest logs are moved
+     * to scrollback on disk (see {@link #setScrollbackLimit(long)}), so memory of the view never grows beyond these
+     * limits however long it is open.
+     * It should be called before {@link #showLogcatLoggerView(Context)}.
+     *
+     * @param maxEntries maximum number of logs. Default is {@link LogStore#DEFAULT_MAX_ENTRIES}.
+     * @param maxBytes   maximum size of logs in bytes. Default is {@link LogStore#DEFAULT_MAX_BYTES}.
+     */
+    public static void setStoreLimits(int maxEntries, long maxBytes) {
+        LogcatViewerFloatingView.setStoreLimits(maxEntries, maxBytes);
+    }
+
+    /**
+     * Set maximum size of scrollback i.e. logs beyond store limits, which are kept in cache directory of app
+     * and read back when user scrolls to them. It should be called before {@link #showLogcatLoggerView(Context)}.
+     *
+     * @param maxBytes maximum size of scrollback in bytes or 0 to drop logs beyond store limits.
+     *                 Default is {@link LogSpill#DEFAULT_MAX_BYTES}.
+     */
+    public static void setScrollbackLimit(long maxBytes) {
+        LogcatViewerFloatingView.setScrollbackLimit(maxBytes);
+    }
+
     /**
      * Close  {@link LogcatViewerFloatingView} view.
      *
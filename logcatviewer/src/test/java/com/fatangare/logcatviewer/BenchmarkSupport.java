@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.fatangare.logcatviewer;
+
+import com.fatangare.logcatviewer.source.SyntheticLogSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Helpers of benchmark tests which measure ingestion paths on plain JVM with load of {@link SyntheticLogSource}.
+ * Benchmarks assert that compared paths produce same results; measured numbers are printed, since they depend
+ * on machine and JVM, and only targets with a wide margin e.g. "well under 50 ms" are asserted.
+ * Each measurement is repeated and best run is reported, so that warm-up is not measured.
+ */
+public final class BenchmarkSupport {
+    /**
+     * Number of runs of each measurement.
+     */
+    public static final int RUNS = 5;
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Generate 'threadtime' lines of {@link SyntheticLogSource} with default tags and priority mix. Same lines are
+     * generated on each call, apart from their timestamps.
+     *
+     * @param lineCount number of lines.
+     * @return bytes of lines, each terminated by new line.
+     * @throws IOException if generating fails.
+     */
+    public static byte[] generateLines(int lineCount) throws IOException {
+        SyntheticLogSource source = new SyntheticLogSource(0);
+        InputStream inputStream = source.open();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(lineCount * 100);
+        byte[] buffer = new byte[64 * 1024];
+        int lines = 0;
+        try {
+            while (lines < lineCount) {
+                int count = inputStream.read(buffer, 0, buffer.length);
+                if (count < 0) {
+                    break;
+                }
+                int end = 0;
+                while (end < count && lines < lineCount) {
+                    if (buffer[end++] == '\n') {
+                        lines++;
+                    }
+                }
+                outputStream.write(buffer, 0, end);
+            }
+        } finally {
+            inputStream.close();
+            source.close();
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Get heap used by live objects, after collecting garbage.
+     *
+     * @return size in bytes.
+     */
+    public static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Print throughput of measurement.
+     *
+     * @param name  name of measurement.
+     * @param bytes number of processed bytes.
+     * @param lines number of processed lines.
+     * @param nanos time of best run in nanoseconds.
+     */
+    public static void reportThroughput(String name, long bytes, long lines, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format(Locale.US, "%-40s %8.1f MB/s %12.0f lines/s %10.2f ms",
+                name, bytes / seconds / (1024 * 1024), lines / seconds, nanos / 1e6));
+    }
+
+    /**
+     * Print result of measurement.
+     *
+     * @param name   name of measurement.
+     * @param value  measured value.
+     * @param unit   unit of value.
+     */
+    public static void report(String name, double value, String unit) {
+        System.out.println(String.format(Locale.US, "%-40s %12.2f %s", name, value, unit));
+    }
+}
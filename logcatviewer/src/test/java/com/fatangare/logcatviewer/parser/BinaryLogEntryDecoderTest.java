@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.fatangare.logcatviewer.parser;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link BinaryLogEntryDecoder} against 'logcat_binary.bin' fixture.
+ * Fixture contains 'logger_entry' records in the layout written by 'logcat -B':
+ * <pre>
+ * 1. v1 header (hdr_size 0), priority I, tag 'ActivityManager'
+ * 2. v2 header (euid 1000), priority E, message with trailing new line
+ * 3. v3 header (lid 3 i.e. 'system'), priority D
+ * 4. v4 header (lid 0, uid 10057), priority W, message with invalid UTF-8 bytes
+ * 5. v4 header (lid 2 i.e. 'events'), event tag 30000 with list [int 42, string "hello"]
+ * </pre>
+ */
+public class BinaryLogEntryDecoderTest {
+    private static final String FIXTURE = "logcat_binary.bin";
+
+    /**
+     * Log id passed to decoder for headers which do not carry log id.
+     */
+    private static final int DEFAULT_LOG_ID = 4;
+
+    private static final int ENTRY_COUNT = 5;
+
+    @Test
+    public void decodesV1Header() throws IOException {
+        LogEntry logEntry = readAll(new ByteArrayInputStream(readFixture())).get(0);
+        assertEquals(100, logEntry.getPid());
+        assertEquals(101, logEntry.getTid());
+        assertEquals(1476000000L * 1000000000L + 123456789L, logEntry.getTimestamp());
+        assertEquals(Log.INFO, logEntry.getPriority());
+        assertEquals("ActivityManager", logEntry.getTag());
+        assertEquals("Start proc 1234", logEntry.getMessage());
+        assertEquals(DEFAULT_LOG_ID, logEntry.getLogId());
+    }
+
+    @Test
+    public void decodesV2Header() throws IOException {
+        LogEntry logEntry = readAll(new ByteArrayInputStream(readFixture())).get(1);
+        assertEquals(200, logEntry.getPid());
+        assertEquals(Log.ERROR, logEntry.getPriority());
+        assertEquals("Tag2", logEntry.getTag());
+        //Trailing new line is stripped
+        assertEquals("failure", logEntry.getMessage());
+        //euid is not log id
+        assertEquals(DEFAULT_LOG_ID, logEntry.getLogId());
+    }
+
+    @Test
+    public void decodesV3Header() throws IOException {
+        LogEntry logEntry = readAll(new ByteArrayInputStream(readFixture())).get(2);
+        assertEquals(300, logEntry.getPid());
+        assertEquals(Log.DEBUG, logEntry.getPriority());
+        assertEquals("SystemTag", logEntry.getTag());
+        assertEquals("debug message", logEntry.getMessage());
+        assertEquals(3, logEntry.getLogId());
+    }
+
+    @Test
+    public void decodesV4Header() throws IOException {
+        LogEntry logEntry = readAll(new ByteArrayInputStream(readFixture())).get(3);
+        assertEquals(400, logEntry.getPid());
+        assertEquals(401, logEntry.getTid());
+        assertEquals(1476000003L * 1000000000L + 7L, logEntry.getTimestamp());
+        assertEquals(Log.WARN, logEntry.getPriority());
+        assertEquals("Charset", logEntry.getTag());
+        assertEquals(0, logEntry.getLogId());
+    }
+
+    @Test
+    public void replacesNonUtf8Bytes() throws IOException {
+        LogEntry logEntry = readAll(new ByteArrayInputStream(readFixture())).get(3);
+        String message = logEntry.getMessage();
+        assertTrue(message, message.startsWith("bad "));
+        assertTrue(message, message.endsWith(" bytes"));
+        assertTrue(message, message.indexOf('\uFFFD') > 0);
+    }
+
+    @Test
+    public void decodesEvent() throws IOException {
+        LogEntry logEntry = readAll(new ByteArrayInputStream(readFixture())).get(4);
+        assertEquals(500, logEntry.getPid());
+        assertEquals("30000", logEntry.getTag());
+        assertEquals("[42,hello]", logEntry.getMessage());
+        assertEquals(2, logEntry.getLogId());
+    }
+
+    @Test
+    public void decodesEntriesSplitAcrossReads() throws IOException {
+        List<LogEntry> expected = readAll(new ByteArrayInputStream(readFixture()));
+        List<LogEntry> actual = readAll(new ChunkedInputStream(new ByteArrayInputStream(readFixture()), 3));
+
+        assertEquals(ENTRY_COUNT, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getPid(), actual.get(i).getPid());
+            assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+            assertEquals(expected.get(i).getPriority(), actual.get(i).getPriority());
+            assertEquals(expected.get(i).getTag(), actual.get(i).getTag());
+            assertEquals(expected.get(i).getMessage(), actual.get(i).getMessage());
+            assertEquals(expected.get(i).getLogId(), actual.get(i).getLogId());
+        }
+    }
+
+    @Test
+    public void throwsOnTruncatedPayload() throws IOException {
+        byte[] fixture = readFixture();
+        //Cut first entry (20 bytes header + 33 bytes payload) in middle of message
+        byte[] truncated = new byte[40];
+        System.arraycopy(fixture, 0, truncated, 0, truncated.length);
+
+        BinaryLogEntryDecoder decoder = new BinaryLogEntryDecoder(new ByteArrayInputStream(truncated), DEFAULT_LOG_ID);
+        try {
+            decoder.readLogEntry();
+            fail("Truncated payload is decoded");
+        } catch (EOFException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void returnsNullAtEndOfStream() throws IOException {
+        BinaryLogEntryDecoder decoder = new BinaryLogEntryDecoder(new ByteArrayInputStream(new byte[0]), DEFAULT_LOG_ID);
+        assertNull(decoder.readLogEntry());
+    }
+
+    private static List<LogEntry> readAll(InputStream inputStream) throws IOException {
+        BinaryLogEntryDecoder decoder = new BinaryLogEntryDecoder(inputStream, DEFAULT_LOG_ID);
+        List<LogEntry> logEntries = new ArrayList<LogEntry>();
+        LogEntry logEntry;
+        while ((logEntry = decoder.readLogEntry()) != null) {
+            logEntries.add(logEntry);
+        }
+        return logEntries;
+    }
+
+    private byte[] readFixture() throws IOException {
+        InputStream inputStream = getClass().getResourceAsStream(FIXTURE);
+        assertNotNull(FIXTURE, inputStream);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Input stream which returns at most given number of bytes per read, like pipe of 'logcat -B'.
+     */
+    private static class ChunkedInputStream extends FilterInputStream {
+        private final int mChunkSize;
+
+        ChunkedInputStream(InputStream inputStream, int chunkSize) {
+            super(inputStream);
+            mChunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, mChunkSize));
+        }
+    }
+}
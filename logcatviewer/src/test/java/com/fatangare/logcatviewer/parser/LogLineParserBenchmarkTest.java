@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.fatangare.logcatviewer.parser;
+
+import com.fatangare.logcatviewer.BenchmarkSupport;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of {@link LogLineReader} and {@link LogLineParser} for each logcat output format. Synthetic
+ * 'threadtime' lines are rewritten to other formats, so that all formats have same log entries.
+ */
+public class LogLineParserBenchmarkTest {
+    private static final int LINE_COUNT = 200000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Pattern THREADTIME = Pattern.compile(
+            "(\\d\\d-\\d\\d) (\\d\\d:\\d\\d:\\d\\d\\.\\d{3}) +(\\d+) +(\\d+) ([VDIWEF]) (.*?): (.*)");
+
+    /**
+     * Fields of synthetic lines: date, time, pid, tid, priority, tag and message.
+     */
+    private static ArrayList<String[]> sFields;
+
+    @BeforeClass
+    public static void generateFields() throws IOException {
+        byte[] lines = BenchmarkSupport.generateLines(LINE_COUNT);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(lines), UTF_8));
+        sFields = new ArrayList<>(LINE_COUNT);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Matcher matcher = THREADTIME.matcher(line);
+            assertTrue(line, matcher.matches());
+            String[] fields = new String[7];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = matcher.group(i + 1);
+            }
+            sFields.add(fields);
+        }
+    }
+
+    @Test
+    public void measureThreadtime() throws IOException {
+        measure("threadtime", LogLineParser.FORMAT_THREADTIME, "%1$s %2$s %3$5s %4$5s %5$s %6$s: %7$s\n");
+    }
+
+    @Test
+    public void measureThreadtimeWithYearAndUid() throws IOException {
+        measure("threadtime,year,uid", LogLineParser.FORMAT_THREADTIME,
+                "2016-%1$s %2$s u0_a57 %3$5s %4$5s %5$s %6$s: %7$s\n");
+    }
+
+    @Test
+    public void measureThreadtimeWithEpoch() throws IOException {
+        measure("threadtime,epoch", LogLineParser.FORMAT_THREADTIME,
+                "  1476000000.%8$03d %3$5s %4$5s %5$s %6$s: %7$s\n");
+    }
+
+    @Test
+    public void measureTime() throws IOException {
+        measure("time", LogLineParser.FORMAT_TIME, "%1$s %2$s %5$s/%6$s(%3$5s): %7$s\n");
+    }
+
+    @Test
+    public void measureBrief() throws IOException {
+        measure("brief", LogLineParser.FORMAT_BRIEF, "%5$s/%6$s(%3$5s): %7$s\n");
+    }
+
+    @Test
+    public void measureLong() throws IOException {
+        measure("long", LogLineParser.FORMAT_LONG, "[ %1$s %2$s %3$5s:%4$5s %5$s/%6$s ]\n%7$s\n\n");
+    }
+
+    /**
+     * Rewrite synthetic lines with format, check that they are parsed and measure reading and parsing them.
+     *
+     * @param pattern format of String.format() whose arguments are fields of synthetic line and line number.
+     */
+    private void measure(String name, int format, String pattern) throws IOException {
+        StringBuilder builder = new StringBuilder(LINE_COUNT * 100);
+        for (int i = 0; i < sFields.size(); i++) {
+            String[] fields = sFields.get(i);
+            builder.append(String.format(Locale.US, pattern, fields[0], fields[1], fields[2], fields[3], fields[4],
+                    fields[5], fields[6], i % 1000));
+        }
+        byte[] lines = builder.toString().getBytes(UTF_8);
+
+        ArrayList<LogEntry> logEntries = parse(lines, format);
+        assertEquals(LINE_COUNT, logEntries.size());
+        for (int i = 0; i < LINE_COUNT; i += 97) {
+            String[] fields = sFields.get(i);
+            LogEntry logEntry = logEntries.get(i);
+            assertEquals(fields[5], logEntry.getTag());
+            assertEquals(fields[6], logEntry.getMessage());
+            assertEquals(Integer.parseInt(fields[2]), logEntry.getPid());
+            assertEquals(fields[4].charAt(0), LogEntry.getPriorityChar(logEntry.getPriority()));
+        }
+        //Parsed log entries are released, so that they do not burden measurement.
+        logEntries = null;
+
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < BenchmarkSupport.RUNS; run++) {
+            long startTime = System.nanoTime();
+            LogLineReader reader = new LogLineReader(new ByteArrayInputStream(lines));
+            LogLineParser parser = new LogLineParser();
+            LogEntry logEntry;
+            while ((logEntry = reader.readLogEntry()) != null) {
+                parser.nextLogEntry(logEntry);
+            }
+            parser.flush();
+            best = Math.min(best, System.nanoTime() - startTime);
+        }
+        BenchmarkSupport.reportThroughput("read and parse " + name, lines.length, LINE_COUNT, best);
+    }
+
+    private static ArrayList<LogEntry> parse(byte[] lines, int format) throws IOException {
+        LogLineReader reader = new LogLineReader(new ByteArrayInputStream(lines));
+        LogLineParser parser = new LogLineParser();
+        ArrayList<LogEntry> logEntries = new ArrayList<>(LINE_COUNT);
+        LogEntry logEntry;
+        while ((logEntry = reader.readLogEntry()) != null) {
+            logEntry = parser.nextLogEntry(logEntry);
+            if (logEntry != null) {
+                logEntries.add(logEntry);
+            }
+        }
+        logEntry = parser.flush();
+        if (logEntry != null) {
+            logEntries.add(logEntry);
+        }
+        assertEquals(format, parser.getFormat());
+        return logEntries;
+    }
+}
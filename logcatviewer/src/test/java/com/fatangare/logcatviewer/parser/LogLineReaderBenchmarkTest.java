@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.fatangare.logcatviewer.parser;
+
+import com.fatangare.logcatviewer.BenchmarkSupport;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmark of {@link LogLineReader} against BufferedReader.readLine(), which it replaced, on synthetic
+ * 'threadtime' load.
+ */
+public class LogLineReaderBenchmarkTest {
+    private static final int LINE_COUNT = 200000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void measureThroughput() throws IOException {
+        byte[] lines = BenchmarkSupport.generateLines(LINE_COUNT);
+
+        long bestBufferedReader = Long.MAX_VALUE;
+        long bestLineReader = Long.MAX_VALUE;
+        int slabsAllocated = 0;
+        for (int run = 0; run < BenchmarkSupport.RUNS; run++) {
+            long startTime = System.nanoTime();
+            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(lines), UTF_8), 64 * 1024);
+            int count = 0;
+            while (bufferedReader.readLine() != null) {
+                count++;
+            }
+            bestBufferedReader = Math.min(bestBufferedReader, System.nanoTime() - startTime);
+            assertEquals(LINE_COUNT, count);
+
+            startTime = System.nanoTime();
+            LogLineReader lineReader = new LogLineReader(new ByteArrayInputStream(lines));
+            while (lineReader.readLogEntry() != null) {
+                //Log entry refers to line bytes; it is decoded only when its text is needed.
+            }
+            bestLineReader = Math.min(bestLineReader, System.nanoTime() - startTime);
+            assertEquals(LINE_COUNT, lineReader.getLinesRead());
+            assertEquals(lines.length, lineReader.getBytesRead());
+            slabsAllocated = lineReader.getSlabsAllocated();
+        }
+
+        BenchmarkSupport.reportThroughput("BufferedReader.readLine()", lines.length, LINE_COUNT, bestBufferedReader);
+        BenchmarkSupport.reportThroughput("LogLineReader.readLogEntry()", lines.length, LINE_COUNT, bestLineReader);
+        BenchmarkSupport.report("LogLineReader slabs allocated", slabsAllocated, "slabs");
+    }
+
+    @Test
+    public void readsSameLinesAsBufferedReader() throws IOException {
+        byte[] lines = BenchmarkSupport.generateLines(10000);
+        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(lines),
+                UTF_8));
+        LogLineReader lineReader = new LogLineReader(new ByteArrayInputStream(lines));
+
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            LogEntry logEntry = lineReader.readLogEntry();
+            assertEquals(line, logEntry.getText());
+        }
+        assertEquals(null, lineReader.readLogEntry());
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.service;
+
+import android.util.Log;
+
+import com.fatangare.logcatviewer.parser.LogEntry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LogHandoffQueue} drop policies and gap markers.
+ * Drained log entries are described as their messages, and gap markers as "[N]" where N is dropped count.
+ */
+public class LogHandoffQueueTest {
+
+    @Test
+    public void deliversInOrder() throws InterruptedException {
+        LogHandoffQueue queue = new LogHandoffQueue(10, LogHandoffQueue.POLICY_DROP_NEWEST);
+        assertTrue(queue.offer(entry("a", Log.INFO)));
+        //Delivery is already pending.
+        assertFalse(queue.offer(entry("b", Log.INFO)));
+        assertEquals("a b", drain(queue));
+        assertEquals(0, queue.size());
+        assertEquals(2, queue.getDeliveredCount());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void drainsAtMostMaxCount() throws InterruptedException {
+        LogHandoffQueue queue = new LogHandoffQueue(10, LogHandoffQueue.POLICY_DROP_NEWEST);
+        offer(queue, Log.INFO, "a", "b", "c");
+
+        List<LogEntry> logEntries = new ArrayList<>();
+        assertTrue(queue.drain(logEntries, 2));
+        assertEquals("a b", describe(logEntries));
+        assertEquals("c", drain(queue));
+    }
+
+    @Test
+    public void blockWaitsForDrain() throws Exception {
+        final LogHandoffQueue queue = new LogHandoffQueue(2, LogHandoffQueue.POLICY_BLOCK);
+        offer(queue, Log.INFO, "a", "b");
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.offer(entry("c", Log.INFO));
+                } catch (InterruptedException e) {
+                    //Test fails on missing log entry.
+                }
+            }
+        });
+        reader.start();
+        reader.join(200);
+        assertTrue("Reader did not wait for full queue", reader.isAlive());
+        assertEquals(2, queue.size());
+
+        assertEquals("a b", drain(queue));
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        assertEquals("c", drain(queue));
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldestReplacesItWithGapMarker() throws InterruptedException {
+        LogHandoffQueue queue = new LogHandoffQueue(3, LogHandoffQueue.POLICY_DROP_OLDEST);
+        offer(queue, Log.INFO, "a", "b", "c", "d", "e");
+        assertEquals(3, queue.size());
+        assertEquals("[2] c d e", drain(queue));
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(5, queue.getQueuedCount());
+    }
+
+    @Test
+    public void dropNewestAppendsGapMarker() throws InterruptedException {
+        LogHandoffQueue queue = new LogHandoffQueue(2, LogHandoffQueue.POLICY_DROP_NEWEST);
+        offer(queue, Log.INFO, "a", "b", "c", "d");
+        assertEquals("a b [2]", drain(queue));
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(2, queue.getQueuedCount());
+    }
+
+    @Test
+    public void dropLowestPriorityDropsOldestOfLowestPriority() throws InterruptedException {
+        LogHandoffQueue queue = new LogHandoffQueue(3, LogHandoffQueue.POLICY_DROP_LOWEST_PRIORITY);
+        queue.offer(entry("i1", Log.INFO));
+        queue.offer(entry("d1", Log.DEBUG));
+        queue.offer(entry("v1", Log.VERBOSE));
+        queue.offer(entry("e1", Log.ERROR));
+        queue.offer(entry("w1", Log.WARN));
+        assertEquals("i1 [2] e1 w1", drain(queue));
+    }
+
+    @Test
+    public void dropLowestPriorityDropsNewEntryOfLowestPriority() throws InterruptedException {
+        LogHandoffQueue queue = new LogHandoffQueue(2, LogHandoffQueue.POLICY_DROP_LOWEST_PRIORITY);
+        queue.offer(entry("i1", Log.INFO));
+        queue.offer(entry("w1", Log.WARN));
+        //No queued log entry has lower priority.
+        queue.offer(entry("i2", Log.INFO));
+        queue.offer(entry("v1", Log.VERBOSE));
+        assertEquals("i1 w1 [2]", drain(queue));
+        assertEquals(2, queue.getDroppedCount());
+    }
+
+    @Test
+    public void mergesGapMarkersOnBothSides() throws InterruptedException {
+        LogHandoffQueue queue = new LogHandoffQueue(4, LogHandoffQueue.POLICY_DROP_LOWEST_PRIORITY);
+        queue.offer(entry("x", Log.INFO));
+        queue.offer(entry("a", Log.VERBOSE));
+        queue.offer(entry("b", Log.DEBUG));
+        queue.offer(entry("c", Log.VERBOSE));
+        //Drops a, then c, so b is between two gap markers.
+        queue.offer(entry("e", Log.INFO));
+        queue.offer(entry("f", Log.INFO));
+        //Drops b, so both gap markers and b become one gap marker.
+        queue.offer(entry("h", Log.INFO));
+        assertEquals("x [3] e f h", drain(queue));
+    }
+
+    @Test
+    public void mergesGapMarkerAcrossHoles() throws InterruptedException {
+        LogHandoffQueue queue = new LogHandoffQueue(4, LogHandoffQueue.POLICY_DROP_LOWEST_PRIORITY);
+        queue.offer(entry("x", Log.INFO));
+        queue.offer(entry("a", Log.VERBOSE));
+        queue.offer(entry("b", Log.DEBUG));
+        queue.offer(entry("c", Log.VERBOSE));
+        queue.offer(entry("e", Log.INFO));
+        queue.offer(entry("f", Log.INFO));
+        queue.offer(entry("h", Log.INFO));
+
+        //Drops x, whose next log entry is gap marker after holes of earlier drops.
+        queue.setPolicy(LogHandoffQueue.POLICY_DROP_OLDEST, 4);
+        queue.offer(entry("k", Log.INFO));
+        assertEquals("[4] e f h k", drain(queue));
+        assertEquals(4, queue.getDroppedCount());
+    }
+
+    @Test
+    public void gapMarkerAfterLastTakenLogEntryIsDelivered() throws InterruptedException {
+        LogHandoffQueue queue = new LogHandoffQueue(2, LogHandoffQueue.POLICY_DROP_NEWEST);
+        offer(queue, Log.INFO, "a", "b", "c");
+
+        List<LogEntry> logEntries = new ArrayList<>();
+        assertFalse(queue.drain(logEntries, 2));
+        assertEquals("a b [1]", describe(logEntries));
+    }
+
+    @Test
+    public void keepsOrderAcrossCompaction() throws InterruptedException {
+        //More offers than initial slots, with drops leaving holes which are compacted, and partial drains.
+        LogHandoffQueue queue = new LogHandoffQueue(100, LogHandoffQueue.POLICY_DROP_LOWEST_PRIORITY);
+        int previous = -1;
+        int dropped = 0;
+        for (int i = 0; i < 1000; i++) {
+            queue.offer(entry(String.valueOf(i), i % 3 == 0 ? Log.VERBOSE : Log.INFO));
+            if (i % 7 == 6 || i == 999) {
+                List<LogEntry> logEntries = new ArrayList<>();
+                queue.drain(logEntries, i == 999 ? Integer.MAX_VALUE : 5);
+
+                boolean isPreviousGapMarker = false;
+                for (LogEntry logEntry : logEntries) {
+                    if (logEntry.isGapMarker()) {
+                        assertFalse("Adjacent gap markers", isPreviousGapMarker);
+                        dropped += logEntry.getDroppedCount();
+                    } else {
+                        int value = Integer.parseInt(logEntry.getMessage());
+                        assertTrue(value > previous);
+                        previous = value;
+                    }
+                    isPreviousGapMarker = logEntry.isGapMarker();
+                }
+            }
+        }
+
+        assertEquals(0, queue.size());
+        assertEquals(queue.getDroppedCount(), dropped);
+        assertEquals(1000, queue.getDeliveredCount() + queue.getDroppedCount());
+    }
+
+    private static LogEntry entry(String message, int priority) {
+        return new LogEntry(1, 1, 0, priority, "Tag", message);
+    }
+
+    private static void offer(LogHandoffQueue queue, int priority, String... messages) throws InterruptedException {
+        for (String message : messages) {
+            queue.offer(entry(message, priority));
+        }
+    }
+
+    private static String drain(LogHandoffQueue queue) {
+        List<LogEntry> logEntries = new ArrayList<>();
+        queue.drain(logEntries, Integer.MAX_VALUE);
+        return describe(logEntries);
+    }
+
+    private static String describe(List<LogEntry> logEntries) {
+        StringBuilder builder = new StringBuilder();
+        for (LogEntry logEntry : logEntries) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            if (logEntry.isGapMarker()) {
+                builder.append('[').append(logEntry.getDroppedCount()).append(']');
+            } else {
+                builder.append(logEntry.getMessage());
+            }
+        }
+        return builder.toString();
+    }
+}
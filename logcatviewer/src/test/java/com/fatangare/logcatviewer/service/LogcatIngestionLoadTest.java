@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.service;
+
+import com.fatangare.logcatviewer.BenchmarkSupport;
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.parser.LogLineParser;
+import com.fatangare.logcatviewer.parser.LogLineReader;
+import com.fatangare.logcatviewer.parser.LogRepeatCollapser;
+import com.fatangare.logcatviewer.source.SyntheticLogSource;
+import com.fatangare.logcatviewer.store.LogStore;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test of ingestion pipeline on plain JVM: {@link LogcatIngestionController} runs reader thread which reads
+ * {@link SyntheticLogSource} at 50k lines/s, parses and collapses lines and hands them over through
+ * {@link LogHandoffQueue}, as the service does. Test thread takes batches every frame, like main thread,
+ * appends them to {@link LogStore} and filters them by text, as the view does.
+ * Pipeline should keep up with the source without dropping any log entry.
+ */
+public class LogcatIngestionLoadTest {
+    private static final int LINES_PER_SECOND = 50000;
+
+    private static final long DURATION = 3000; //3s
+
+    /**
+     * Interval and size of batches taken by test thread, same as defaults of service.
+     */
+    private static final long BATCH_INTERVAL = 16; //16ms
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private static final int STORE_MAX_ENTRIES = 100000;
+
+    private static final String FILTER_TEXT = "activitymanager";
+
+    @Test
+    public void keepsUpWith50kLinesPerSecond() throws InterruptedException {
+        final LogHandoffQueue queue = new LogHandoffQueue(10000, LogHandoffQueue.POLICY_DROP_OLDEST);
+        final AtomicLong linesRead = new AtomicLong();
+        final AtomicLong readerFailures = new AtomicLong();
+
+        LogcatIngestionController controller = new LogcatIngestionController(new LogcatIngestionController.Reader() {
+            @Override
+            public void read(LogcatIngestionController.Session session) {
+                SyntheticLogSource logSource = new SyntheticLogSource(LINES_PER_SECOND);
+                LogLineReader reader = null;
+                try {
+                    InputStream inputStream = logSource.open();
+                    session.attachLogSource(logSource);
+                    reader = new LogLineReader(inputStream);
+                    LogLineParser parser = new LogLineParser();
+                    LogRepeatCollapser collapser = new LogRepeatCollapser();
+
+                    LogEntry logEntry;
+                    while (!session.isStopRequested() && (logEntry = reader.readLogEntry()) != null) {
+                        logEntry = parser.nextLogEntry(logEntry);
+                        if (logEntry != null && !collapser.collapse(logEntry)) {
+                            queue.offer(logEntry);
+                        }
+                    }
+                } catch (IOException e) {
+                    if (!session.isStopRequested()) {
+                        readerFailures.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    //Stopped while waiting for queue.
+                } finally {
+                    if (reader != null) {
+                        linesRead.set(reader.getLinesRead());
+                    }
+                }
+            }
+        });
+
+        LogStore store = new LogStore(STORE_MAX_ENTRIES, Long.MAX_VALUE);
+        List<LogEntry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        long filtered = 0;
+        long maxBatchNanos = 0;
+
+        long startTime = System.nanoTime();
+        controller.start();
+        while (System.nanoTime() - startTime < DURATION * 1000000L) {
+            Thread.sleep(BATCH_INTERVAL);
+            boolean isMorePending = true;
+            while (isMorePending) {
+                batch.clear();
+                isMorePending = queue.drain(batch, MAX_BATCH_SIZE);
+
+                long batchStart = System.nanoTime();
+                for (LogEntry logEntry : batch) {
+                    long sequence = store.append(logEntry);
+                    if (store.getText(sequence).toLowerCase().contains(FILTER_TEXT)) {
+                        filtered++;
+                    }
+                }
+                maxBatchNanos = Math.max(maxBatchNanos, System.nanoTime() - batchStart);
+            }
+        }
+        assertTrue("Reader thread did not stop", controller.stop(1000));
+        long elapsed = System.nanoTime() - startTime;
+
+        batch.clear();
+        queue.drain(batch, Integer.MAX_VALUE);
+        for (LogEntry logEntry : batch) {
+            store.append(logEntry);
+        }
+
+        double linesPerSecond = linesRead.get() / (elapsed / 1e9);
+        BenchmarkSupport.report("lines read", linesRead.get(), "lines");
+        BenchmarkSupport.report("ingestion rate", linesPerSecond, "lines/s");
+        BenchmarkSupport.report("delivered", queue.getDeliveredCount(), "log entries");
+        BenchmarkSupport.report("dropped", queue.getDroppedCount(), "log entries");
+        BenchmarkSupport.report("matching filter text", filtered, "log entries");
+        BenchmarkSupport.report("slowest batch", maxBatchNanos / 1e6, "ms");
+
+        assertEquals(0, readerFailures.get());
+        //Source is paced, so reader can not be faster; start-up and stop are part of elapsed time.
+        assertTrue("Ingestion fell behind: " + linesPerSecond + " lines/s", linesPerSecond > LINES_PER_SECOND * 0.8);
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(queue.getQueuedCount(), queue.getDeliveredCount());
+        assertEquals(Math.min(queue.getDeliveredCount(), STORE_MAX_ENTRIES), store.size());
+        assertTrue(filtered > 0);
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.fatangare.logcatviewer.store;
+
+import com.fatangare.logcatviewer.BenchmarkSupport;
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.parser.LogLineParser;
+import com.fatangare.logcatviewer.parser.LogLineReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of saving store to snapshot and restoring it, on synthetic 'threadtime' load. Time of capturing
+ * segment is what main thread spends per snapshot; first segment has all log entries of store and later ones
+ * have only log entries added since previous segment.
+ */
+public class LogSnapshotBenchmarkTest {
+    private static final int STORE_ENTRIES = 200000;
+
+    /**
+     * Number of log entries added between periodic snapshots.
+     */
+    private static final int NEW_ENTRIES = 5000;
+
+    private static final int RESTORE_CHUNK_SIZE = 5000;
+
+    private File mFile;
+
+    @Before
+    public void createFile() throws IOException {
+        mFile = File.createTempFile("logcat_snapshot", null);
+    }
+
+    @After
+    public void deleteFile() {
+        mFile.delete();
+    }
+
+    @Test
+    public void measureSaveAndRestore() throws IOException {
+        byte[] lines = BenchmarkSupport.generateLines(STORE_ENTRIES + NEW_ENTRIES * BenchmarkSupport.RUNS);
+        LogLineReader reader = new LogLineReader(new ByteArrayInputStream(lines));
+        LogLineParser parser = new LogLineParser();
+        LogStore store = new LogStore(STORE_ENTRIES, Long.MAX_VALUE);
+        append(store, reader, parser, STORE_ENTRIES);
+
+        //Snapshot of whole store.
+        LogSnapshotWriter snapshotWriter = new LogSnapshotWriter(mFile);
+        long startTime = System.nanoTime();
+        LogSnapshotWriter.Segment segment = snapshotWriter.capture(store, -1);
+        long captureTime = System.nanoTime() - startTime;
+        assertNotNull(segment);
+        assertEquals(STORE_ENTRIES, segment.getEntryCount());
+        long segmentSize = segment.getSize();
+        startTime = System.nanoTime();
+        snapshotWriter.write(segment);
+        long writeTime = System.nanoTime() - startTime;
+        BenchmarkSupport.report("capture " + STORE_ENTRIES + " entries", captureTime / 1e6, "ms");
+        BenchmarkSupport.report("write " + (segmentSize >> 10) + " KB", writeTime / 1e6, "ms");
+
+        //Periodic snapshots of new log entries only, while oldest ones are evicted.
+        long bestCaptureTime = Long.MAX_VALUE;
+        long bestWriteTime = Long.MAX_VALUE;
+        for (int run = 0; run < BenchmarkSupport.RUNS; run++) {
+            long fromSequence = store.getNextSequence();
+            append(store, reader, parser, NEW_ENTRIES);
+
+            startTime = System.nanoTime();
+            segment = snapshotWriter.capture(store, fromSequence);
+            bestCaptureTime = Math.min(bestCaptureTime, System.nanoTime() - startTime);
+            assertEquals(NEW_ENTRIES, segment.getEntryCount());
+            startTime = System.nanoTime();
+            snapshotWriter.write(segment);
+            bestWriteTime = Math.min(bestWriteTime, System.nanoTime() - startTime);
+        }
+        snapshotWriter.close();
+        BenchmarkSupport.report("capture " + NEW_ENTRIES + " new entries", bestCaptureTime / 1e6, "ms");
+        BenchmarkSupport.report("write " + NEW_ENTRIES + " new entries", bestWriteTime / 1e6, "ms");
+
+        //Restore, in chunks as view does.
+        startTime = System.nanoTime();
+        LogSnapshot snapshot = new LogSnapshot(mFile);
+        ArrayList<LogEntry> logEntries = new ArrayList<>();
+        long firstChunkTime = 0;
+        try {
+            List<LogEntry> chunk;
+            while (!(chunk = snapshot.read(RESTORE_CHUNK_SIZE)).isEmpty()) {
+                if (firstChunkTime == 0) {
+                    firstChunkTime = System.nanoTime() - startTime;
+                }
+                logEntries.addAll(chunk);
+            }
+        } finally {
+            snapshot.close();
+        }
+        long restoreTime = System.nanoTime() - startTime;
+        BenchmarkSupport.report("restore first " + RESTORE_CHUNK_SIZE + " entries", firstChunkTime / 1e6, "ms");
+        BenchmarkSupport.report("restore " + logEntries.size() + " entries", restoreTime / 1e6, "ms");
+
+        //Snapshot may have older log entries than store, which store evicts again when they are restored.
+        assertTrue(logEntries.size() >= store.size());
+        int offset = logEntries.size() - store.size();
+        for (int i = 0; i < store.size(); i += 31) {
+            long sequence = store.getFirstSequence() + i;
+            LogEntry logEntry = logEntries.get(offset + i);
+            assertEquals(store.getText(sequence), logEntry.getText());
+            assertEquals(store.getTimestamp(sequence), logEntry.getTimestamp());
+            assertEquals(store.getTagId(sequence), logEntry.getTagId());
+        }
+    }
+
+    private static void append(LogStore store, LogLineReader reader, LogLineParser parser, int count)
+            throws IOException {
+        for (int i = 0; i < count; i++) {
+            store.append(parser.nextLogEntry(reader.readLogEntry()));
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.store;
+
+import android.util.Log;
+
+import com.fatangare.logcatviewer.BenchmarkSupport;
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.parser.LogLineParser;
+import com.fatangare.logcatviewer.parser.LogLineReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LogSpill} and spilling of {@link LogStore}, on segment files in temporary directory.
+ */
+public class LogSpillTest {
+    private File mDirectory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        mDirectory = Files.createTempDirectory("log-spill").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void readsBackLogEntriesOfSealedAndOpenSegments() throws IOException {
+        ArrayList<LogEntry> logEntries = readLogEntries(60000);
+        LogSpill spill = new LogSpill(mDirectory, LogSpill.DEFAULT_MAX_BYTES);
+        for (int i = 0; i < logEntries.size(); i++) {
+            spill.append(100 + i, logEntries.get(i));
+        }
+
+        //Lines do not fit in one segment, so earlier segments are sealed.
+        assertTrue(spill.getSegmentsCreated() > 1);
+        assertEquals(logEntries.size(), spill.size());
+        assertEquals(100, spill.getFirstSequence());
+        for (int i = 0; i < logEntries.size(); i++) {
+            assertSameLogEntry(logEntries.get(i), spill.get(100 + i));
+        }
+        assertFalse(spill.contains(99));
+        assertFalse(spill.contains(100 + logEntries.size()));
+        spill.close();
+    }
+
+    @Test
+    public void readsBackGapMarkersAndDecodedLogEntries() throws IOException {
+        LogSpill spill = new LogSpill(mDirectory, LogSpill.DEFAULT_MAX_BYTES);
+        LogEntry decoded = new LogEntry(12, 34, 1500000000123456789L, Log.WARN, "Tag", "message");
+        decoded.setLogId(3);
+        decoded.setRepeats(2, 1500000001000000000L);
+        spill.append(0, decoded);
+        spill.append(1, LogEntry.createGapMarker(42));
+
+        LogEntry logEntry = spill.get(0);
+        assertEquals(decoded.getText(), logEntry.getText());
+        assertEquals(Log.WARN, logEntry.getPriority());
+        assertEquals(3, logEntry.getLogId());
+        assertEquals(2, logEntry.getRepeatCount());
+        assertEquals(1500000001000000000L, logEntry.getLastRepeatTimestamp());
+
+        assertTrue(spill.isGapMarker(1));
+        assertEquals(0, spill.getPid(1));
+        assertEquals(42, spill.get(1).getDroppedCount());
+        spill.close();
+    }
+
+    @Test
+    public void reusesOldestSegmentOnceFull() throws IOException {
+        ArrayList<LogEntry> logEntries = readLogEntries(150000);
+        LogSpill spill = new LogSpill(mDirectory, 2L * LogSpill.SEGMENT_SIZE);
+        for (int i = 0; i < logEntries.size(); i++) {
+            spill.append(i, logEntries.get(i));
+        }
+
+        //Only two segments are ever created and mapped; older log entries are overwritten.
+        assertEquals(2, spill.getSegmentsCreated());
+        assertEquals(2L * LogSpill.SEGMENT_SIZE, spill.getBytes());
+        long firstSequence = spill.getFirstSequence();
+        assertTrue(firstSequence > 0);
+        assertFalse(spill.contains(firstSequence - 1));
+        assertEquals(logEntries.size() - firstSequence, spill.size());
+        for (long sequence = firstSequence; sequence < logEntries.size(); sequence++) {
+            assertSameLogEntry(logEntries.get((int) sequence), spill.get(sequence));
+        }
+        assertEquals(2, countSegmentFiles());
+        spill.close();
+    }
+
+    @Test
+    public void reusesSegmentsOfClearedScrollback() throws IOException {
+        ArrayList<LogEntry> logEntries = readLogEntries(60000);
+        LogSpill spill = new LogSpill(mDirectory, LogSpill.DEFAULT_MAX_BYTES);
+        for (int i = 0; i < logEntries.size(); i++) {
+            spill.append(i, logEntries.get(i));
+        }
+        int segmentsCreated = spill.getSegmentsCreated();
+
+        spill.clear();
+        assertTrue(spill.isEmpty());
+        assertFalse(spill.contains(0));
+
+        //New scrollback starts after cleared one and is written to same segments.
+        long nextSequence = logEntries.size();
+        for (int i = 0; i < logEntries.size(); i++) {
+            spill.append(nextSequence + i, logEntries.get(logEntries.size() - 1 - i));
+        }
+        assertEquals(segmentsCreated, spill.getSegmentsCreated());
+        assertEquals(nextSequence, spill.getFirstSequence());
+        for (int i = 0; i < logEntries.size(); i++) {
+            assertSameLogEntry(logEntries.get(logEntries.size() - 1 - i), spill.get(nextSequence + i));
+        }
+
+        spill.close();
+        assertEquals(0, countSegmentFiles());
+    }
+
+    @Test
+    public void reopeningDirectoryDeletesSegmentsOfPreviousSpill() throws IOException {
+        ArrayList<LogEntry> logEntries = readLogEntries(1000);
+        LogSpill spill = new LogSpill(mDirectory, LogSpill.DEFAULT_MAX_BYTES);
+        for (int i = 0; i < logEntries.size(); i++) {
+            spill.append(i, logEntries.get(i));
+        }
+        assertEquals(1, countSegmentFiles());
+
+        //E.g. previous process was killed without closing spill.
+        LogSpill reopened = new LogSpill(mDirectory, LogSpill.DEFAULT_MAX_BYTES);
+        assertEquals(0, countSegmentFiles());
+        assertTrue(reopened.isEmpty());
+
+        reopened.append(5, logEntries.get(7));
+        assertEquals(1, reopened.size());
+        assertSameLogEntry(logEntries.get(7), reopened.get(5));
+        reopened.close();
+    }
+
+    @Test
+    public void storeSpillsFromColumnsAndIndexesOnlyLogEntriesInMemory() throws IOException {
+        ArrayList<LogEntry> logEntries = readLogEntries(20000);
+        LogStore store = new LogStore(5000, Long.MAX_VALUE);
+        store.setSpillDirectory(mDirectory, LogSpill.DEFAULT_MAX_BYTES);
+        long[] sequences = new long[logEntries.size()];
+        for (int i = 0; i < logEntries.size(); i++) {
+            sequences[i] = store.append(logEntries.get(i));
+        }
+
+        assertEquals(5000, store.size());
+        assertEquals(15000, store.getSpilledCount());
+        assertEquals(sequences[0], store.getFirstSequence());
+        for (int i = 0; i < logEntries.size(); i++) {
+            assertSameLogEntry(logEntries.get(i), store.get(sequences[i]));
+            assertEquals(logEntries.get(i).getTagId(), store.getTagId(sequences[i]));
+        }
+
+        LogView view = new LogView();
+        store.selectByPriority(-1, Log.VERBOSE, view);
+        assertEquals(store.size(), view.size());
+        assertEquals(store.getFirstInMemorySequence(), view.get(0));
+
+        int[] tagIds = store.getTagsByVolume();
+        int tagCount = 0;
+        for (int tagId : tagIds) {
+            tagCount += store.getTagCount(tagId);
+        }
+        assertEquals(store.size(), tagCount);
+
+        store.closeSpill();
+        assertEquals(0, countSegmentFiles());
+        assertEquals(store.getFirstInMemorySequence(), store.getFirstSequence());
+    }
+
+    private int countSegmentFiles() {
+        File[] files = mDirectory.listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    private static ArrayList<LogEntry> readLogEntries(int lineCount) throws IOException {
+        LogLineReader reader = new LogLineReader(new ByteArrayInputStream(BenchmarkSupport.generateLines(lineCount)));
+        LogLineParser parser = new LogLineParser();
+        ArrayList<LogEntry> logEntries = new ArrayList<>();
+        LogEntry logEntry;
+        while ((logEntry = reader.readLogEntry()) != null) {
+            logEntry = parser.nextLogEntry(logEntry);
+            if (logEntry != null) {
+                logEntries.add(logEntry);
+            }
+        }
+        return logEntries;
+    }
+
+    private static void assertSameLogEntry(LogEntry expected, LogEntry actual) {
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getPid(), actual.getPid());
+        assertEquals(expected.getTid(), actual.getTid());
+        assertEquals(expected.getPriority(), actual.getPriority());
+        assertEquals(expected.getTag(), actual.getTag());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals(expected.getLogId(), actual.getLogId());
+    }
+}
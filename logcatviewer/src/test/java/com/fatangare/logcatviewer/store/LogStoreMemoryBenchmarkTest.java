@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.fatangare.logcatviewer.store;
+
+import com.fatangare.logcatviewer.BenchmarkSupport;
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.parser.LogLineParser;
+import com.fatangare.logcatviewer.parser.LogLineReader;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of heap used per log entry by {@link LogStore} against list of line Strings, on synthetic
+ * 'threadtime' load. Heap is measured after collecting garbage, so it is approximate. Strings are released
+ * before store is measured, so that both do not need heap at once.
+ */
+public class LogStoreMemoryBenchmarkTest {
+    private static final int LINE_COUNT = 1000000;
+
+    /**
+     * Every this many lines is kept to check that store keeps same text as strings.
+     */
+    private static final int SAMPLE_INTERVAL = 97;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void measureMemoryPerEntry() throws IOException {
+        byte[] lines = BenchmarkSupport.generateLines(LINE_COUNT);
+        BenchmarkSupport.report("raw text per line", (double) lines.length / LINE_COUNT, "bytes");
+
+        long usedMemory = BenchmarkSupport.getUsedMemory();
+        ArrayList<String> strings = readStrings(lines);
+        long stringsMemory = BenchmarkSupport.getUsedMemory() - usedMemory;
+        assertEquals(LINE_COUNT, strings.size());
+        ArrayList<String> samples = new ArrayList<>();
+        for (int i = 0; i < LINE_COUNT; i += SAMPLE_INTERVAL) {
+            samples.add(strings.get(i));
+        }
+        strings = null;
+
+        usedMemory = BenchmarkSupport.getUsedMemory();
+        LogStore store = readStore(lines);
+        long storeMemory = BenchmarkSupport.getUsedMemory() - usedMemory;
+        assertEquals(LINE_COUNT, store.size());
+
+        //Store keeps same text as strings.
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals(samples.get(i), store.getText(store.getFirstSequence() + (long) i * SAMPLE_INTERVAL));
+        }
+
+        double stringsPerEntry = (double) stringsMemory / LINE_COUNT;
+        double storePerEntry = (double) storeMemory / LINE_COUNT;
+        BenchmarkSupport.report("ArrayList<String> per entry", stringsPerEntry, "bytes");
+        BenchmarkSupport.report("LogStore per entry", storePerEntry, "bytes");
+        BenchmarkSupport.report("LogStore footprint per entry", (double) store.getMemoryFootprint() / LINE_COUNT,
+                "bytes");
+        assertTrue("LogStore takes " + storePerEntry + " bytes per entry, ArrayList<String> " + stringsPerEntry,
+                storePerEntry < stringsPerEntry);
+    }
+
+    private static ArrayList<String> readStrings(byte[] lines) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(lines), UTF_8));
+        ArrayList<String> strings = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            strings.add(line);
+        }
+        return strings;
+    }
+
+    /**
+     * Read lines into store as service and view do: read, parse and append them.
+     */
+    private static LogStore readStore(byte[] lines) throws IOException {
+        LogStore store = new LogStore(LINE_COUNT, Long.MAX_VALUE);
+        LogLineReader reader = new LogLineReader(new ByteArrayInputStream(lines));
+        LogLineParser parser = new LogLineParser();
+        LogEntry logEntry;
+        while ((logEntry = reader.readLogEntry()) != null) {
+            logEntry = parser.nextLogEntry(logEntry);
+            if (logEntry != null) {
+                store.append(logEntry);
+            }
+        }
+        return store;
+    }
+}
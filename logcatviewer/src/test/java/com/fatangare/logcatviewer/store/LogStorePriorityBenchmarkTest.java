@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.store;
+
+import android.util.Log;
+
+import com.fatangare.logcatviewer.BenchmarkSupport;
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.parser.LogLineParser;
+import com.fatangare.logcatviewer.parser.LogLineReader;
+import com.fatangare.logcatviewer.utils.Constants;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of changing priority level in view i.e. selecting log entries of priority level or higher
+ * from priority index of {@link LogStore}, on 500k synthetic 'threadtime' log entries.
+ * Target is well under 50 ms per change; it is asserted for best of runs, so that warm-up is not measured.
+ */
+public class LogStorePriorityBenchmarkTest {
+    private static final int ENTRY_COUNT = 500000;
+
+    private static final long TARGET_NANOS = 50 * 1000000L;
+
+    /**
+     * Priority levels of priority radio in view.
+     */
+    private static final int[] PRIORITIES = {Log.VERBOSE, Log.DEBUG, Log.INFO, Log.WARN, Log.ERROR};
+
+    @Test
+    public void measurePriorityChange() throws IOException {
+        LogStore store = readStore(BenchmarkSupport.generateLines(ENTRY_COUNT));
+        assertEquals(ENTRY_COUNT, store.size());
+
+        LogView view = new LogView();
+        for (int logId : new int[]{Constants.LOG_ID_ALL, 0}) {
+            for (int priority : PRIORITIES) {
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < BenchmarkSupport.RUNS; run++) {
+                    long start = System.nanoTime();
+                    store.selectByPriority(logId, priority, view);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                assertEquals(countByScan(store, priority), view.size());
+
+                BenchmarkSupport.report("select " + (logId < 0 ? "all" : "main") + " >= "
+                        + LogEntry.getPriorityChar(priority) + " (" + view.size() + ")", best / 1e6, "ms");
+                assertTrue("Priority change took " + best / 1e6 + " ms", best < TARGET_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Count log entries of priority or higher by scanning priority column.
+     */
+    private static int countByScan(LogStore store, int minimumPriority) {
+        int count = 0;
+        for (long sequence = store.getFirstSequence(); sequence < store.getNextSequence(); sequence++) {
+            int priority = store.getPriority(sequence);
+            if ((priority == LogEntry.PRIORITY_UNKNOWN ? Log.VERBOSE : priority) >= minimumPriority) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static LogStore readStore(byte[] lines) throws IOException {
+        LogStore store = new LogStore(ENTRY_COUNT, Long.MAX_VALUE);
+        LogLineReader reader = new LogLineReader(new ByteArrayInputStream(lines));
+        LogLineParser parser = new LogLineParser();
+        LogEntry logEntry;
+        while ((logEntry = reader.readLogEntry()) != null) {
+            logEntry = parser.nextLogEntry(logEntry);
+            if (logEntry != null) {
+                store.append(logEntry);
+            }
+        }
+        return store;
+    }
+}
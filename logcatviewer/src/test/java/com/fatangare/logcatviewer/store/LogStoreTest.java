@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.store;
+
+import android.util.Log;
+
+import com.fatangare.logcatviewer.parser.LogEntry;
+import com.fatangare.logcatviewer.parser.LogLineParser;
+import com.fatangare.logcatviewer.parser.LogLineReader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LogStore}: log entries read back from its columns are same as appended ones.
+ */
+public class LogStoreTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String LONG_TAG = repeat('T', 300);
+
+    private static final String[] LINES = {
+            "10-17 06:17:56.294  1000  1006 V ActivityManager: message",
+            "10-17 06:17:56.295     1     1 E init: single digit ids",
+            //Ids wider than 5 digits are not padded.
+            "10-17 06:17:56.296 1234567 7654321 W Wide: wide ids",
+            "10-17 06:17:56.297  1000  1006 I " + LONG_TAG + ": tag too long for columns",
+            "10-17 06:17:56.298  1000  1006 D Ünïcödé: ünïcödé message",
+            "10-17 06:17:56.299  1000  1006 I Empty: ",
+            "--------- beginning of main",
+            "",
+    };
+
+    @Test
+    public void readsBackThreadtimeLines() throws IOException {
+        LogStore store = new LogStore(100, Long.MAX_VALUE);
+        ArrayList<LogEntry> logEntries = readLogEntries(LINES);
+        for (LogEntry logEntry : logEntries) {
+            store.append(logEntry);
+        }
+
+        assertEquals(LINES.length, store.size());
+        for (int i = 0; i < logEntries.size(); i++) {
+            long sequence = store.getFirstSequence() + i;
+            assertEquals(LINES[i], store.getText(sequence));
+            assertSameLogEntry(logEntries.get(i), store.get(sequence));
+        }
+        assertEquals(LONG_TAG, store.get(store.getFirstSequence() + 3).getTag());
+    }
+
+    @Test
+    public void readsBackTimeLines() throws IOException {
+        String[] lines = {
+                "10-17 06:17:56.294 V/ActivityManager( 1000): message",
+                "10-17 06:17:56.295 E/init(    1): other message",
+        };
+        LogStore store = new LogStore(100, Long.MAX_VALUE);
+        ArrayList<LogEntry> logEntries = readLogEntries(lines);
+        for (LogEntry logEntry : logEntries) {
+            store.append(logEntry);
+        }
+
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(lines[i], store.getText(store.getFirstSequence() + i));
+            assertSameLogEntry(logEntries.get(i), store.get(store.getFirstSequence() + i));
+        }
+    }
+
+    @Test
+    public void keepsDecodedLogEntriesAndGapMarkersAcrossEviction() {
+        LogStore store = new LogStore(10, Long.MAX_VALUE);
+        ArrayList<LogEntry> logEntries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            LogEntry logEntry = i % 7 == 0 ? LogEntry.createGapMarker(i)
+                    : new LogEntry(i, i, 1500000000000000000L + i * 1000000L, Log.INFO, "Tag", "message " + i);
+            logEntries.add(logEntry);
+            store.append(logEntry);
+        }
+
+        assertEquals(10, store.size());
+        assertEquals(90, store.getFirstSequence());
+        for (long sequence = 90; sequence < 100; sequence++) {
+            LogEntry logEntry = logEntries.get((int) sequence);
+            assertEquals(logEntry.isGapMarker(), store.isGapMarker(sequence));
+            assertEquals(logEntry.getText(), store.getText(sequence));
+            assertEquals(logEntry.getPid(), store.getPid(sequence));
+        }
+
+        long bytes = store.getBytes();
+        store.trimMemory(LogStore.TRIM_COMPACT);
+        assertEquals(bytes, store.getBytes());
+        assertEquals(logEntries.get(99).getText(), store.getText(99));
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.getBytes());
+    }
+
+    @Test
+    public void keepsRepeatsOfLogEntries() throws IOException {
+        LogStore store = new LogStore(2, Long.MAX_VALUE);
+        ArrayList<LogEntry> logEntries = readLogEntries(LINES);
+        logEntries.get(0).setRepeats(3, 1700000000000000000L);
+        long first = store.append(logEntries.get(0));
+        long second = store.append(logEntries.get(1));
+        store.setRepeats(second, 5, 1800000000000000000L);
+
+        assertEquals(3, store.get(first).getRepeatCount());
+        assertEquals(1700000000000000000L, store.get(first).getLastRepeatTimestamp());
+        assertEquals(5, store.get(second).getRepeatCount());
+        assertEquals(1800000000000000000L, store.get(second).getLastRepeatTimestamp());
+
+        //Repeats of evicted log entry are not taken by log entry which reuses its columns.
+        long third = store.append(logEntries.get(2));
+        assertFalse(store.contains(first));
+        assertEquals(0, store.get(third).getRepeatCount());
+        assertTrue(store.contains(second));
+        assertEquals(5, store.get(second).getRepeatCount());
+    }
+
+    private static ArrayList<LogEntry> readLogEntries(String[] lines) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        LogLineReader reader = new LogLineReader(new ByteArrayInputStream(builder.toString().getBytes(UTF_8)));
+        LogLineParser parser = new LogLineParser();
+        ArrayList<LogEntry> logEntries = new ArrayList<>();
+        LogEntry logEntry;
+        while ((logEntry = reader.readLogEntry()) != null) {
+            logEntry = parser.nextLogEntry(logEntry);
+            if (logEntry != null) {
+                logEntries.add(logEntry);
+            }
+        }
+        return logEntries;
+    }
+
+    private static void assertSameLogEntry(LogEntry expected, LogEntry actual) {
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getPid(), actual.getPid());
+        assertEquals(expected.getTid(), actual.getTid());
+        assertEquals(expected.getPriority(), actual.getPriority());
+        assertEquals(expected.getTag(), actual.getTag());
+        assertEquals(expected.getMessage(), actual.getMessage());
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2016  Sandeep Fatangare <sandeep@fatangare.info>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.fatangare.logcatviewer.store;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LogView}.
+ */
+public class LogViewTest {
+
+    @Test
+    public void addsAtBothEnds() {
+        LogView view = new LogView(2);
+        view.add(10);
+        view.add(12);
+        view.addFirst(7);
+        view.addFirst(3);
+        view.add(20);
+        assertView(view, 3, 7, 10, 12, 20);
+    }
+
+    @Test
+    public void unionOfDisjointViews() {
+        LogView union = new LogView();
+        union.setUnion(new LogView[]{view(1, 4, 9), view(2, 3, 10, 11), view(5)}, 0, 3);
+        assertView(union, 1, 2, 3, 4, 5, 9, 10, 11);
+    }
+
+    @Test
+    public void unionOfOverlappingViews() {
+        LogView union = new LogView();
+        union.setUnion(new LogView[]{view(1, 4, 9), view(1, 4, 5, 9), view(9, 12)}, 0, 3);
+        assertView(union, 1, 4, 5, 9, 12);
+    }
+
+    @Test
+    public void unionOfRangeOfViews() {
+        LogView union = new LogView();
+        LogView[] views = {view(1), view(2, 6), new LogView(), view(3)};
+        union.setUnion(views, 1, 3);
+        assertView(union, 2, 6);
+
+        union.setUnion(views, 2, 3);
+        assertView(union);
+
+        union.setUnion(views, 2, 2);
+        assertView(union);
+
+        //Single view is copied as it is.
+        union.setUnion(views, 1, 2);
+        assertView(union, 2, 6);
+    }
+
+    @Test
+    public void unionReusesMemoryOfView() {
+        LogView union = new LogView(16);
+        union.setUnion(new LogView[]{view(1, 3), view(2)}, 0, 2);
+        long memorySize = union.getMemorySize();
+        union.setUnion(new LogView[]{view(5), view(4, 6)}, 0, 2);
+        assertView(union, 4, 5, 6);
+        assertEquals(memorySize, union.getMemorySize());
+    }
+
+    @Test
+    public void unionOfViewsWithDifferentBases() {
+        long base = 3L * Integer.MAX_VALUE;
+        LogView first = view(base + 10, base + 30);
+        LogView second = new LogView();
+        second.addFirst(base + 20);
+        second.addFirst(base + 5);
+        LogView union = new LogView();
+        union.setUnion(new LogView[]{first, second}, 0, 2);
+        assertView(union, base + 5, base + 10, base + 20, base + 30);
+    }
+
+    @Test
+    public void rebasesWhenAddingPastIntOffsets() {
+        LogView view = new LogView();
+        view.add(0);
+        long first = Integer.MAX_VALUE - 10L;
+        view.add(first);
+        //Base is still 0, so next sequence number does not fit in offset from it.
+        view.removeBefore(first);
+        view.add(first + 100);
+        view.add(first + Integer.MAX_VALUE);
+        assertView(view, first, first + 100, first + Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void rebasesWhenAddingFirstPastIntOffsets() {
+        LogView view = new LogView();
+        view.addFirst(3000000000L);
+        view.addFirst(2000000000L);
+        //Base is still the removed sequence number, so next sequence number does not fit in offset from it.
+        view.truncate(1);
+        view.addFirst(500000000L);
+        assertView(view, 500000000L, 2000000000L);
+        view.add(2100000000L);
+        assertView(view, 500000000L, 2000000000L, 2100000000L);
+    }
+
+    @Test
+    public void addsFirstAfterEviction() {
+        LogView view = new LogView(4);
+        for (long sequence = 100; sequence < 110; sequence++) {
+            view.add(sequence);
+        }
+        view.removeBefore(105);
+        assertView(view, 105, 106, 107, 108, 109);
+
+        //Space of removed sequence numbers is reused.
+        view.addFirst(104);
+        view.addFirst(90);
+        assertView(view, 90, 104, 105, 106, 107, 108, 109);
+
+        //Emptied view starts again at any sequence number.
+        view.removeBefore(1000);
+        assertView(view);
+        view.addFirst(5000);
+        view.addFirst(4000);
+        assertView(view, 4000, 5000);
+    }
+
+    @Test
+    public void removesBeforeAtBoundaries() {
+        LogView view = view(10, 20, 30);
+        view.removeBefore(10);
+        assertView(view, 10, 20, 30);
+        view.removeBefore(5);
+        assertView(view, 10, 20, 30);
+        view.removeBefore(11);
+        assertView(view, 20, 30);
+        view.removeBefore(30);
+        assertView(view, 30);
+        view.removeBefore(31);
+        assertView(view);
+        view.removeBefore(100);
+        assertView(view);
+
+        view.add(40);
+        assertView(view, 40);
+    }
+
+    @Test
+    public void setsAndTruncatesInPlace() {
+        LogView view = view(1, 2, 3, 4, 5);
+        //Keep even sequence numbers.
+        int size = 0;
+        for (int i = 0; i < view.size(); i++) {
+            if (view.get(i) % 2 == 0) {
+                view.set(size++, view.get(i));
+            }
+        }
+        view.truncate(size);
+        assertView(view, 2, 4);
+        view.truncate(10);
+        assertView(view, 2, 4);
+        view.truncate(-1);
+        assertView(view);
+    }
+
+    @Test
+    public void clearAndTrimReleaseMemory() {
+        LogView view = new LogView(4);
+        for (long sequence = 0; sequence < 100; sequence++) {
+            view.add(sequence);
+        }
+        view.removeBefore(98);
+        view.trimToSize();
+        assertEquals(4 * 4, view.getMemorySize());
+        assertView(view, 98, 99);
+
+        for (long sequence = 100; sequence < 200; sequence++) {
+            view.add(sequence);
+        }
+        view.clear();
+        assertEquals(4 * 4, view.getMemorySize());
+        assertView(view);
+    }
+
+    @Test
+    public void matchesDequeOnRandomOperations() {
+        Random random = new Random(0);
+        LogView view = new LogView(2);
+        ArrayDeque<Long> expected = new ArrayDeque<>();
+        long first = 1L << 40;
+        long last = first;
+        for (int i = 0; i < 100000; i++) {
+            int operation = random.nextInt(10);
+            if (operation < 5 || expected.isEmpty()) {
+                last += 1 + random.nextInt(1000);
+                if (expected.isEmpty()) {
+                    first = last;
+                }
+                view.add(last);
+                expected.addLast(last);
+            } else if (operation < 8) {
+                first -= 1 + random.nextInt(1000);
+                view.addFirst(first);
+                expected.addFirst(first);
+            } else {
+                long sequence = expected.getFirst() + random.nextInt(3000);
+                view.removeBefore(sequence);
+                while (!expected.isEmpty() && expected.getFirst() < sequence) {
+                    expected.removeFirst();
+                }
+                if (!expected.isEmpty()) {
+                    first = expected.getFirst();
+                }
+            }
+            assertEquals(expected.size(), view.size());
+        }
+
+        Iterator<Long> iterator = expected.iterator();
+        for (int i = 0; i < view.size(); i++) {
+            assertEquals((long) iterator.next(), view.get(i));
+        }
+    }
+
+    private static LogView view(long... sequences) {
+        LogView view = new LogView(2);
+        for (long sequence : sequences) {
+            view.add(sequence);
+        }
+        return view;
+    }
+
+    private static void assertView(LogView view, long... sequences) {
+        assertEquals(sequences.length, view.size());
+        assertEquals(sequences.length == 0, view.isEmpty());
+        for (int i = 0; i < sequences.length; i++) {
+            assertEquals(sequences[i], view.get(i));
+        }
+        for (int i = 1; i < view.size(); i++) {
+            assertTrue(view.get(i) > view.get(i - 1));
+        }
+    }
+}